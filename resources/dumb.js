@@ -7,8 +7,14 @@ if (isBrowser) {
 }
 
 function dumbMessages() {
+    if (profileTests) {
+        emit({kind: "testStats", tests: testStats});
+    }
+    emit({kind: "executed", count: i, time: (+new RealDate()) - startTime});
+
     setTimeout(function () {
         dumbCoverage();
+        closeEvents();
 
         if (isBrowser) {
             printForReal("close");
@@ -0,0 +1,219 @@
+// A long-lived node process, that runs scripts submitted by NodeWorkerPool (see the Java side).
+// Jobs are received as newline delimited JSON on stdin: {id, script, args, cwd}.
+// Everything the job prints is forwarded as {id, type: "out"|"err", data} lines on stdout, and when the job has no more pending work {id, type: "done", leaked} is sent.
+// If "leaked" is true, the job left something behind that we could not clean up, and the worker should be recycled.
+var Module = require("module");
+var path = require("path");
+var asyncHooks = require("async_hooks");
+
+var realStdoutWrite = process.stdout.write.bind(process.stdout);
+var realStderrWrite = process.stderr.write.bind(process.stderr);
+var realExit = process.exit;
+var realChdir = process.chdir;
+var initialCwd = process.cwd();
+
+function send(message) {
+    realStdoutWrite(JSON.stringify(message) + "\n");
+}
+
+// Snapshots of the global state that drivers are known to modify (prelude.js replaces Date, Math.random, and all console methods).
+var globalKeys = Object.getOwnPropertyNames(global);
+var savedGlobals = {};
+globalKeys.forEach(function (key) {
+    try {
+        savedGlobals[key] = global[key];
+    } catch (ignored) { }
+});
+var savedMath = {};
+Object.getOwnPropertyNames(Math).forEach(function (key) {
+    savedMath[key] = Math[key];
+});
+var savedConsole = {};
+Object.keys(console).forEach(function (key) {
+    savedConsole[key] = console[key];
+});
+var savedArgv = process.argv.slice();
+var savedListeners = {};
+["uncaughtException", "unhandledRejection", "exit", "beforeExit"].forEach(function (event) {
+    savedListeners[event] = process.listeners(event);
+});
+var initialCache = Object.keys(require.cache);
+var originalJsExtension = Module._extensions[".js"];
+
+// Tracking of the async resources created by the current job, such that we know when the job is done.
+var ignoredResourceTypes = ["PROMISE", "WRITEWRAP", "SHUTDOWNWRAP", "TTYWRAP", "PIPEWRAP", "TickObject"];
+var job = null;
+var loadingJob = false;
+var jobResources = new Set();
+var liveResources = new Set();
+
+asyncHooks.createHook({
+    init: function (asyncId, type, triggerAsyncId) {
+        if (!job || ignoredResourceTypes.indexOf(type) !== -1) {
+            return;
+        }
+        var executionId = asyncHooks.executionAsyncId();
+        if (loadingJob || jobResources.has(executionId) || jobResources.has(triggerAsyncId)) {
+            jobResources.add(asyncId);
+            liveResources.add(asyncId);
+        }
+    },
+    destroy: function (asyncId) {
+        liveResources.delete(asyncId);
+    }
+}).enable();
+
+// Tooling (typescript, istanbul, etc.) is kept loaded between jobs, since loading it is what takes time. Everything the job itself loads is reloaded for the next job.
+function isReusableModule(file, scriptDir) {
+    var nodeModules = path.sep + "node_modules" + path.sep;
+    return file.indexOf(nodeModules) !== -1 && file.indexOf(scriptDir + path.sep) !== 0;
+}
+
+function restoreGlobals(scriptDir) {
+    var leaked = false;
+    Object.getOwnPropertyNames(global).forEach(function (key) {
+        if (globalKeys.indexOf(key) === -1) {
+            try {
+                delete global[key];
+            } catch (ignored) { }
+            if (Object.prototype.hasOwnProperty.call(global, key)) {
+                leaked = true;
+            }
+        }
+    });
+    Object.keys(savedGlobals).forEach(function (key) {
+        try {
+            if (global[key] !== savedGlobals[key]) {
+                global[key] = savedGlobals[key];
+            }
+        } catch (ignored) {
+            leaked = true;
+        }
+    });
+    Object.getOwnPropertyNames(Math).forEach(function (key) {
+        if (!(key in savedMath)) {
+            delete Math[key];
+        }
+    });
+    Object.keys(savedMath).forEach(function (key) {
+        Math[key] = savedMath[key];
+    });
+    Object.keys(savedConsole).forEach(function (key) {
+        console[key] = savedConsole[key];
+    });
+    Object.keys(savedListeners).forEach(function (event) {
+        process.removeAllListeners(event);
+        savedListeners[event].forEach(function (listener) {
+            process.on(event, listener);
+        });
+    });
+    Object.keys(require.cache).forEach(function (key) {
+        if (initialCache.indexOf(key) === -1 && !isReusableModule(key, scriptDir)) {
+            delete require.cache[key];
+        }
+    });
+    // Things like istanbul hooks the module loader.
+    Module._extensions[".js"] = originalJsExtension;
+    return leaked;
+}
+
+// The job is done, so the "exit" listeners it added are run, like node would have run them when the process exited (istanbul cover writes the coverage from one).
+// They are run before stdout is restored, such that what they print is forwarded.
+function runExitListeners(code) {
+    process.listeners("exit").forEach(function (listener) {
+        if (savedListeners["exit"].indexOf(listener) !== -1) {
+            return;
+        }
+        try {
+            listener.call(process, code);
+        } catch (e) {
+            send({id: job.id, type: "err", data: String(e && e.stack ? e.stack : e) + "\n"});
+        }
+    });
+}
+
+function finishJob(exiting, code) {
+    if (!job || job.finishing) {
+        return;
+    }
+    job.finishing = true;
+    runExitListeners(code !== undefined ? code : (process.exitCode || 0));
+    var id = job.id;
+    process.stdout.write = realStdoutWrite;
+    process.stderr.write = realStderrWrite;
+    process.exit = realExit;
+    process.argv = savedArgv.slice();
+    process.exitCode = undefined;
+    var leaked = restoreGlobals(job.scriptDir) || exiting || liveResources.size > 0;
+    job = null;
+    jobResources.clear();
+    liveResources.clear();
+    realChdir.call(process, initialCwd);
+    send({id: id, type: "done", leaked: leaked});
+}
+
+function startJob(message) {
+    job = message;
+    var cwd = message.cwd ? path.resolve(initialCwd, message.cwd) : initialCwd;
+    var script = path.resolve(cwd, message.script);
+    job.scriptDir = path.dirname(script);
+
+    process.stdout.write = function (chunk, encoding, callback) {
+        send({id: message.id, type: "out", data: String(chunk)});
+        if (typeof encoding === "function") encoding();
+        if (typeof callback === "function") callback();
+        return true;
+    };
+    process.stderr.write = function (chunk, encoding, callback) {
+        send({id: message.id, type: "err", data: String(chunk)});
+        if (typeof encoding === "function") encoding();
+        if (typeof callback === "function") callback();
+        return true;
+    };
+    process.exit = function (code) {
+        finishJob(true, code);
+        realExit.call(process, 0);
+    };
+    process.argv = [savedArgv[0], script].concat(message.args || []);
+
+    loadingJob = true;
+    try {
+        realChdir.call(process, cwd);
+        Module._load(script, null, true);
+    } catch (e) {
+        send({id: message.id, type: "err", data: String(e && e.stack ? e.stack : e) + "\n"});
+    } finally {
+        loadingJob = false;
+    }
+}
+
+// Finishing a job is done from a timer that is not owned by any job, since we cannot schedule things from within the async hooks.
+setInterval(function () {
+    if (job && !loadingJob && liveResources.size === 0) {
+        finishJob(false);
+    }
+}, 10);
+
+var buffer = "";
+process.stdin.setEncoding("utf8");
+process.stdin.on("data", function (data) {
+    buffer += data;
+    var newline;
+    while ((newline = buffer.indexOf("\n")) !== -1) {
+        var line = buffer.substring(0, newline);
+        buffer = buffer.substring(newline + 1);
+        if (line.trim().length === 0) {
+            continue;
+        }
+        if (job) {
+            send({id: -1, type: "err", data: "Received a job while another job was running\n"});
+            continue;
+        }
+        startJob(JSON.parse(line));
+    }
+});
+process.stdin.on("end", function () {
+    realExit.call(process, 0);
+});
+
+send({id: -1, type: "ready"});
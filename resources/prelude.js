@@ -67,29 +67,22 @@ function loadLibrary(path) {
     return require(path);
 }
 
-function createFailDescription(path, expected, actual, iteration, sequence, descrip) {
-    var failDescription = path + ": (iteration: " + iteration + ")\n";
-    failDescription += "    Here I expected: " + expected + ", but instead I got: \n";
-    failDescription += "        descrip: " + descrip + "\n";
-    failDescription += "        typeof: " + typeof actual + "\n";
+// Everything the driver reports is a record, printed as a single line of JSON (JSON.stringify escapes newlines), such that OutputParser can parse the output while the driver is running.
+function createFailRecord(path, expected, actual, iteration, descrip) {
+    var record = {kind: "fail", path: path, iteration: iteration, expected: expected, descrip: descrip, typeof: typeof actual};
     try {
         var string = JSON.stringify(actual + "");
-        failDescription += "        toString: " + string.substring(1, string.length - 1) + "\n";
+        record.string = string.substring(1, string.length - 1);
     } catch (e) {
-        failDescription += "        toString: [ERROR] \n";
+        record.string = "[ERROR]";
     }
     try {
         var json = JSON.stringify(actual);
-        if (json.length < 200) {
-            failDescription += "        JSON: " + json + "\n";
-        } else {
-            failDescription += "        JSON: LONG!\n";
-        }
+        record.json = json.length < 200 ? json : "LONG!";
     } catch (e) {
+        // No JSON, same as undefined.
     }
-    // failDescription += "        sequence: " + failure.sequence.toString() + "\n";
-    failDescription += "\n";
-    return failDescription;
+    return record;
 }
 
 var print = console.log.bind(console);
@@ -117,8 +110,57 @@ if (isBrowser) {
     window.confirm = function () {};
 }
 
+// If started with --tstest-events=PORT (see DriverEventChannel), the records are sent through a socket while the driver runs, and the other end can ask the driver to stop.
+var eventSocket = null;
+var stopRequested = false;
+if (!isBrowser) {
+    (function () {
+        var eventArgument = process.argv.filter(function (arg) {
+            return arg.indexOf("--tstest-events=") === 0;
+        })[0];
+        if (!eventArgument) {
+            return;
+        }
+        try {
+            eventSocket = require("net").connect(+eventArgument.substring("--tstest-events=".length), "127.0.0.1");
+            eventSocket.setNoDelay(true);
+            eventSocket.setEncoding("utf8");
+            eventSocket.on("data", function (data) {
+                if (data.indexOf("stop") !== -1) {
+                    stopRequested = true;
+                }
+            });
+            eventSocket.on("error", function () {
+                eventSocket = null;
+            });
+        } catch (e) {
+            eventSocket = null;
+        }
+    })();
+}
+
+function emit(record) {
+    var line = JSON.stringify(record);
+    if (eventSocket) {
+        eventSocket.write(line + "\n");
+    } else {
+        print(line);
+    }
+}
+
+function closeEvents() {
+    if (eventSocket) {
+        eventSocket.end();
+        eventSocket = null;
+    }
+}
+
+function reportTotalTests(count) {
+    emit({kind: "total", count: count});
+}
+
 function error(msg) {
-    print("error: " + msg);
+    emit({kind: "error", message: msg + ""});
 }
 
 var runsWithCoverage = (function () {
@@ -156,10 +198,56 @@ function post(host, port, path, value) {
 
     request('POST', "http://" + host + ":" + port + path, {body: value});
 }
+// The counters of the coverage that has already been sent, such that only the counters that changed are sent next time.
+var coverageSent = {};
+// The counters that changed since the last call, as flat arrays: [id, count, ...] for statements and functions, and [id, arm, count, ...] for branches.
+// The first time a file is seen, everything else istanbul knows about it (statementMap, fnMap, branchMap, etc.) is included as "info".
+function coverageDelta(coverage) {
+    function diffCounters(counters, sent, result) {
+        for (var id in counters) {
+            if (counters[id] !== (sent[id] || 0)) {
+                result.push(+id, counters[id]);
+                sent[id] = counters[id];
+            }
+        }
+    }
+    var delta = {};
+    for (var path in coverage) {
+        var file = coverage[path];
+        var fileDelta = {s: [], f: [], b: []};
+        var sent = coverageSent[path];
+        if (!sent) {
+            sent = coverageSent[path] = {s: {}, f: {}, b: {}};
+            fileDelta.info = {};
+            for (var key in file) {
+                if (key !== "s" && key !== "f" && key !== "b") {
+                    fileDelta.info[key] = file[key];
+                }
+            }
+        }
+        diffCounters(file.s, sent.s, fileDelta.s);
+        diffCounters(file.f, sent.f, fileDelta.f);
+        for (var id in file.b) {
+            var arms = file.b[id];
+            var sentArms = sent.b[id] || (sent.b[id] = []);
+            for (var arm = 0; arm < arms.length; arm++) {
+                if (arms[arm] !== (sentArms[arm] || 0)) {
+                    fileDelta.b.push(+id, arm, arms[arm]);
+                    sentArms[arm] = arms[arm];
+                }
+            }
+        }
+        if (fileDelta.info || fileDelta.s.length || fileDelta.f.length || fileDelta.b.length) {
+            delta[path] = fileDelta;
+        }
+    }
+    return delta;
+}
+
 function dumbCoverage() {
     if (runsWithCoverage) {
         if (isBrowser) {
-            printForReal(("::COVERAGE::" + JSON.stringify(__coverage__)) + "::/COVERAGE::");
+            printForReal("::COVERAGE-DELTA::" + JSON.stringify(coverageDelta(__coverage__)));
         } else {
             var istanbulKey = Object.keys(global).filter(function (key) {
                 return key.indexOf("$$cov") !== -1;
@@ -167,8 +255,14 @@ function dumbCoverage() {
 
             var ISTANBUL_PORT_FOR_PARTIAL_RESULTS = 0;
 
+            var delta = coverageDelta(global[istanbulKey]);
+
+            if (eventSocket) {
+                emit({kind: "coverage", files: delta});
+            }
+
             // The first "0:" is to emulate the sequencer.
-            post("localhost", ISTANBUL_PORT_FOR_PARTIAL_RESULTS, "/post", "0:::COVERAGE::" + JSON.stringify(global[istanbulKey]) + "::/COVERAGE::");
+            post("localhost", ISTANBUL_PORT_FOR_PARTIAL_RESULTS, "/post", "0:::COVERAGE-DELTA::" + JSON.stringify(delta));
         }
     }
 }
@@ -185,21 +279,20 @@ function assert(cond, path, expected, actual, iteration, descrip) {
         return cond;
     }
     if (!cond) {
-        var failDescription = createFailDescription(
-            path, expected, actual, iteration, testOrderRecording.slice(), descrip
-        );
-        var key = createFailDescription(
-            path, expected, actual, 0, [], descrip
-        );
+        var failRecord = createFailRecord(path, expected, actual, iteration, descrip);
+        failRecord.iteration = 0;
+        var key = JSON.stringify(failRecord);
         if (!seenFailures.has(key)) {
-            print(failDescription);
+            failRecord.iteration = iteration;
+            emit(failRecord);
             seenFailures.add(key);
+            novelty++;
         }
     }
     return cond;
 }
 
-print("Initial random: " + JSON.stringify(initialRandomness));
+emit({kind: "random", value: initialRandomness});
 
 try {
     process.on('uncaughtException', function (err) {
@@ -302,6 +395,20 @@ function stringIndexCheck(obj, check) {
     return true;
 }
 
+// The results of the validator functions (see CheckCompiler), for each object they have checked in the current iteration.
+var validatorResultsMap = typeof WeakMap === "function" ? new WeakMap() : null;
+function validatorResults(value) {
+    if (!validatorResultsMap || value === null || (typeof value !== "object" && typeof value !== "function")) {
+        return null;
+    }
+    var results = validatorResultsMap.get(value);
+    if (!results || results.iteration !== i) {
+        results = {iteration: i};
+        validatorResultsMap.set(value, results);
+    }
+    return results;
+}
+
 function checkRestArgs(args, fromIndex, check) {
     for (var i = fromIndex; i < args.length; i++) {
         if (!check(args[i])) {
@@ -313,73 +420,182 @@ function checkRestArgs(args, fromIndex, check) {
 }
 
 // The below is library code, that enables me to only run the tests, that are actually able to run.
-
-var testsThatCanRun = []; // list of test-indexes
-var testsWithUnmetDependencies = {}; // value-index -> {testIndex: number, requirements: []}[]
+// A test can run when all of its requirements are met, and a requirement is met when one of the values it lists has been produced.
+// Everything is indexed by integers (see initScheduler), such that registering a value only visits the requirements that list that value, and selecting a test is constant time.
+
+var testsThatCanRun = []; // list of test-indexes, in the order they became able to run.
+var unmetRequirements; // test-index -> number of requirements that are not met yet.
+var requirementTest; // requirement-index -> test-index.
+var requirementMet; // requirement-index -> 1 if met.
+var valueRequirementOffsets; // value-index -> where the requirements listing that value start in valueRequirements (they end where those of the next value-index start).
+var valueRequirements; // requirement-indexes, grouped by value-index.
+var valueRegistered; // value-index -> 1 if a value has been produced.
+var alreadyCalled; // test-index -> 1 if the test has been called.
 
 /**
- *
- * @param index the test index.
- * @param requirements a list of requirements, each requirement is a list of possible value-indexes that satisfy that requirement.
+ * Computed by DriverProgramBuilder.
+ * @param numberOfTests the number of tests.
+ * @param requirementTests for each requirement, the test it belongs to.
+ * @param offsets for each value-index, where its requirements start in requirements, followed by the length of requirements.
+ * @param requirements for each value-index, the requirements that are met by that value.
  */
-function registerTest (index, requirements) {
-    if (requirements.length == 0) {
-        testsThatCanRun.push(index);
-    } else {
-        var registration = {
-            testIndex: index,
-            requirements: requirements
-        };
-        for (var i = 0; i < requirements.length; i++) {
-            var requirementList = requirements[i];
-            for (var j = 0; j < requirementList.length; j++) {
-                var requirement = requirementList[j];
-                if (!testsWithUnmetDependencies[requirement]) {
-                    testsWithUnmetDependencies[requirement] = [];
-                }
-                testsWithUnmetDependencies[requirement].push(registration);
-            }
+function initScheduler(numberOfTests, requirementTests, offsets, requirements) {
+    unmetRequirements = new Int32Array(numberOfTests);
+    requirementTest = new Int32Array(requirementTests);
+    requirementMet = new Uint8Array(requirementTests.length);
+    valueRequirementOffsets = new Int32Array(offsets);
+    valueRequirements = new Int32Array(requirements);
+    valueRegistered = new Uint8Array(offsets.length - 1);
+    alreadyCalled = new Uint8Array(numberOfTests);
+    adaptiveRuns = new Int32Array(numberOfTests);
+    adaptiveReward = new Float64Array(numberOfTests);
+    adaptiveCost = new Float64Array(numberOfTests);
+
+    for (var r = 0; r < requirementTests.length; r++) {
+        unmetRequirements[requirementTests[r]]++;
+    }
+    for (var t = 0; t < numberOfTests; t++) {
+        if (unmetRequirements[t] === 0) {
+            testsThatCanRun.push(t);
         }
     }
 }
+
 function registerValue(valueIndex) {
-    var testList = testsWithUnmetDependencies[valueIndex];
-    if (!testList || testList.length == 0) {
+    if (valueRegistered[valueIndex]) {
         return;
     }
-    for (var i = 0; i < testList.length; i++) {
-        var test = testList[i];
-        test.requirements = test.requirements.filter(function (valueIndexes) {
-            return valueIndexes.indexOf(valueIndex) === -1;
-        });
-    }
-    testsWithUnmetDependencies[valueIndex] = testList.filter(function (test) {
-        var isEmpty = test.requirements.length == 0;
-        if (isEmpty) {
-            var testIndex = test.testIndex | 0;
-            if (testsThatCanRun.indexOf(testIndex) === -1) {
-                testsThatCanRun.push(testIndex);
-            }
+    valueRegistered[valueIndex] = 1;
+    novelty++;
+    var end = valueRequirementOffsets[valueIndex + 1];
+    for (var k = valueRequirementOffsets[valueIndex]; k < end; k++) {
+        var requirement = valueRequirements[k];
+        if (requirementMet[requirement]) {
+            continue;
         }
-        return !isEmpty;
-    });
+        requirementMet[requirement] = 1;
+        var testIndex = requirementTest[requirement];
+        unmetRequirements[testIndex]--;
+        if (unmetRequirements[testIndex] === 0) {
+            testsThatCanRun.push(testIndex);
+            novelty++;
+        }
+    }
 }
 
 var startTime = +new RealDate();
 
-var alreadyCalled = {};
 function testCalled(number) {
     if (alreadyCalled[number]) {
         return;
     }
-    alreadyCalled[number] = true;
-    print("Test called: " + number);
+    alreadyCalled[number] = 1;
+    emit({kind: "called", test: number});
+}
+
+// The calls, time and exceptions of every test, only recorded if the driver is built with profileTests (see OutputParser.TestStats).
+var testStats = {};
+var preciseTime = (function () {
+    if (!isBrowser && typeof process !== "undefined" && process.hrtime) {
+        return function () {
+            var time = process.hrtime();
+            return time[0] * 1000 + time[1] / 1000000;
+        };
+    }
+    if (typeof performance !== "undefined" && performance.now) {
+        return function () {
+            return performance.now();
+        };
+    }
+    return function () {
+        return +new RealDate();
+    };
+})();
+
+// Called after every test, if the driver is built with profileTests or adaptiveSelection.
+function testFinished(number, testStartTime, threw) {
+    if (typeof number !== "number") {
+        return; // No test could run.
+    }
+    var time = preciseTime() - testStartTime;
+    if (profileTests) {
+        recordTestStats(number, time, threw);
+    }
+    if (adaptiveSelection) {
+        rewardTest(number, time);
+    }
+}
+
+function recordTestStats(number, time, threw) {
+    var stats = testStats[number];
+    if (!stats) {
+        stats = testStats[number] = {calls: 0, exceptions: 0, time: 0, max: 0};
+    }
+    stats.calls++;
+    stats.time += time;
+    if (time > stats.max) {
+        stats.max = time;
+    }
+    if (threw) {
+        stats.exceptions++;
+    }
+}
+
+// Adaptive test selection (see DynamicOptions.adaptiveTestSelection), a multi-armed bandit where running a test is rewarded by how much new it found (values, tests that became able to run, and type-errors), and the reward is weighed against the time the test takes.
+// A few of the tests that can run are sampled, and the one with the best score is run. A test that has never run is always preferred.
+var ADAPTIVE_SAMPLE_SIZE = 8;
+var ADAPTIVE_DECAY = 0.05; // How much the latest run counts in the averages, such that a test that stopped finding anything new is soon run less.
+var ADAPTIVE_EXPLORATION = 0.1;
+var ADAPTIVE_MIN_COST = 0.05; // In milliseconds, such that the fastest tests do not get an unbounded score.
+var adaptiveRuns; // test-index -> times run.
+var adaptiveReward; // test-index -> recent new things found per run.
+var adaptiveCost; // test-index -> recent milliseconds per run.
+var adaptiveTotalRuns = 0;
+var novelty = 0; // The new things found by the test that is running.
+
+function selectAdaptively() {
+    if (testsThatCanRun.length === 0) {
+        return undefined;
+    }
+    var explorationFactor = ADAPTIVE_EXPLORATION * Math.sqrt(Math.log(adaptiveTotalRuns + 1));
+    var best = -1;
+    var bestScore = -1;
+    for (var k = 0; k < ADAPTIVE_SAMPLE_SIZE; k++) {
+        var test = testsThatCanRun[Math.floor(Math.random() * testsThatCanRun.length)];
+        var runs = adaptiveRuns[test];
+        if (runs === 0) {
+            best = test;
+            break;
+        }
+        var score = (adaptiveReward[test] + explorationFactor / Math.sqrt(runs)) / Math.max(adaptiveCost[test], ADAPTIVE_MIN_COST);
+        if (score > bestScore) {
+            best = test;
+            bestScore = score;
+        }
+    }
+    novelty = 0;
+    return best;
+}
+
+function rewardTest(number, time) {
+    var runs = adaptiveRuns[number]++;
+    adaptiveTotalRuns++;
+    if (runs === 0) {
+        adaptiveReward[number] = novelty;
+        adaptiveCost[number] = time;
+    } else {
+        adaptiveReward[number] += ADAPTIVE_DECAY * (novelty - adaptiveReward[number]);
+        adaptiveCost[number] += ADAPTIVE_DECAY * (time - adaptiveCost[number]);
+    }
 }
 
 var i = 0;
+// Besides after a number of iterations, the coverage is also sent at least this often (so a run with slow tests still has samples all through the run).
+var coverageSampleInterval = maxTime / 40;
+var nextCoverageSample = 0;
 function selectTest() {
     var timeSpent = (+new RealDate()) - startTime;
-    if (timeSpent > maxTime) {
+    if (timeSpent > maxTime || stopRequested) {
         return -1;
     }
 
@@ -389,7 +605,8 @@ function selectTest() {
 
     var index = i++;
 
-    if ([1,10,50,200].indexOf(index) !== -1 || index % 1000 === 1) {
+    if (index === 1 || index === 10 || index === 50 || index === 200 || index % 1000 === 1 || timeSpent >= nextCoverageSample) {
+        nextCoverageSample = timeSpent + coverageSampleInterval;
         dumbCoverage();
     }
 
@@ -399,6 +616,8 @@ function selectTest() {
             return -1;
         }
         return result;
+    } else if (adaptiveSelection) {
+        return selectAdaptively();
     } else {
         return testsThatCanRun[Math.floor(Math.random() * testsThatCanRun.length)];
     }
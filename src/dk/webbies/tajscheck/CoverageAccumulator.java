@@ -0,0 +1,234 @@
+package dk.webbies.tajscheck;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * The coverage of a running driver, built from the deltas the driver sends (see coverageDelta() in prelude.js).
+ *
+ * The counters are kept in int arrays indexed by the istanbul ids, and a delta is applied in place.
+ * The source locations are only computed once per file, from the "info" the driver sends the first time it sees a file.
+ */
+public class CoverageAccumulator {
+    private final Map<String, FileCoverage> files = new LinkedHashMap<>();
+
+    /**
+     * @param delta a JSON object, from file to the delta of that file.
+     */
+    public synchronized void apply(String delta) {
+        apply(new JsonParser().parse(delta).getAsJsonObject());
+    }
+
+    public synchronized void apply(JsonObject delta) {
+        for (Map.Entry<String, JsonElement> entry : delta.entrySet()) {
+            JsonObject fileDelta = entry.getValue().getAsJsonObject();
+            FileCoverage file = files.get(entry.getKey());
+            if (file == null) {
+                if (!fileDelta.has("info")) {
+                    continue; // We missed the first delta of this file, nothing we can do.
+                }
+                file = new FileCoverage(fileDelta.getAsJsonObject("info"));
+                files.put(entry.getKey(), file);
+            }
+            file.apply(fileDelta);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * The statement coverage of all the files together, computed directly from the counters.
+     */
+    public synchronized double statementCoverage() {
+        int covered = 0;
+        int total = 0;
+        for (FileCoverage file : files.values()) {
+            covered += countCovered(file.statements);
+            total += file.statements.length;
+        }
+        return covered / (total * 1.0);
+    }
+
+    /**
+     * The same as CoverageResult.parse() would return for a full dump of the coverage.
+     */
+    public synchronized Map<String, CoverageResult> getResults() {
+        Map<String, CoverageResult> result = new HashMap<>();
+        for (Map.Entry<String, FileCoverage> entry : files.entrySet()) {
+            String path = entry.getKey();
+            result.put(path.substring(path.lastIndexOf("\\") + 1, path.length()), entry.getValue().toCoverageResult());
+        }
+        return result;
+    }
+
+    /**
+     * A full dump of the coverage, in the format istanbul uses (such that "istanbul report" can use it).
+     */
+    public synchronized String toIstanbulJson() {
+        JsonObject result = new JsonObject();
+        for (Map.Entry<String, FileCoverage> entry : files.entrySet()) {
+            result.add(entry.getKey(), entry.getValue().toIstanbulJson());
+        }
+        return result.toString();
+    }
+
+    private static int countCovered(int[] counters) {
+        int covered = 0;
+        for (int counter : counters) {
+            if (counter > 0) {
+                covered++;
+            }
+        }
+        return covered;
+    }
+
+    private static final class FileCoverage {
+        private final JsonObject info;
+
+        // Indexed by the position of the id in the ids arrays.
+        private final int[] statementIds;
+        private final CoverageResult.SourceLocation[] statementLocations;
+        private final int[] statements;
+
+        private final int[] functionIds;
+        private final CoverageResult.SourceLocation[] functionLocations;
+        private final int[] functions;
+
+        private final int[] branchIds;
+        private final CoverageResult.SourceLocation[] branchLocations;
+        private final int[][] branches;
+
+        // From the istanbul id to the position in the arrays above, -1 if there is no such id.
+        private final int[] statementIndex;
+        private final int[] functionIndex;
+        private final int[] branchIndex;
+
+        private FileCoverage(JsonObject info) {
+            this.info = info;
+            try {
+                JSONObject statementMap = new JSONObject(info.get("statementMap").toString());
+                statementIds = sortedIds(statementMap);
+                statementLocations = locations(statementMap, statementIds);
+                statements = new int[statementIds.length];
+                statementIndex = index(statementIds);
+
+                JSONObject fnMap = new JSONObject(info.get("fnMap").toString());
+                functionIds = sortedIds(fnMap);
+                functionLocations = locations(fnMap, functionIds);
+                functions = new int[functionIds.length];
+                functionIndex = index(functionIds);
+
+                JSONObject branchMap = new JSONObject(info.get("branchMap").toString());
+                branchIds = sortedIds(branchMap);
+                branchLocations = locations(branchMap, branchIds);
+                branches = new int[branchIds.length][];
+                for (int i = 0; i < branchIds.length; i++) {
+                    branches[i] = new int[branchMap.getJSONObject(Integer.toString(branchIds[i])).getJSONArray("locations").length()];
+                }
+                branchIndex = index(branchIds);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * The driver sends the new value of the counters that changed.
+         * Counters only grow, so taking the max makes the order the deltas arrive in irrelevant (the browser sends messages concurrently).
+         */
+        private void apply(JsonObject delta) {
+            JsonArray s = delta.getAsJsonArray("s");
+            for (int i = 0; i + 1 < s.size(); i += 2) {
+                int index = lookup(statementIndex, s.get(i).getAsInt());
+                if (index != -1) {
+                    statements[index] = Math.max(statements[index], s.get(i + 1).getAsInt());
+                }
+            }
+            JsonArray f = delta.getAsJsonArray("f");
+            for (int i = 0; i + 1 < f.size(); i += 2) {
+                int index = lookup(functionIndex, f.get(i).getAsInt());
+                if (index != -1) {
+                    functions[index] = Math.max(functions[index], f.get(i + 1).getAsInt());
+                }
+            }
+            JsonArray b = delta.getAsJsonArray("b");
+            for (int i = 0; i + 2 < b.size(); i += 3) {
+                int index = lookup(branchIndex, b.get(i).getAsInt());
+                int arm = b.get(i + 1).getAsInt();
+                if (index != -1 && arm < branches[index].length) {
+                    branches[index][arm] = Math.max(branches[index][arm], b.get(i + 2).getAsInt());
+                }
+            }
+        }
+
+        private CoverageResult toCoverageResult() {
+            // CoverageResult copies the counters, so the result does not change when later deltas are applied.
+            return CoverageResult.of(statementLocations, statements, branchLocations, branches, functionLocations, functions);
+        }
+
+        private JsonObject toIstanbulJson() {
+            JsonObject result = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : info.entrySet()) {
+                result.add(entry.getKey(), entry.getValue());
+            }
+            result.add("s", counters(statementIds, statements));
+            result.add("f", counters(functionIds, functions));
+            JsonObject b = new JsonObject();
+            for (int i = 0; i < branchIds.length; i++) {
+                JsonArray arms = new JsonArray();
+                for (int count : branches[i]) {
+                    arms.add(new JsonPrimitive(count));
+                }
+                b.add(Integer.toString(branchIds[i]), arms);
+            }
+            result.add("b", b);
+            return result;
+        }
+
+        private static JsonObject counters(int[] ids, int[] counters) {
+            JsonObject result = new JsonObject();
+            for (int i = 0; i < ids.length; i++) {
+                result.addProperty(Integer.toString(ids[i]), counters[i]);
+            }
+            return result;
+        }
+
+        private static int[] sortedIds(JSONObject map) {
+            Iterator<?> keys = map.keys();
+            List<Integer> ids = new ArrayList<>();
+            while (keys.hasNext()) {
+                ids.add(Integer.parseInt((String) keys.next()));
+            }
+            return ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        private static CoverageResult.SourceLocation[] locations(JSONObject map, int[] ids) throws JSONException {
+            CoverageResult.SourceLocation[] result = new CoverageResult.SourceLocation[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                result[i] = CoverageResult.toSourceLocation(map.getJSONObject(Integer.toString(ids[i])));
+            }
+            return result;
+        }
+
+        private static int[] index(int[] sortedIds) {
+            int[] index = new int[sortedIds.length == 0 ? 0 : sortedIds[sortedIds.length - 1] + 1];
+            Arrays.fill(index, -1);
+            for (int i = 0; i < sortedIds.length; i++) {
+                index[sortedIds[i]] = i;
+            }
+            return index;
+        }
+
+        private static int lookup(int[] index, int id) {
+            return id >= 0 && id < index.length ? index[id] : -1;
+        }
+    }
+}
@@ -6,37 +6,66 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * Created by erik1 on 09-01-2017.
+ *
+ * Stored column-wise: for statements, functions and branches there is a table of the source locations (sorted by position) and an array with the counts.
+ * A branch has a count for each of its arms, so the counts of the branches is a flat array, and the table records where the arms of each branch starts.
+ * The tables are interned, so all the results for the same file share their tables, and combining them is adding up int arrays.
  */
 public class CoverageResult {
-    private final Map<SourceLocation, Integer> statements;
-    private final Map<SourceLocation, Collection<Integer>> branches;
-    private final Map<SourceLocation, Integer> functions;
+    private final Column statements;
+    private final Column branches;
+    private final Column functions;
 
     public CoverageResult(Map<SourceLocation, Integer> statements, Map<SourceLocation, Collection<Integer>> branches, Map<SourceLocation, Integer> functions) {
+        this(Column.fromCounts(statements), Column.fromArms(branches), Column.fromCounts(functions));
+    }
+
+    private CoverageResult(Column statements, Column branches, Column functions) {
         this.statements = statements;
         this.branches = branches;
         this.functions = functions;
     }
 
+    /**
+     * From arrays in no particular order, where the location at an index has the count (or arm counts, for branches) at the same index.
+     */
+    static CoverageResult of(SourceLocation[] statementLocations, int[] statementCounts, SourceLocation[] branchLocations, int[][] branchCounts, SourceLocation[] functionLocations, int[] functionCounts) {
+        return new CoverageResult(
+                Column.of(statementLocations, singletons(statementCounts), false),
+                Column.of(branchLocations, branchCounts, true),
+                Column.of(functionLocations, singletons(functionCounts), false)
+        );
+    }
+
+    private static int[][] singletons(int[] counts) {
+        int[][] result = new int[counts.length][];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = new int[]{counts[i]};
+        }
+        return result;
+    }
+
     public double statementCoverage() {
-        return (statementCount() / (statements.size() * 1.0));
+        return (statementCount() / (statements.counts.length * 1.0));
     }
 
     private long statementCount() {
-        return statements.values().stream().filter(n -> n > 0).count();
+        return statements.covered();
     }
 
     public double functionCoverage() {
-        return (functionCount() / (functions.size() * 1.0));
+        return (functionCount() / (functions.counts.length * 1.0));
     }
 
     private long functionCount() {
-        return functions.values().stream().filter(n -> n > 0).count();
+        return functions.covered();
     }
 
     public double branchCoverage() {
@@ -44,34 +73,20 @@ public class CoverageResult {
     }
 
     public int branchTotal() {
-        int total = 0;
-        for (Collection<Integer> coverageList : branches.values()) {
-            total += coverageList.size();
-        }
-        return total;
+        return branches.counts.length;
     }
 
     public int branchCount() {
-        int count = 0;
-        for (Collection<Integer> coverageList : branches.values()) {
-            for (Integer integer : coverageList) {
-                if (integer > 0) {
-                    count++;
-                }
-            }
-
-        }
-
-        return count;
+        return branches.covered();
     }
 
 
     @Override
     public String toString() {
         return "CoverageResult{" +
-                "statements=" + statementCount() + "/" + statements.size() + "(" + Util.toFixed(statementCoverage(), 4) + ")" +
+                "statements=" + statementCount() + "/" + statements.counts.length + "(" + Util.toFixed(statementCoverage(), 4) + ")" +
                 ", branches=" + branchCount() + "/" + branchTotal() + "(" + Util.toFixed(branchCoverage(), 4) + ")" +
-                ", functions=" + functionCount() + "/" + functions.size() + "(" + Util.toFixed(functionCoverage(), 4) + ")" +
+                ", functions=" + functionCount() + "/" + functions.counts.length + "(" + Util.toFixed(functionCoverage(), 4) + ")" +
                 '}';
     }
 
@@ -106,81 +121,28 @@ public class CoverageResult {
     }
 
     public Map<String, CoverageResult> split(int split, String jsName, String testFileName) {
-        Map<SourceLocation, Integer> firstStatements = new HashMap<>();
-        Map<SourceLocation, Collection<Integer>> firstBranches = new HashMap<>();
-        Map<SourceLocation, Integer> firstFunctions = new HashMap<>();
-        CoverageResult first = new CoverageResult(firstStatements, firstBranches, firstFunctions);
-        Map<SourceLocation, Integer> secondStatements = new HashMap<>();
-        Map<SourceLocation, Collection<Integer>> secondBranches = new HashMap<>();
-        Map<SourceLocation, Integer> secondFunctions = new HashMap<>();
-        CoverageResult second = new CoverageResult(secondStatements, secondBranches, secondFunctions);
-
-        for (Map.Entry<SourceLocation, Integer> entry : this.statements.entrySet()) {
-            if (entry.getKey().start.line < split) {
-                firstStatements.put(entry.getKey(), entry.getValue());
-            } else {
-                secondStatements.put(entry.getKey(), entry.getValue());
-            }
-        }
-
-        for (Map.Entry<SourceLocation, Collection<Integer>> entry : this.branches.entrySet()) {
-            if (entry.getKey().start.line < split) {
-                firstBranches.put(entry.getKey(), entry.getValue());
-            } else {
-                secondBranches.put(entry.getKey(), entry.getValue());
-            }
-        }
-
-        for (Map.Entry<SourceLocation, Integer> entry : this.functions.entrySet()) {
-            if (entry.getKey().start.line < split) {
-                firstFunctions.put(entry.getKey(), entry.getValue());
-            } else {
-                secondFunctions.put(entry.getKey(), entry.getValue());
-            }
-        }
-
-
         Map<String, CoverageResult> resultMap = new HashMap<>();
-        resultMap.put(jsName, first);
-        resultMap.put(testFileName, second);
+        resultMap.put(jsName, slice(Integer.MIN_VALUE, split));
+        resultMap.put(testFileName, slice(split, Integer.MAX_VALUE));
         return resultMap;
     }
 
     public Map<String, CoverageResult> split(Map<String, Pair<Integer, Integer>> splitRules) {
         HashMap<String, CoverageResult> result = new HashMap<>();
         for (Map.Entry<String, Pair<Integer, Integer>> ruleEntry : splitRules.entrySet()) {
-            String name = ruleEntry.getKey();
-            int start = ruleEntry.getValue().getLeft();
-            int end = ruleEntry.getValue().getRight();
-
-            Map<SourceLocation, Integer> statements = new HashMap<>();
-            Map<SourceLocation, Collection<Integer>> branches = new HashMap<>();
-            Map<SourceLocation, Integer> functions = new HashMap<>();
-
-            for (Map.Entry<SourceLocation, Integer> entry : this.statements.entrySet()) {
-                if (entry.getKey().start.line >= start && entry.getKey().start.line < end) {
-                    statements.put(entry.getKey(), entry.getValue());
-                }
-            }
-
-            for (Map.Entry<SourceLocation, Collection<Integer>> entry : this.branches.entrySet()) {
-                if (entry.getKey().start.line >= start && entry.getKey().start.line < end) {
-                    branches.put(entry.getKey(), entry.getValue());
-                }
-            }
-
-            for (Map.Entry<SourceLocation, Integer> entry : this.functions.entrySet()) {
-                if (entry.getKey().start.line >= start && entry.getKey().start.line < end) {
-                    functions.put(entry.getKey(), entry.getValue());
-                }
-            }
-
-            result.put(name, new CoverageResult(statements, branches, functions));
+            result.put(ruleEntry.getKey(), slice(ruleEntry.getValue().getLeft(), ruleEntry.getValue().getRight()));
         }
 
         return result;
     }
 
+    /**
+     * Everything starting on a line in [fromLine, toLine).
+     */
+    private CoverageResult slice(int fromLine, int toLine) {
+        return new CoverageResult(statements.slice(fromLine, toLine), branches.slice(fromLine, toLine), functions.slice(fromLine, toLine));
+    }
+
     public static final class SourceLocation {
         public final SourcePosition start;
         public final SourcePosition end;
@@ -244,53 +206,44 @@ public class CoverageResult {
     }
 
     private static CoverageResult parseResult(JSONObject obj) throws JSONException {
-        Map<Integer, Collection<Integer>> branchesCovered = new HashMap<>();
-        {
-            JSONObject branchObject = obj.getJSONObject("b");
-            for (Map.Entry<String, JSONArray> entry : toMap(branchObject, JSONArray.class).entrySet()) {
-                JSONArray value = entry.getValue();
-                ArrayList<Integer> thisBranchCoverage = new ArrayList<>();
-                for (int i = 0; i < value.length(); i++) {
-                    thisBranchCoverage.add(value.getInt(i));
-                }
-
-                branchesCovered.put(Integer.parseInt(entry.getKey()), thisBranchCoverage);
-            }
-        }
-
-        Map<String, JSONObject> branchesObject = toMap(obj.getJSONObject("branchMap"), JSONObject.class);
-
-        Map<SourceLocation, Collection<Integer>> branches = branchesCovered.entrySet().stream().map(Util.mapKey(key -> toSourceLocation(branchesObject.get(key.toString())))).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-
-        Map<Integer, Integer> statementsCovered = new HashMap<>();
         JSONObject statementObject = obj.getJSONObject("s");
-        for (Map.Entry<String, Integer> entry : toMap(statementObject, Integer.class).entrySet()) {
-            statementsCovered.put(Integer.parseInt(entry.getKey()), entry.getValue());
+        JSONObject statementMap = obj.getJSONObject("statementMap");
+        List<String> statementIds = Util.toTypedList(statementObject.keys(), String.class);
+        SourceLocation[] statementLocations = new SourceLocation[statementIds.size()];
+        int[] statementCounts = new int[statementIds.size()];
+        for (int i = 0; i < statementIds.size(); i++) {
+            statementLocations[i] = toSourceLocation(statementMap.getJSONObject(statementIds.get(i)));
+            statementCounts[i] = statementObject.getInt(statementIds.get(i));
         }
 
-        Map<String, JSONObject> statementObjects = toMap(obj.getJSONObject("statementMap"), JSONObject.class);
-
-        Map<SourceLocation, Integer> statements = statementsCovered.entrySet().stream().map(Util.mapKey(key -> toSourceLocation(statementObjects.get(key.toString())))).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
+        JSONObject functionObject = obj.getJSONObject("f");
+        JSONObject fnMap = obj.getJSONObject("fnMap");
+        List<String> functionIds = Util.toTypedList(functionObject.keys(), String.class);
+        SourceLocation[] functionLocations = new SourceLocation[functionIds.size()];
+        int[] functionCounts = new int[functionIds.size()];
+        for (int i = 0; i < functionIds.size(); i++) {
+            functionLocations[i] = toSourceLocation(fnMap.getJSONObject(functionIds.get(i)));
+            functionCounts[i] = functionObject.getInt(functionIds.get(i));
+        }
 
-        Map<Integer, Integer> functionsCovered = new HashMap<>();
-        {
-            JSONObject functionObject = obj.getJSONObject("f");
-            for (Map.Entry<String, Integer> entry : toMap(functionObject, Integer.class).entrySet()) {
-                functionsCovered.put(Integer.parseInt(entry.getKey()), entry.getValue());
+        JSONObject branchObject = obj.getJSONObject("b");
+        JSONObject branchMap = obj.getJSONObject("branchMap");
+        List<String> branchIds = Util.toTypedList(branchObject.keys(), String.class);
+        SourceLocation[] branchLocations = new SourceLocation[branchIds.size()];
+        int[][] branchCounts = new int[branchIds.size()][];
+        for (int i = 0; i < branchIds.size(); i++) {
+            branchLocations[i] = toSourceLocation(branchMap.getJSONObject(branchIds.get(i)));
+            JSONArray arms = branchObject.getJSONArray(branchIds.get(i));
+            branchCounts[i] = new int[arms.length()];
+            for (int arm = 0; arm < arms.length(); arm++) {
+                branchCounts[i][arm] = arms.getInt(arm);
             }
         }
 
-        Map<String, JSONObject> functionsObject = toMap(obj.getJSONObject("fnMap"), JSONObject.class);
-
-        Map<SourceLocation, Integer> functions = functionsCovered.entrySet().stream().map(Util.mapKey(key -> toSourceLocation(functionsObject.get(key.toString())))).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-
-        return new CoverageResult(statements, branches, functions);
+        return of(statementLocations, statementCounts, branchLocations, branchCounts, functionLocations, functionCounts);
     }
 
-    private static SourceLocation toSourceLocation(JSONObject object) {
+    static SourceLocation toSourceLocation(JSONObject object) {
         try {
             if (object.has("loc")) {
                 return toSourceLocation(object.getJSONObject("loc"));
@@ -370,26 +323,240 @@ public class CoverageResult {
     }
 
     private static CoverageResult combine(CoverageResult one, CoverageResult two) {
-        assert one.statements.keySet().equals(two.statements.keySet());
-        assert one.branches.keySet().equals(two.branches.keySet());
-        assert one.functions.keySet().equals(two.functions.keySet());
+        return new CoverageResult(Column.combine(one.statements, two.statements), Column.combine(one.branches, two.branches), Column.combine(one.functions, two.functions));
+    }
 
-        Map<SourceLocation, Integer> statements = new HashMap<>();
-        Map<SourceLocation, Collection<Integer>> branches = new HashMap<>();
-        Map<SourceLocation, Integer> functions = new HashMap<>();
+    private static final Comparator<SourceLocation> LOCATION_ORDER = Comparator
+            .<SourceLocation>comparingInt(location -> location.start.line)
+            .thenComparingInt(location -> location.start.column)
+            .thenComparingInt(location -> location.end.line)
+            .thenComparingInt(location -> location.end.column);
+
+    /**
+     * The sorted locations of statements, functions or branches in a file.
+     * Tables are immutable and interned, such that results for the same file share them.
+     */
+    private static final class LocationTable {
+        private static final Map<LocationTable, WeakReference<LocationTable>> interned = Collections.synchronizedMap(new WeakHashMap<>());
+
+        final SourceLocation[] locations;
+        final int[] startLines;
+        // For branches, the arms of location i are at [armOffsets[i], armOffsets[i + 1]) in the counts. Null for statements and functions, which have a single count each.
+        final int[] armOffsets;
+        private final int hashCode;
+        private final Map<Long, LocationTable> slices = new ConcurrentHashMap<>();
+
+        private LocationTable(SourceLocation[] locations, int[] armOffsets) {
+            this.locations = locations;
+            this.armOffsets = armOffsets;
+            this.startLines = new int[locations.length];
+            for (int i = 0; i < locations.length; i++) {
+                startLines[i] = locations[i].start.line;
+            }
+            this.hashCode = 31 * Arrays.hashCode(locations) + Arrays.hashCode(armOffsets);
+        }
 
-        for (SourceLocation location : one.statements.keySet()) {
-            statements.put(location, one.statements.get(location) + two.statements.get(location));
+        static LocationTable intern(SourceLocation[] locations, int[] armOffsets) {
+            LocationTable table = new LocationTable(locations, armOffsets);
+            synchronized (interned) {
+                WeakReference<LocationTable> existing = interned.get(table);
+                LocationTable existingTable = existing == null ? null : existing.get();
+                if (existingTable != null) {
+                    return existingTable;
+                }
+                interned.put(table, new WeakReference<>(table));
+                return table;
+            }
         }
-        for (SourceLocation location : one.functions.keySet()) {
-            functions.put(location, one.functions.get(location) + two.functions.get(location));
+
+        int size() {
+            return locations.length;
+        }
+
+        int countIndex(int location) {
+            return armOffsets == null ? location : armOffsets[location];
+        }
+
+        /**
+         * The index of the first location that starts on line or later.
+         */
+        int lowerBound(int line) {
+            int low = 0;
+            int high = startLines.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (startLines[mid] < line) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        LocationTable slice(int from, int to) {
+            if (from == 0 && to == size()) {
+                return this;
+            }
+            return slices.computeIfAbsent(((long) from << 32) | to, key -> {
+                int[] slicedOffsets = null;
+                if (armOffsets != null) {
+                    slicedOffsets = new int[to - from + 1];
+                    for (int i = from; i <= to; i++) {
+                        slicedOffsets[i - from] = armOffsets[i] - armOffsets[from];
+                    }
+                }
+                return new LocationTable(Arrays.copyOfRange(locations, from, to), slicedOffsets);
+            });
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LocationTable that = (LocationTable) o;
+            return hashCode == that.hashCode && Arrays.equals(locations, that.locations) && Arrays.equals(armOffsets, that.armOffsets);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Column {
+        final LocationTable table;
+        final int[] counts;
+
+        private Column(LocationTable table, int[] counts) {
+            this.table = table;
+            this.counts = counts;
+        }
+
+        static Column fromCounts(Map<SourceLocation, Integer> counts) {
+            SourceLocation[] locations = new SourceLocation[counts.size()];
+            int[][] values = new int[counts.size()][];
+            int i = 0;
+            for (Map.Entry<SourceLocation, Integer> entry : counts.entrySet()) {
+                locations[i] = entry.getKey();
+                values[i] = new int[]{entry.getValue()};
+                i++;
+            }
+            return of(locations, values, false);
         }
-        for (SourceLocation location : one.branches.keySet()) {
-            assert one.branches.get(location).size() == two.branches.get(location).size();
-            List<Integer> subResult = Util.zip(one.branches.get(location), two.branches.get(location)).stream().map((pair) -> pair.getLeft() + pair.getRight()).collect(Collectors.toList());
-            branches.put(location, subResult);
+
+        static Column fromArms(Map<SourceLocation, Collection<Integer>> arms) {
+            SourceLocation[] locations = new SourceLocation[arms.size()];
+            int[][] values = new int[arms.size()][];
+            int i = 0;
+            for (Map.Entry<SourceLocation, Collection<Integer>> entry : arms.entrySet()) {
+                locations[i] = entry.getKey();
+                values[i] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+                i++;
+            }
+            return of(locations, values, true);
         }
 
-        return new CoverageResult(statements, branches, functions);
+        /**
+         * If a location appears more than once, the last one wins (like putting them into a map).
+         */
+        static Column of(SourceLocation[] locations, int[][] values, boolean hasArms) {
+            Integer[] order = new Integer[locations.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int result = LOCATION_ORDER.compare(locations[a], locations[b]);
+                return result != 0 ? result : Integer.compare(a, b);
+            });
+
+            List<Integer> kept = new ArrayList<>(order.length);
+            for (int i = 0; i < order.length; i++) {
+                if (i + 1 < order.length && locations[order[i]].equals(locations[order[i + 1]])) {
+                    continue;
+                }
+                kept.add(order[i]);
+            }
+
+            SourceLocation[] sortedLocations = new SourceLocation[kept.size()];
+            int[] armOffsets = hasArms ? new int[kept.size() + 1] : null;
+            int totalCounts = 0;
+            for (int i = 0; i < kept.size(); i++) {
+                sortedLocations[i] = locations[kept.get(i)];
+                if (hasArms) {
+                    armOffsets[i] = totalCounts;
+                }
+                totalCounts += values[kept.get(i)].length;
+            }
+            if (hasArms) {
+                armOffsets[kept.size()] = totalCounts;
+            }
+
+            int[] counts = new int[totalCounts];
+            int position = 0;
+            for (int index : kept) {
+                System.arraycopy(values[index], 0, counts, position, values[index].length);
+                position += values[index].length;
+            }
+
+            return new Column(LocationTable.intern(sortedLocations, armOffsets), counts);
+        }
+
+        int covered() {
+            int covered = 0;
+            for (int count : counts) {
+                if (count > 0) {
+                    covered++;
+                }
+            }
+            return covered;
+        }
+
+        Column slice(int fromLine, int toLine) {
+            int from = table.lowerBound(fromLine);
+            int to = Math.max(from, table.lowerBound(toLine));
+            return new Column(table.slice(from, to), Arrays.copyOfRange(counts, table.countIndex(from), table.countIndex(to)));
+        }
+
+        int[] arms(int location) {
+            return Arrays.copyOfRange(counts, table.countIndex(location), table.countIndex(location + 1));
+        }
+
+        static Column combine(Column one, Column two) {
+            if (one.table == two.table || one.table.equals(two.table)) {
+                int[] counts = new int[one.counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = one.counts[i] + two.counts[i];
+                }
+                return new Column(one.table, counts);
+            }
+
+            // Not the same locations (e.g. different versions of a file), the locations are merged, and the counts of the locations in both are added.
+            boolean hasArms = one.table.armOffsets != null;
+            List<SourceLocation> locations = new ArrayList<>();
+            List<int[]> values = new ArrayList<>();
+            int i = 0;
+            int j = 0;
+            while (i < one.table.size() || j < two.table.size()) {
+                int compare = i == one.table.size() ? 1 : j == two.table.size() ? -1 : LOCATION_ORDER.compare(one.table.locations[i], two.table.locations[j]);
+                if (compare < 0) {
+                    locations.add(one.table.locations[i]);
+                    values.add(one.arms(i++));
+                } else if (compare > 0) {
+                    locations.add(two.table.locations[j]);
+                    values.add(two.arms(j++));
+                } else {
+                    int[] oneArms = one.arms(i++);
+                    int[] twoArms = two.arms(j++);
+                    int[] sum = Arrays.copyOf(oneArms, Math.max(oneArms.length, twoArms.length));
+                    for (int k = 0; k < twoArms.length; k++) {
+                        sum[k] += twoArms[k];
+                    }
+                    locations.add(one.table.locations[i - 1]);
+                    values.add(sum);
+                }
+            }
+            return of(locations.toArray(new SourceLocation[locations.size()]), values.toArray(new int[values.size()][]), hasArms);
+        }
     }
 }
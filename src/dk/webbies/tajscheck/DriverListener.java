@@ -0,0 +1,26 @@
+package dk.webbies.tajscheck;
+
+/**
+ * Receives what a driver reports while it runs (see DynamicMain.runAndParseBenchmark and DynamicMain.genCoverage).
+ * The methods are called from the thread reading the output of the driver, one at a time, in the order the driver reported them.
+ */
+public interface DriverListener {
+    default void testCalled(int test) { }
+
+    default void typeError(OutputParser.TypeError typeError) { }
+
+    default void error(String message) { }
+
+    /**
+     * Called every time the driver has sent an update of the coverage, the same accumulator is given every time.
+     * Only reported when the driver runs with coverage.
+     */
+    default void coverage(CoverageAccumulator coverage) { }
+
+    /**
+     * Asked after every event, once it returns true the driver is asked to stop (it finishes the test it is running, and then reports its final results as if it had run out of time).
+     */
+    default boolean shouldStop() {
+        return false;
+    }
+}
@@ -2,9 +2,9 @@ package dk.webbies.tajscheck;
 
 import dk.webbies.tajscheck.benchmark.Benchmark;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.buildprogram.DriverFragments;
 import dk.webbies.tajscheck.buildprogram.DriverProgramBuilder;
-import dk.webbies.tajscheck.paser.AST.Statement;
-import dk.webbies.tajscheck.paser.AstToStringVisitor;
+import dk.webbies.tajscheck.buildprogram.IncrementalDriver;
 import dk.webbies.tajscheck.testcreator.test.Test;
 import dk.webbies.tajscheck.testcreator.TestCreator;
 import dk.webbies.tajscheck.util.MinimizeArray;
@@ -12,16 +12,24 @@ import dk.webbies.tajscheck.util.Pair;
 import dk.webbies.tajscheck.util.Util;
 import dk.webbies.tajscheck.util.chromeRunner.SeleniumDriver;
 import dk.webbies.tajscheck.util.chromeRunner.SimpleMessageReceivingHTTPServer;
+import dk.webbies.tajscheck.util.nodeRunner.DriverEventChannel;
+import org.apache.commons.io.FileUtils;
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.net.ServerSocket;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -35,17 +43,29 @@ public class DynamicMain {
     public static final String TEST_FILE_NAME = "test.js";
     public static final String COVERAGE_FILE_NAME = "coverage.js";
 
-    public static Pair<BenchmarkInfo, String> writeFullDriver(Benchmark bench) throws Exception {
+    public static BenchmarkInfo writeFullDriver(Benchmark bench) throws Exception {
         return writeFullDriver(bench, null);
     }
 
-    public static Pair<BenchmarkInfo, String> writeFullDriver(Benchmark bench, ExecutionRecording recording) throws Exception {
-        Pair<BenchmarkInfo, String> result = generateFullDriver(bench, recording);
-        String programString = result.getRight();
+    /**
+     * Writes the driver to the test-file while it is being printed, use generateFullDriver() to get the driver as a string.
+     */
+    public static BenchmarkInfo writeFullDriver(Benchmark bench, ExecutionRecording recording) throws Exception {
+        BenchmarkInfo info = BenchmarkInfo.create(bench);
+
+        List<Test> tests = new TestCreator(info).createTests();
 
-        Util.writeFile(getFolderPath(bench) + TEST_FILE_NAME, programString);
+        writeDriver(info, tests, recording, getFolderPath(bench) + TEST_FILE_NAME);
 
-        return result;
+        return info;
+    }
+
+    private static void writeDriver(BenchmarkInfo info, List<Test> tests, ExecutionRecording recording, String fileName) throws IOException {
+        if (info.options.dynamicOptions.incrementalDriver) {
+            Util.writeFile(fileName, IncrementalDriver.generate(info, tests, recording));
+        } else {
+            Util.writeFile(fileName, writer -> new DriverProgramBuilder(tests, info).writeDriver(recording, writer));
+        }
     }
 
     public static String createRecordedProgram(Benchmark bench, ExecutionRecording recording) throws Exception {
@@ -74,22 +94,24 @@ public class DynamicMain {
     }
 
     public static String generateFullDriver(BenchmarkInfo info, List<Test> tests, ExecutionRecording recording) throws IOException {
-        Statement program = new DriverProgramBuilder(tests, info).buildDriver(recording);
-
-        return AstToStringVisitor.toString(program, info.options.dynamicOptions.compactOutput);
+        if (info.options.dynamicOptions.incrementalDriver) {
+            return IncrementalDriver.generate(info, tests, recording);
+        }
+        StringWriter writer = new StringWriter();
+        new DriverProgramBuilder(tests, info).writeDriver(recording, writer);
+        return writer.toString();
     }
 
     public static String generateSmallestDriver(Benchmark bench, Function<String, Collection<Integer>> test) throws IOException {
-        int THREADS = 2;
         BenchmarkInfo info = BenchmarkInfo.create(bench);
 
         List<Test> tests = new TestCreator(info).createTests();
+        DriverFragments fragments = new DriverFragments(info, tests);
 
         Test[] testsArray = tests.toArray(new Test[]{});
-        int prevSize = -1;
 
         String filename = getFolderPath(bench) + TEST_FILE_NAME;
-        Util.writeFile(filename, AstToStringVisitor.toString(new DriverProgramBuilder(Arrays.asList(testsArray), info).buildDriver(null), info.options.dynamicOptions.compactOutput));
+        writePartialDriver(fragments, Arrays.asList(testsArray), filename);
 
         Collection<Integer> firstResult = test.apply(filename);
         if (firstResult == null) {
@@ -99,33 +121,44 @@ public class DynamicMain {
         Test[] finalTestsArray = testsArray;
         testsArray = firstResult.stream().map(index -> finalTestsArray[index]).collect(Collectors.toList()).toArray(new Test[]{});
 
-        while (prevSize != testsArray.length) {
-            prevSize = testsArray.length;
-            AtomicInteger counter = new AtomicInteger(0);
-            testsArray = MinimizeArray.minimizeArrayQuick(THREADS, (testsToTest) -> {
-                try {
-                    String fileName = getFolderPath(bench) + counter.incrementAndGet() + TEST_FILE_NAME;
-                    Util.writeFile(fileName, AstToStringVisitor.toString(new DriverProgramBuilder(Arrays.asList(testsToTest), info).buildDriver(null), info.options.dynamicOptions.compactOutput));
-
-                    Collection<Integer> testsRun = test.apply(fileName);
-                    Util.deleteFile(fileName);
-                    if (testsRun != null) {
-                        Util.writeFile(getFolderPath(bench) + TEST_FILE_NAME + ".smallest", AstToStringVisitor.toString(new DriverProgramBuilder(Arrays.asList(testsToTest), info).buildDriver(null), info.options.dynamicOptions.compactOutput));
-                        return testsRun.stream().map(index -> testsToTest[index]).collect(Collectors.toList()).toArray(new Test[]{});
-                    } else {
-                        return null;
+        AtomicInteger counter = new AtomicInteger(0);
+        AtomicInteger smallest = new AtomicInteger(testsArray.length);
+        testsArray = MinimizeArray.minimizeArrayQuick(MinimizeArray.defaultThreads, (testsToTest) -> {
+            // Deleted in the finally, also when the candidate is cancelled (interrupted) or the test throws.
+            String fileName = getFolderPath(bench) + counter.incrementAndGet() + TEST_FILE_NAME;
+            try {
+                writePartialDriver(fragments, Arrays.asList(testsToTest), fileName);
+
+                Collection<Integer> testsRun = test.apply(fileName);
+                if (testsRun != null) {
+                    Test[] result = testsRun.stream().map(index -> testsToTest[index]).collect(Collectors.toList()).toArray(new Test[]{});
+                    synchronized (smallest) {
+                        if (testsToTest.length < smallest.get()) {
+                            smallest.set(testsToTest.length);
+                            writePartialDriver(fragments, Arrays.asList(testsToTest), getFolderPath(bench) + TEST_FILE_NAME + ".smallest");
+                        }
                     }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    return result;
+                } else {
+                    return null;
                 }
-            }, testsArray);
-        }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                Util.deleteFile(fileName);
+            }
+        }, testsArray);
 
-        Statement program = new DriverProgramBuilder(Arrays.asList(testsArray), info).buildDriver(null);
+        writePartialDriver(fragments, Arrays.asList(testsArray), filename);
 
-        Util.writeFile(filename, AstToStringVisitor.toString(program, info.options.dynamicOptions.compactOutput));
+        return Util.readFile(filename);
+    }
 
-        return AstToStringVisitor.toString(program, info.options.dynamicOptions.compactOutput);
+    /**
+     * Writes a driver for a subset of the tests (the incremental state is only for full drivers).
+     */
+    private static void writePartialDriver(DriverFragments fragments, List<Test> tests, String fileName) throws IOException {
+        Util.writeFile(fileName, writer -> fragments.writeDriver(tests, null, writer));
     }
 
 
@@ -152,7 +185,7 @@ public class DynamicMain {
         int timeout = bench.options.dynamicOptions.maxTime + Math.min(10 * 1000, bench.options.dynamicOptions.maxTime);
         switch (bench.run_method) {
             case NODE:
-                return Util.runNodeScript(testFilePath, timeout);
+                return Util.runNodeJob(testFilePath, timeout);
             case BOOTSTRAP:
             case BROWSER:
                 try {
@@ -165,6 +198,134 @@ public class DynamicMain {
         }
     }
 
+    public static OutputParser.RunResult runAndParseBenchmark(Benchmark bench) throws IOException {
+        return runAndParseBenchmark(getFolderPath(bench) + TEST_FILE_NAME, bench);
+    }
+
+    public static OutputParser.RunResult runAndParseBenchmark(Benchmark bench, DriverListener listener) throws IOException {
+        return runAndParseBenchmark(getFolderPath(bench) + TEST_FILE_NAME, bench, listener);
+    }
+
+    /**
+     * Like parsing the output of runBenchmark(), but the output of a node driver is parsed while the driver runs, instead of being collected first.
+     */
+    public static OutputParser.RunResult runAndParseBenchmark(String testFilePath, Benchmark bench) throws IOException {
+        return runAndParseBenchmark(testFilePath, bench, null);
+    }
+
+    /**
+     * With a listener, a node driver sends its records through a local socket (DriverEventChannel) while it runs, and stops early if the listener asks it to.
+     * The output of a browser driver is only parsed after the driver has finished, so the listener receives all the events at the end.
+     */
+    public static OutputParser.RunResult runAndParseBenchmark(String testFilePath, Benchmark bench, DriverListener listener) throws IOException {
+        OutputParser.StreamingParser parser = listener == null ? new OutputParser.StreamingParser() : new OutputParser.StreamingParser(listener);
+        if (bench.run_method != Benchmark.RUN_METHOD.NODE) {
+            for (String line : runBenchmark(testFilePath, bench).split("\n")) {
+                parser.accept(line);
+            }
+            return parser.getResult();
+        }
+        int timeout = bench.options.dynamicOptions.maxTime + Math.min(10 * 1000, bench.options.dynamicOptions.maxTime);
+        if (listener == null) {
+            Util.runNodeJob(testFilePath, null, timeout, parser);
+            return parser.getResult();
+        }
+        try (DriverEventChannel channel = new DriverEventChannel(parser, parser::shouldStop)) {
+            // If the driver cannot connect, it prints the records instead, so stdout is parsed as well.
+            Util.runNodeJob(testFilePath + " " + channel.getArgument(), null, timeout, parser);
+            channel.awaitFinished(10 * 1000);
+        }
+        return parser.getResult();
+    }
+
+    /**
+     * Runs shards copies of the driver concurrently, each with its own seed, and combines the results.
+     * Each copy runs for maxTime, so within the same wall-clock time, roughly shards times as many tests are executed.
+     */
+    public static OutputParser.RunResult runShardedBenchmark(Benchmark bench, int shards) throws IOException {
+        List<String> driverFiles = writeShardedDrivers(bench, shards);
+        try {
+            List<OutputParser.RunResult> results = runShards(driverFiles, (shard, driverFile) -> {
+                try {
+                    return runAndParseBenchmark(getFolderPath(bench) + driverFile, bench);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            return OutputParser.combineShards(results);
+        } finally {
+            driverFiles.forEach(driverFile -> Util.deleteFile(getFolderPath(bench) + driverFile));
+        }
+    }
+
+    /**
+     * The coverage equivalent of runShardedBenchmark(), the coverage of all the shards are combined.
+     * No coverage report is generated.
+     */
+    public static Map<String, CoverageResult> genShardedCoverage(Benchmark bench, int shards) throws IOException {
+        Benchmark coverageBench = coverageBenchmark(bench);
+        List<String> driverFiles = writeShardedDrivers(coverageBench, shards);
+        try {
+            List<Map<String, CoverageResult>> results = runShards(driverFiles, (shard, driverFile) -> {
+                try {
+                    return genCoverage(coverageBench, driverFile, shardCoverageDir(shard), "shard" + shard + "-" + COVERAGE_FILE_NAME, false, null);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            return results.stream().reduce(new HashMap<>(), CoverageResult::combine);
+        } finally {
+            for (int shard = 0; shard < driverFiles.size(); shard++) {
+                Util.deleteFile(getFolderPath(bench) + driverFiles.get(shard));
+                Util.deleteFile(getFolderPath(bench) + "shard" + shard + "-" + COVERAGE_FILE_NAME);
+                FileUtils.deleteQuietly(new File(getFolderPath(bench) + shardCoverageDir(shard))); // Only the combined coverage is returned, nothing reads the directories of the shards.
+            }
+        }
+    }
+
+    private static String shardCoverageDir(int shard) {
+        return "coverage-shard" + shard;
+    }
+
+    private static final String SHARD_SEED_PLACEHOLDER = "TSTEST_SHARD_SEED";
+
+    private static List<String> writeShardedDrivers(Benchmark bench, int shards) throws IOException {
+        assert shards > 0;
+        // The driver is only generated once, the seed is the only difference between the shards.
+        String driver = generateFullDriver(bench, new ExecutionRecording(null, SHARD_SEED_PLACEHOLDER)).getRight();
+        String baseSeed = Long.toString(new Random().nextLong() & Long.MAX_VALUE);
+
+        List<String> driverFiles = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            String driverFile = "shard" + shard + "-" + TEST_FILE_NAME;
+            Util.writeFile(getFolderPath(bench) + driverFile, driver.replace(SHARD_SEED_PLACEHOLDER, baseSeed + "-" + shard));
+            driverFiles.add(driverFile);
+        }
+        return driverFiles;
+    }
+
+    private static <T> List<T> runShards(List<String> driverFiles, BiFunction<Integer, String, T> runner) {
+        ExecutorService pool = Executors.newFixedThreadPool(driverFiles.size());
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int shard = 0; shard < driverFiles.size(); shard++) {
+                int finalShard = shard;
+                futures.add(pool.submit(() -> runner.apply(finalShard, driverFiles.get(finalShard))));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     public static Map<String, CoverageResult> genCoverage(Benchmark bench) throws IOException {
         return genCoverage(bench, DynamicMain.TEST_FILE_NAME, true);
     }
@@ -178,14 +339,31 @@ public class DynamicMain {
     }
 
     public static Map<String, CoverageResult> genCoverage(Benchmark bench, String testFileName, boolean writeDriver) throws IOException {
+        return genCoverage(bench, testFileName, writeDriver, null);
+    }
+
+    /**
+     * @param listener if not null, receives the coverage (and the other events) while a node driver runs, and can stop it early. See runAndParseBenchmark().
+     */
+    public static Map<String, CoverageResult> genCoverage(Benchmark bench, String testFileName, boolean writeDriver, DriverListener listener) throws IOException {
         bench = bench.withOptions(options -> options.setCompactOutput(false));
         if (writeDriver) {
             try {
-                writeFullDriver(bench.withOptions(options -> options.dynamicOptions.setCheckDepthReport(options.dynamicOptions.checkDepthUseValue)));
+                writeFullDriver(coverageBenchmark(bench));
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }
+        return genCoverage(bench, testFileName, "coverage", COVERAGE_FILE_NAME, true, listener);
+    }
+
+    private static Benchmark coverageBenchmark(Benchmark bench) {
+        return bench
+                .withOptions(options -> options.setCompactOutput(false))
+                .withOptions(options -> options.dynamicOptions.setCheckDepthReport(options.dynamicOptions.checkDepthUseValue));
+    }
+
+    private static Map<String, CoverageResult> genCoverage(Benchmark bench, String testFileName, String coverageDir, String coverageFileName, boolean report, DriverListener listener) throws IOException {
 
         int timeout = bench.options.dynamicOptions.maxTime + Math.min(10 * 1000, bench.options.dynamicOptions.maxTime);
 
@@ -195,7 +373,7 @@ public class DynamicMain {
             for (int i = 0; i < foldersDeep; i++) {
                 prefix.append("../");
             }
-            String coverageJsonPath = getFolderPath(bench) + "coverage/coverage.json";
+            String coverageJsonPath = getFolderPath(bench) + coverageDir + "/coverage.json";
 
             Util.deleteFile(coverageJsonPath);
 
@@ -211,7 +389,15 @@ public class DynamicMain {
             testScript = testScript.replace("ISTANBUL_PORT_FOR_PARTIAL_RESULTS = 0", "ISTANBUL_PORT_FOR_PARTIAL_RESULTS = " + portString);
             Util.writeFile(getFolderPath(bench) + testFileName, testScript);
 
-            Util.runNodeScript(prefix + "node_modules/istanbul/lib/cli.js cover " + testFileName, new File(getFolderPath(bench)), timeout);
+            if (listener == null) {
+                Util.runNodeJob(prefix + "node_modules/istanbul/lib/cli.js cover --dir " + coverageDir + " " + testFileName, new File(getFolderPath(bench)), timeout);
+            } else {
+                OutputParser.StreamingParser parser = new OutputParser.StreamingParser(listener);
+                try (DriverEventChannel channel = new DriverEventChannel(parser, parser::shouldStop)) {
+                    Util.runNodeJob(prefix + "node_modules/istanbul/lib/cli.js cover --dir " + coverageDir + " " + testFileName + " -- " + channel.getArgument(), new File(getFolderPath(bench)), timeout);
+                    channel.awaitFinished(10 * 1000);
+                }
+            }
 
             if (new File(coverageJsonPath).exists()) {
                 return CoverageResult.parse(Util.readFile(coverageJsonPath));
@@ -227,23 +413,25 @@ public class DynamicMain {
                 String coverageResult = messages.get(0);
                 coverageResult = Util.removeSuffix(Util.removePrefix(coverageResult, "::COVERAGE::"), "::/COVERAGE::");
 
-                genCoverageReport(coverageResult, bench);
+                if (report) {
+                    genCoverageReport(coverageResult, bench);
+                }
 
                 return CoverageResult.parse(coverageResult);
             }
         }
 
 
-        String instrumented = Util.runNodeScript("node_modules/istanbul/lib/cli.js instrument " + getFolderPath(bench) + testFileName, timeout);
+        String instrumented = Util.runNodeJob("node_modules/istanbul/lib/cli.js instrument " + getFolderPath(bench) + testFileName, timeout);
 
         if (instrumented.isEmpty()) {
             return new HashMap<>();
         }
 
-        String coverageFileName = getFolderPath(bench) + COVERAGE_FILE_NAME;
-        Util.writeFile(coverageFileName, instrumented);
+        String coverageFilePath = getFolderPath(bench) + coverageFileName;
+        Util.writeFile(coverageFilePath, instrumented);
 
-        String coverageResult = runBenchmark(coverageFileName, bench);
+        String coverageResult = runBenchmark(coverageFilePath, bench);
 
         assert coverageResult.startsWith("::COVERAGE::");
         assert coverageResult.endsWith("::/COVERAGE::");
@@ -269,7 +457,9 @@ public class DynamicMain {
 
         assert result.size() == 1;
 
-        genCoverageReport(coverageResult, bench);
+        if (report) {
+            genCoverageReport(coverageResult, bench);
+        }
 
         String testFileLastPart = testFileName.substring(testFileName.lastIndexOf('/') + 1);
         for (Map.Entry<String, CoverageResult> entry : result.entrySet()) {
@@ -290,6 +480,6 @@ public class DynamicMain {
             prefix.append("../");
         }
 
-        Util.runNodeScript(prefix + "node_modules/istanbul/lib/cli.js report --dir coverage", new File(getFolderPath(bench)));
+        Util.runNodeJob(prefix + "node_modules/istanbul/lib/cli.js report --dir coverage", new File(getFolderPath(bench)));
     }
 }
@@ -1,8 +1,14 @@
 package dk.webbies.tajscheck;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import dk.webbies.tajscheck.util.Util;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -43,17 +49,62 @@ public class OutputParser {
         }
     }
 
+    /**
+     * How a single test performed in a run, only reported by drivers built with DynamicOptions.profileTests.
+     * The times are in milliseconds, and only include the synchronous part of the test (not callbacks that run later).
+     */
+    public static final class TestStats {
+        public final int calls;
+        public final int exceptions;
+        public final double totalTime;
+        public final double maxTime;
+
+        public TestStats(int calls, int exceptions, double totalTime, double maxTime) {
+            this.calls = calls;
+            this.exceptions = exceptions;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+        }
+
+        public double getMeanTime() {
+            return calls == 0 ? 0 : totalTime / calls;
+        }
+
+        public static TestStats combine(TestStats one, TestStats two) {
+            return new TestStats(one.calls + two.calls, one.exceptions + two.exceptions, one.totalTime + two.totalTime, Math.max(one.maxTime, two.maxTime));
+        }
+
+        @Override
+        public String toString() {
+            return calls + " calls, " + exceptions + " exceptions, " + Util.toFixed(totalTime, 2) + "ms total, " + Util.toFixed(maxTime, 2) + "ms max";
+        }
+    }
+
     public static final class RunResult {
         public final List<TypeError> typeErrors;
         public final List<String> errors;
         private final Integer totalTests;
         private final Set<Integer> testsCalled;
+        private final long testsExecuted;
+        private final long executionTime;
+        private final Map<Integer, TestStats> testStats;
 
         public RunResult(List<TypeError> typeErrors, List<String> errors, Integer totalTests, Set<Integer> testsCalled) {
+            this(typeErrors, errors, totalTests, testsCalled, -1, -1);
+        }
+
+        public RunResult(List<TypeError> typeErrors, List<String> errors, Integer totalTests, Set<Integer> testsCalled, long testsExecuted, long executionTime) {
+            this(typeErrors, errors, totalTests, testsCalled, testsExecuted, executionTime, Collections.emptyMap());
+        }
+
+        public RunResult(List<TypeError> typeErrors, List<String> errors, Integer totalTests, Set<Integer> testsCalled, long testsExecuted, long executionTime, Map<Integer, TestStats> testStats) {
             this.typeErrors = typeErrors;
             this.errors = errors;
             this.totalTests = totalTests;
             this.testsCalled = testsCalled;
+            this.testsExecuted = testsExecuted;
+            this.executionTime = executionTime;
+            this.testStats = testStats;
         }
 
         public List<TypeError> getTypeErrors() {
@@ -71,129 +122,172 @@ public class OutputParser {
         public Set<Integer> getTestsCalled() {
             return testsCalled;
         }
-    }
 
-    public static RunResult parseDriverResult(String output) {
-        return parseDriverResult(output, false, null);
-    }
-
-    public static RunResult parseDriverResult(String output, boolean collectCalledTests, String filterPath) {
-        if (output.isEmpty()) {
-            return new RunResult(new ArrayList<>(), new ArrayList<>(), -1, Collections.emptySet());
+        /**
+         * The number of tests the driver executed (including repeated executions of the same test), or -1 if the driver did not finish.
+         */
+        public long getTestsExecuted() {
+            return testsExecuted;
         }
-        List<String> split = Arrays.stream(output.split("\n")).filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
-
-        int totalTests = -1;
-        Set<Integer> testsCalled = new HashSet<>();
 
-        List<String> errors = new ArrayList<>();
-
-        ArrayList<String> splitCopy = new ArrayList<>(split);
-        split.clear();
-        for (String msg : splitCopy) {
-            if (msg.startsWith("error: ")) {
-                errors.add(msg.substring("error: ".length(), msg.length()));
-            } else {
-                split.add(msg);
-            }
+        /**
+         * In milliseconds, or -1 if the driver did not finish.
+         */
+        public long getExecutionTime() {
+            return executionTime;
         }
 
-
-        List<TypeError> typeErrors = new ArrayList<>();
-
-        assert split.get(0).startsWith("Initial random: ");
-
-        split = split.stream().filter(str -> !str.startsWith("Initial random: ")).collect(Collectors.toList());
-
-        if (split.size() == 0) {
-            return new RunResult(new ArrayList<>(), errors, totalTests, testsCalled);
-        }
-
-        List<String> singleResultCollector = new ArrayList<>();
-
-        for (int i = 0; i < split.size(); i++) {
-            String line = split.get(i);
-            if (line.startsWith(" ") && line.trim().startsWith("at ")) {
-                continue; // Is likely a stacktrace thing.
-            }
-
-            if (line.startsWith("Test called: ")) {
-                int testCalled = Integer.parseInt(Util.removePrefix(line, "Test called: ").trim());
-                testsCalled.add(testCalled);
-            } else if (line.startsWith("total number of tests: ")) {
-                totalTests = Integer.parseInt(Util.removePrefix(line, "total number of tests: ").trim());
-            } else {
-                if (!line.startsWith(" ")) {
-                    if (!singleResultCollector.isEmpty()) {
-                        typeErrors.add(parseSingleResult(singleResultCollector, testsCalled, collectCalledTests, filterPath));
-                    }
-                    singleResultCollector.clear();
-                }
-                singleResultCollector.add(line);
+        public double getTestsPerSecond() {
+            if (testsExecuted < 0 || executionTime <= 0) {
+                return -1;
             }
+            return testsExecuted * 1000.0 / executionTime;
         }
 
-        if (!singleResultCollector.isEmpty()) {
-            typeErrors.add(parseSingleResult(singleResultCollector, testsCalled, collectCalledTests, filterPath));
+        /**
+         * The statistics of every test that was run, by test number. Empty if the driver was not built with DynamicOptions.profileTests, or did not finish.
+         */
+        public Map<Integer, TestStats> getTestStats() {
+            return testStats;
         }
+    }
 
-        typeErrors = typeErrors.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    public static RunResult parseDriverResult(String output) {
+        return parseDriverResult(output, false, null);
+    }
 
-        return new RunResult(typeErrors, errors, totalTests, testsCalled);
+    public static RunResult parseDriverResult(String output, boolean collectCalledTests, String filterPath) {
+        StreamingParser parser = new StreamingParser(collectCalledTests, filterPath);
+        new BufferedReader(new StringReader(output)).lines().forEach(parser);
+        return parser.getResult();
     }
 
-    private static TypeError parseSingleResult(List<String> lines, Set<Integer> testsCalled, boolean collectCalledTests, String filterPath) {
-        if (!(lines.size() == 6 || lines.size() == 5)) {
-            return null;
+    /**
+     * Parses the output of a driver one line at a time, while the driver is running.
+     * Every line printed by the driver is a record, a JSON object with a "kind" (see emit() in prelude.js), anything else is ignored.
+     *
+     * Only the result is kept, not the output, and the driver reports every type-error only once, so the memory used does not grow with the length of the run.
+     */
+    public static final class StreamingParser implements Consumer<String> {
+        private static final int MAX_ERRORS = 1000;
+
+        private final boolean collectCalledTests;
+        private final String filterPath;
+        private final DriverListener listener;
+
+        private final List<TypeError> typeErrors = new ArrayList<>();
+        private final Set<String> errors = new LinkedHashSet<>();
+        private final Set<Integer> testsCalled = new HashSet<>();
+        private int totalTests = -1;
+        private long testsExecuted = -1;
+        private long executionTime = -1;
+        private final Map<Integer, TestStats> testStats = new HashMap<>();
+        private final CoverageAccumulator coverage = new CoverageAccumulator();
+
+        public StreamingParser() {
+            this(false, null);
         }
 
-        String header = lines.get(0);
-        assert header.substring(header.lastIndexOf('('), header.length()).startsWith("(iteration: ");
-        if (header.startsWith("<---")) {
-            return null;
+        public StreamingParser(DriverListener listener) {
+            this(false, null, listener);
         }
-        if (header.lastIndexOf('(') == -1) {
-            throw new RuntimeException();
-        }
-        header = header.substring(0, header.lastIndexOf('(') - 1);
-        assert header.lastIndexOf(':') == header.length() - 1;
-        String path = header.substring(0, header.length() - 1);
 
-        String expectStart = "    Here I expected: ";
-        assert lines.get(1).startsWith(expectStart);
-        String expectFinish = ", but instead I got: ";
-        assert lines.get(1).endsWith(expectFinish);
+        public StreamingParser(boolean collectCalledTests, String filterPath) {
+            this(collectCalledTests, filterPath, new DriverListener() {});
+        }
 
-        String expected = lines.get(1).substring(expectStart.length(), lines.get(1).length() - expectFinish.length());
+        public StreamingParser(boolean collectCalledTests, String filterPath, DriverListener listener) {
+            this.collectCalledTests = collectCalledTests;
+            this.filterPath = filterPath;
+            this.listener = listener;
+        }
 
-        String describStart = "        descrip: ";
-        assert lines.get(2).startsWith(describStart);
-        String type = Util.removePrefix(lines.get(2), describStart);
+        public boolean shouldStop() {
+            return listener.shouldStop();
+        }
 
-        String typeofPrefix = "        typeof: ";
-        assert lines.get(3).startsWith(typeofPrefix);
-        String typeof = lines.get(3).substring(typeofPrefix.length(), lines.get(3).length());
+        @Override
+        public synchronized void accept(String line) {
+            line = line.trim();
+            if (!line.startsWith("{")) {
+                return; // Not a record, something the library printed directly, or a stack-trace.
+            }
+            JsonObject record;
+            try {
+                record = new JsonParser().parse(line).getAsJsonObject();
+            } catch (RuntimeException e) {
+                return;
+            }
+            if (!record.has("kind")) {
+                return;
+            }
+            switch (record.get("kind").getAsString()) {
+                case "random":
+                    break;
+                case "total":
+                    totalTests = record.get("count").getAsInt();
+                    break;
+                case "called":
+                    int test = record.get("test").getAsInt();
+                    testsCalled.add(test);
+                    listener.testCalled(test);
+                    break;
+                case "executed":
+                    testsExecuted = record.get("count").getAsLong();
+                    executionTime = record.get("time").getAsLong();
+                    break;
+                case "testStats":
+                    for (Map.Entry<String, JsonElement> entry : record.getAsJsonObject("tests").entrySet()) {
+                        JsonObject stats = entry.getValue().getAsJsonObject();
+                        testStats.put(Integer.parseInt(entry.getKey()), new TestStats(stats.get("calls").getAsInt(), stats.get("exceptions").getAsInt(), stats.get("time").getAsDouble(), stats.get("max").getAsDouble()));
+                    }
+                    break;
+                case "error":
+                    String message = getString(record, "message");
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(message);
+                    }
+                    listener.error(message);
+                    break;
+                case "fail":
+                    TypeError typeError = parseTypeError(record);
+                    if (typeError != null) {
+                        typeErrors.add(typeError);
+                        listener.typeError(typeError);
+                    }
+                    break;
+                case "coverage":
+                    coverage.apply(record.getAsJsonObject("files"));
+                    listener.coverage(coverage);
+                    break;
+                default:
+                    // Like a malformed line, a record we do not know (e.g. from a newer prelude) should not stop the run.
+                    System.err.println("Ignoring unknown record from driver: " + line);
+                    break;
+            }
+        }
 
-        String toStringPrefix = "        toString: ";
-        assert lines.get(4).startsWith(toStringPrefix);
-        String toString = lines.get(4).substring(toStringPrefix.length(), lines.get(4).length());
+        private TypeError parseTypeError(JsonObject record) {
+            String path = getString(record, "path");
+            if (filterPath != null && !filterPath.equals(path)) {
+                return null;
+            }
 
-        String JSON = null;
-        if (lines.size() >= 6) {
-            String jsonPrefix = "        JSON: ";
-            assert lines.get(5).startsWith(jsonPrefix);
-            JSON = lines.get(5).substring(jsonPrefix.length(), lines.get(5).length());
+            Set<Integer> typeErrorTestsCalled = null;
+            if (collectCalledTests) {
+                typeErrorTestsCalled = new HashSet<>(testsCalled);
+            }
+            return new TypeError(path, getString(record, "expected"), getString(record, "typeof"), getString(record, "string"), getString(record, "json"), getString(record, "descrip"), typeErrorTestsCalled);
         }
 
-        if (filterPath != null && !filterPath.equals(path)) {
-            return null;
+        private static String getString(JsonObject record, String key) {
+            JsonElement element = record.get(key);
+            return element == null || element.isJsonNull() ? null : element.getAsString();
         }
 
-        Set<Integer> typeErrorTestsCalled = null;
-        if (collectCalledTests) {
-            typeErrorTestsCalled = new HashSet<>(testsCalled);
+        public synchronized RunResult getResult() {
+            return new RunResult(new ArrayList<>(typeErrors), new ArrayList<>(errors), totalTests, new HashSet<>(testsCalled), testsExecuted, executionTime, new HashMap<>(testStats));
         }
-        return new TypeError(path, expected, typeof, toString, JSON, type, typeErrorTestsCalled);
     }
 
     public static RunResult combine(List<RunResult> results) {
@@ -207,6 +301,36 @@ public class OutputParser {
 
         Set<Integer> testsCalled = results.stream().map(RunResult::getTestsCalled).reduce(new HashSet<>(), Util::reduceSet);
 
-        return new RunResult(typeErrors, errors, totalTests, testsCalled);
+        List<RunResult> finished = results.stream().filter(res -> res.getTestsExecuted() >= 0).collect(Collectors.toList());
+        long testsExecuted = finished.isEmpty() ? -1 : finished.stream().mapToLong(RunResult::getTestsExecuted).sum();
+        long executionTime = finished.isEmpty() ? -1 : finished.stream().mapToLong(RunResult::getExecutionTime).sum();
+
+        Map<Integer, TestStats> testStats = new HashMap<>();
+        for (RunResult result : results) {
+            result.getTestStats().forEach((test, stats) -> testStats.merge(test, stats, TestStats::combine));
+        }
+
+        return new RunResult(typeErrors, errors, totalTests, testsCalled, testsExecuted, executionTime, testStats);
+    }
+
+    /**
+     * Combines the results of running the same driver with different seeds.
+     * Unlike combine(), type-errors are deduplicated by path, such that every path is reported once, with the tests called from all the runs that reported it.
+     */
+    public static RunResult combineShards(List<RunResult> results) {
+        RunResult combined = combine(results);
+
+        Map<String, TypeError> byPath = new LinkedHashMap<>();
+        for (TypeError typeError : combined.typeErrors) {
+            TypeError existing = byPath.get(typeError.getPath());
+            if (existing == null) {
+                byPath.put(typeError.getPath(), typeError);
+            } else if (existing.testsCalled != null && typeError.testsCalled != null) {
+                Set<Integer> testsCalled = Util.union(existing.testsCalled, typeError.testsCalled);
+                byPath.put(typeError.getPath(), new TypeError(existing.path, existing.expected, existing.typeof, existing.toString, existing.JSON, existing.type, testsCalled));
+            }
+        }
+
+        return new RunResult(new ArrayList<>(byPath.values()), combined.errors, combined.totalTests, combined.testsCalled, combined.testsExecuted, combined.executionTime, combined.testStats);
     }
 }
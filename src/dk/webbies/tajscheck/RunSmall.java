@@ -3,8 +3,6 @@ package dk.webbies.tajscheck;
 import dk.webbies.tajscheck.benchmark.Benchmark;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
 import dk.webbies.tajscheck.buildprogram.DriverProgramBuilder;
-import dk.webbies.tajscheck.paser.AST.Statement;
-import dk.webbies.tajscheck.paser.AstToStringVisitor;
 import dk.webbies.tajscheck.testcreator.TestCreator;
 import dk.webbies.tajscheck.testcreator.test.Test;
 import dk.webbies.tajscheck.util.Util;
@@ -43,11 +41,9 @@ public class RunSmall {
 
             List<Test> specificTests = new TestCreator(info.withBench(bench)).createTests();
 
-            Statement program = new DriverProgramBuilder(specificTests, info).buildDriver(null);
-
             String filePath = DynamicMain.getFolderPath(bench) + DynamicMain.TEST_FILE_NAME;
 
-            Util.writeFile(filePath, AstToStringVisitor.toString(program, info.options.dynamicOptions.compactOutput));
+            Util.writeFile(filePath, writer -> new DriverProgramBuilder(specificTests, info).writeDriver(null, writer));
 
             try {
                 result.add(runner.apply(filePath));
@@ -113,7 +109,7 @@ public class RunSmall {
     public static Function<String, OutputParser.RunResult> runDriver(Benchmark bench) {
         return (path) -> {
             try {
-                return OutputParser.parseDriverResult(DynamicMain.runBenchmark(path, bench));
+                return DynamicMain.runAndParseBenchmark(path, bench);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -4,6 +4,7 @@ import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.TypeResolver;
 import dk.au.cs.casa.typescript.types.*;
 import dk.webbies.tajscheck.benchmark.options.CheckOptions;
+import dk.webbies.tajscheck.parsespec.EnvironmentBaseline;
 import dk.webbies.tajscheck.parsespec.flow.FlowParser;
 import dk.webbies.tajscheck.parsespec.ParseDeclaration;
 import dk.webbies.tajscheck.typeutil.TypesUtil;
@@ -40,11 +41,9 @@ public class BenchmarkInfo {
                 ParseDeclaration.getTypeSpecification(bench.environment, Collections.singletonList(bench.dTSFile)) :
                 FlowParser.parse(bench.environment, Collections.singletonList(bench.dTSFile));
 
-        SpecReader emptySpec = bench.dTSFile.endsWith(".ts") ?
-                ParseDeclaration.getTypeSpecification(bench.environment, Collections.emptyList()):
-                FlowParser.parse(bench.environment, Collections.emptyList());
+        EnvironmentBaseline environment = EnvironmentBaseline.get(bench.environment, !bench.dTSFile.endsWith(".ts"));
 
-        this.nativeTypes = TypesUtil.collectNativeTypes(spec, emptySpec);
+        this.nativeTypes = TypesUtil.collectNativeTypes(spec, environment);
 
         this.typeNames = ParseDeclaration.getTypeNamesMap(spec);
 
@@ -58,7 +57,7 @@ public class BenchmarkInfo {
             }
         }).collect(Collectors.toSet());
 
-        this.userDefinedTypes = getUserDefinedTypes(bench, spec, emptySpec);
+        this.userDefinedTypes = getUserDefinedTypes(bench, spec, environment);
 
         applyTypeFixes(bench, spec, typeNames, nativeTypes, freeGenericsFinder, this);
     }
@@ -84,10 +83,10 @@ public class BenchmarkInfo {
         return new BenchmarkInfo(bench);
     }
 
-    private static Map<String, Type> getUserDefinedTypes(Benchmark bench, SpecReader spec, SpecReader emptySpec) {
+    private static Map<String, Type> getUserDefinedTypes(Benchmark bench, SpecReader spec, EnvironmentBaseline environment) {
         Map<String, Type> userDefinedTypes = new HashMap<>();
         for (Map.Entry<String, Type> entry : spec.getGlobal().getDeclaredProperties().entrySet()) {
-            if (emptySpec.getGlobal().getDeclaredProperties().containsKey(entry.getKey())) {
+            if (environment.globalPropertyNames.contains(entry.getKey())) {
                 continue;
             }
             if (entry.getValue() instanceof SimpleType && ((SimpleType) entry.getValue()).getKind() == SimpleTypeKind.Any) {
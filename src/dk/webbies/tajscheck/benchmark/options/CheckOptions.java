@@ -122,6 +122,11 @@ public final class CheckOptions implements OptionsI {
             return this;
         }
 
+        public Builder setUseValidatorFunctions(boolean useValidatorFunctions) {
+            this.dynamicOptions.useValidatorFunctions = useValidatorFunctions;
+            return this;
+        }
+
         public Builder setOnlyInitialize(boolean onlyInitialize) {
             this.onlyInitialize = onlyInitialize;
             return this;
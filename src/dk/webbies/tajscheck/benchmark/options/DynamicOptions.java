@@ -19,7 +19,11 @@ public class DynamicOptions implements OptionsI {
     public final boolean firstMatchSignaturePolicy;
     public final boolean monitorUnknownPropertyAccesses;
     public final boolean useAssertTypeFunctions;
+    public final boolean useValidatorFunctions;
     public final boolean compactOutput;
+    public final boolean incrementalDriver;
+    public final boolean profileTests;
+    public final boolean adaptiveTestSelection;
     private final Builder builder;
 
     public DynamicOptions(Builder builder) {
@@ -34,7 +38,11 @@ public class DynamicOptions implements OptionsI {
         this.firstMatchSignaturePolicy = builder.firstMatchSignaturePolicy;
         this.monitorUnknownPropertyAccesses = builder.monitorUnknownPropertyAccesses;
         this.useAssertTypeFunctions = builder.useAssertTypeFunctions;
+        this.useValidatorFunctions = builder.useValidatorFunctions;
         this.compactOutput = builder.compactOutput;
+        this.incrementalDriver = builder.incrementalDriver;
+        this.profileTests = builder.profileTests;
+        this.adaptiveTestSelection = builder.adaptiveTestSelection;
     }
 
     public boolean makeSeparateReportAssertions() {
@@ -58,7 +66,11 @@ public class DynamicOptions implements OptionsI {
         public boolean firstMatchSignaturePolicy = true; // If the first-match-signature policy of TypeScript should be enforced.
         public boolean monitorUnknownPropertyAccesses = false;
         public boolean useAssertTypeFunctions = true; // Whether or not to combine type-cheks into assertType functions, if not they are inlined (slightly bigger, easier to read).
+        public boolean useValidatorFunctions = true; // Whether the checks in assertType functions are compiled into shared validator functions, that remember their results for each object in an iteration (see CheckCompiler).
         public boolean compactOutput = false;
+        public boolean incrementalDriver = false; // Reuse the test-cases of the previous driver for tests where nothing reachable changed (see IncrementalDriver).
+        public boolean profileTests = false; // Record the calls, time spent and exceptions of every test in the driver, reported as OutputParser.TestStats.
+        public boolean adaptiveTestSelection = false; // Prefer running the tests that recently found something new (values, runnable tests, type-errors) relative to the time they take, instead of selecting uniformly at random (see selectAdaptively() in prelude.js).
 
 
         public Builder(CheckOptions.Builder outerBuilder) {
@@ -85,6 +97,21 @@ public class DynamicOptions implements OptionsI {
             return this;
         }
 
+        public Builder setIncrementalDriver(boolean incrementalDriver) {
+            this.incrementalDriver = incrementalDriver;
+            return this;
+        }
+
+        public Builder setProfileTests(boolean profileTests) {
+            this.profileTests = profileTests;
+            return this;
+        }
+
+        public Builder setAdaptiveTestSelection(boolean adaptiveTestSelection) {
+            this.adaptiveTestSelection = adaptiveTestSelection;
+            return this;
+        }
+
         public DynamicOptions buildInner() {
             return new DynamicOptions(this);
         }
@@ -38,6 +38,7 @@ public class StaticOptions implements OptionsI {
     public final boolean ignoreTypeDecs;
     public final boolean widthSubtpyingIncludesAllObjects;
     public final InstantiationFilter instantiationFilter;
+    public final boolean skipKnownBadTests;
 
     public enum ArgumentValuesStrategy {
         MIX_FEEDBACK_AND_CONSTRUCTED,
@@ -66,6 +67,7 @@ public class StaticOptions implements OptionsI {
         this.ignoreTypeDecs = builder.ignoreTypeDecs;
         this.instantiationFilter = builder.instantiationFilter;
         this.widthSubtpyingIncludesAllObjects = builder.widthSubtpyingIncludesAllObjects;
+        this.skipKnownBadTests = builder.skipKnownBadTests;
         this.builder = builder;
 
         if (useValuesWithMismatches && !propagateStateFromFailingTest) {
@@ -95,6 +97,7 @@ public class StaticOptions implements OptionsI {
         private boolean widthSubtpyingIncludesAllObjects = false;
         private boolean ignoreTypeDecs = false; // if true, ALL methods will be called with the "any" type.
         private InstantiationFilter instantiationFilter = (t, v, c, i) -> v;
+        private boolean skipKnownBadTests = false; // if true, the tests that were retracted or threw an exception in a previous analysis of the benchmark that timed out are skipped, and its violations are kept. Nothing else is reused, the library is loaded and analyzed again (see AnalysisHints).
 
         private final CheckOptions.Builder outerBuilder;
 
@@ -186,6 +189,11 @@ public class StaticOptions implements OptionsI {
             return this;
         }
 
+        public Builder setSkipKnownBadTests(boolean skipKnownBadTests) {
+            this.skipKnownBadTests = skipKnownBadTests;
+            return this;
+        }
+
         public Builder setProperWidthSubtyping(boolean properWidthSubtyping) {
             this.properWidthSubtyping = properWidthSubtyping;
             return this;
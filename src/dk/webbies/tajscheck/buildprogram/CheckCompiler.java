@@ -0,0 +1,160 @@
+package dk.webbies.tajscheck.buildprogram;
+
+import dk.webbies.tajscheck.buildprogram.typechecks.TypeCheckCache;
+import dk.webbies.tajscheck.paser.AST.Expression;
+import dk.webbies.tajscheck.paser.AST.Identifier;
+import dk.webbies.tajscheck.paser.AST.Operator;
+import dk.webbies.tajscheck.paser.AstBuilder;
+import dk.webbies.tajscheck.testcreator.test.check.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static dk.webbies.tajscheck.paser.AstBuilder.*;
+
+/**
+ * Compiles Checks into validator functions, instead of into one big expression (like CheckToExpression).
+ *
+ * Every distinct structural check (a check that looks into the fields of the value) becomes a function "(exp) -> boolean", that the checks containing it call.
+ * The checks are interned (see TypeCheckCache), so a sub-check that is shared between types is also shared between the validators.
+ * A validator remembers its result for each object it has checked in the current iteration (see validatorResults() in prelude.js), so an object graph is only traversed once per iteration by each validator.
+ *
+ * The validators are added to the assertType functions of the TypeChecker (and named like them), so the IncrementalDriver and DriverFragments handle them like any other assertType function.
+ */
+final class CheckCompiler implements CheckVisitorWithArgument<Expression, Expression> {
+    private final TypeChecker typeChecker;
+    private final TypeCheckCache cache;
+
+    private final Map<Check, String> validators = new IdentityHashMap<>();
+    private final Map<Check, Boolean> structural = new IdentityHashMap<>();
+
+    CheckCompiler(TypeChecker typeChecker, TypeCheckCache cache) {
+        this.typeChecker = typeChecker;
+        this.cache = cache;
+    }
+
+    Expression generate(Check check, Expression exp) {
+        return expression(cache.intern(check), exp);
+    }
+
+    /**
+     * A call to the validator of the check if it is structural, otherwise the check inlined.
+     */
+    private Expression expression(Check check, Expression exp) {
+        if (check instanceof FieldCheck || check instanceof NotCheck || !isStructural(check)) {
+            // A FieldCheck and a NotCheck are cheap around their sub-check, which gets its own validator if it needs one.
+            return check.accept(this, exp);
+        }
+        return call(validator(check), exp);
+    }
+
+    private Identifier validator(Check check) {
+        if (!validators.containsKey(check)) {
+            Identifier exp = identifier("exp");
+            Expression body = check.accept(this, exp);
+            String name;
+            if (isStructural(check)) {
+                Identifier results = identifier("results");
+                Identifier result = identifier("result");
+                name = typeChecker.addTypeCheckingFunction(functionName -> function(functionName, block(
+                        variable(results, call(identifier("validatorResults"), exp)),
+                        ifThen(
+                                and(binary(results, Operator.NOT_EQUAL_EQUAL, nullLiteral()), binary(member(results, functionName), Operator.NOT_EQUAL_EQUAL, identifier("undefined"))),
+                                Return(member(results, functionName))
+                        ),
+                        variable(result, body),
+                        ifThen(
+                                binary(results, Operator.NOT_EQUAL_EQUAL, nullLiteral()),
+                                statement(binary(member(results, functionName), Operator.EQUAL, result))
+                        ),
+                        Return(result)
+                ), "exp"));
+            } else {
+                name = typeChecker.addTypeCheckingFunction(functionName -> function(functionName, block(Return(body)), "exp"));
+            }
+            validators.put(check, name);
+        }
+        return identifier(validators.get(check));
+    }
+
+    private boolean isStructural(Check check) {
+        Boolean result = structural.get(check);
+        if (result == null) {
+            if (check instanceof FieldCheck || check instanceof NumberIndexCheck || check instanceof StringIndexCheck) {
+                result = true;
+            } else if (check instanceof AndCheck) {
+                result = ((AndCheck) check).getChecks().stream().anyMatch(this::isStructural);
+            } else if (check instanceof OrCheck) {
+                result = ((OrCheck) check).getChecks().stream().anyMatch(this::isStructural);
+            } else if (check instanceof NotCheck) {
+                result = isStructural(((NotCheck) check).getCheck());
+            } else {
+                result = false;
+            }
+            structural.put(check, result);
+        }
+        return result;
+    }
+
+    private List<Expression> expressions(List<Check> checks, Expression exp) {
+        return checks.stream().map(subCheck -> expression(subCheck, exp)).collect(Collectors.toList());
+    }
+
+    @Override
+    public Expression visit(OrCheck check, Expression exp) {
+        return AstBuilder.or(expressions(check.getChecks(), exp));
+    }
+
+    @Override
+    public Expression visit(AndCheck check, Expression exp) {
+        return AstBuilder.and(expressions(check.getChecks(), exp));
+    }
+
+    @Override
+    public Expression visit(NotCheck check, Expression exp) {
+        if (check.getCheck() instanceof NotCheck) {
+            return expression(((NotCheck) check.getCheck()).getCheck(), exp);
+        } else {
+            return unary(Operator.NOT, expression(check.getCheck(), exp));
+        }
+    }
+
+    @Override
+    public Expression visit(FieldCheck check, Expression exp) {
+        return expression(cache.intern(Check.and(check.getChecks())), member(exp, check.getField()));
+    }
+
+    @Override
+    public Expression visit(NumberIndexCheck check, Expression exp) {
+        return call(identifier("numberIndexCheck"), exp, validator(check.getSubCheck()));
+    }
+
+    @Override
+    public Expression visit(StringIndexCheck check, Expression exp) {
+        return call(identifier("stringIndexCheck"), exp, validator(check.getSubCheck()));
+    }
+
+    // The rest are leaves, those are the same as with CheckToExpression.
+
+    @Override
+    public Expression visit(TypeOfCheck check, Expression exp) {
+        return CheckToExpression.generate(check, exp);
+    }
+
+    @Override
+    public Expression visit(EqualityCheck check, Expression exp) {
+        return CheckToExpression.generate(check, exp);
+    }
+
+    @Override
+    public Expression visit(InstanceOfCheck check, Expression exp) {
+        return CheckToExpression.generate(check, exp);
+    }
+
+    @Override
+    public Expression visit(ExpressionCheck check, Expression exp) {
+        return CheckToExpression.generate(check, exp);
+    }
+}
@@ -0,0 +1,204 @@
+package dk.webbies.tajscheck.buildprogram;
+
+import dk.webbies.tajscheck.ExecutionRecording;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.paser.AST.Statement;
+import dk.webbies.tajscheck.paser.AstToStringVisitor;
+import dk.webbies.tajscheck.testcreator.test.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dk.webbies.tajscheck.buildprogram.DriverProgramBuilder.VALUE_VARIABLE_PREFIX;
+import static dk.webbies.tajscheck.buildprogram.DriverProgramBuilder.VARIABLE_NO_VALUE;
+import static dk.webbies.tajscheck.paser.AstBuilder.identifier;
+import static dk.webbies.tajscheck.paser.AstBuilder.variable;
+
+/**
+ * Drivers for subsets of a list of tests (the candidates when minimizing a driver), assembled from code that is only printed once.
+ *
+ * The TypeCreator and TypeChecker are run once on all the tests, and the code of every test-case, constructType function and assertType function is printed once.
+ * A driver for a subset only contains the code reachable from the test-cases in the subset.
+ * The getType functions are created for each driver, as they should only return the values that can be produced in that driver.
+ */
+public class DriverFragments {
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("\\b(" + TypeCreator.GET_TYPE_PREFIX + "|" + TypeCreator.CONSTRUCT_TYPE_PREFIX + "|" + VALUE_VARIABLE_PREFIX + "|" + TypeCreator.CONSTRUCTED_VARIABLE_CACHE_PREFIX + "|assertType_)(\\w+)\\b");
+    private static final Pattern ASSERT_TYPE_DEFINITION_PATTERN = Pattern.compile("function (assertType_\\w+)\\b");
+
+    private final BenchmarkInfo info;
+    private final TypeCreator typeCreator;
+
+    private final Map<Test, Fragment> testCases = new IdentityHashMap<>();
+    private final Map<Integer, Fragment> constructTypeFunctions = new HashMap<>();
+    private final Map<String, Fragment> assertTypeFunctions = new HashMap<>();
+
+    private static final class Fragment {
+        final String code;
+        final List<String> references = new ArrayList<>();
+
+        Fragment(String code) {
+            this.code = code;
+            Matcher matcher = REFERENCE_PATTERN.matcher(code);
+            while (matcher.find()) {
+                references.add(matcher.group());
+            }
+        }
+    }
+
+    public DriverFragments(BenchmarkInfo info, List<Test> tests) {
+        this.info = info;
+        this.typeCreator = new TypeCreator(tests, info, new TypeChecker(info));
+
+        DriverProgramBuilder builder = new DriverProgramBuilder(tests, info, typeCreator, null);
+        for (Test test : tests) {
+            testCases.put(test, new Fragment(print(builder.buildTestCaseStatement(test))));
+        }
+        for (int i = 0; i < typeCreator.getNumberOfTypes(); i++) {
+            Statement function = typeCreator.getConstructTypeFunction(i);
+            if (function != null) {
+                constructTypeFunctions.put(i, new Fragment(print(function)));
+            }
+        }
+        // After the test-cases, as creating them creates assertType functions.
+        for (Statement function : typeCreator.getTypeChecker().getTypeCheckingFunctionList()) {
+            String code = print(function);
+            Matcher matcher = ASSERT_TYPE_DEFINITION_PATTERN.matcher(code);
+            if (!matcher.find()) {
+                throw new RuntimeException("Could not find the name of the function: " + code);
+            }
+            assertTypeFunctions.put(matcher.group(1), new Fragment(code));
+        }
+    }
+
+    /**
+     * Writes a driver for the tests, which must be some of the tests given to the constructor.
+     * Can be called concurrently.
+     */
+    public void writeDriver(List<Test> tests, ExecutionRecording recording, Writer writer) throws IOException {
+        Selection selection = new Selection(tests);
+        StringWriter skeleton = new StringWriter();
+        new DriverProgramBuilder(tests, info, typeCreator, selection).writeDriver(recording, skeleton);
+        writer.write(selection.splices.apply(skeleton.toString()));
+    }
+
+    private String print(Statement statement) {
+        return AstToStringVisitor.toString(statement, info.options.dynamicOptions.compactOutput);
+    }
+
+    /**
+     * The code reachable from some of the test-cases.
+     */
+    final class Selection {
+        private final Splices splices = new Splices();
+        private final Set<String> reachable = new HashSet<>();
+        private final Set<Integer> producedValues = new HashSet<>();
+
+        private Selection(List<Test> tests) {
+            Deque<String> worklist = new ArrayDeque<>();
+            for (Test test : tests) {
+                worklist.addAll(testCases.get(test).references);
+            }
+            while (!worklist.isEmpty()) {
+                String name = worklist.pop();
+                if (!reachable.add(name)) {
+                    continue;
+                }
+                Fragment function = getFunction(name);
+                if (function != null) {
+                    worklist.addAll(function.references);
+                }
+                if (name.startsWith(VALUE_VARIABLE_PREFIX)) {
+                    // The test-cases and constructType functions only write to the value variables (the getType functions read them).
+                    producedValues.add(index(name, VALUE_VARIABLE_PREFIX));
+                }
+            }
+        }
+
+        private Fragment getFunction(String name) {
+            if (name.startsWith(TypeCreator.CONSTRUCT_TYPE_PREFIX)) {
+                return constructTypeFunctions.get(index(name, TypeCreator.CONSTRUCT_TYPE_PREFIX));
+            }
+            return assertTypeFunctions.get(name);
+        }
+
+        boolean isProduced(int valueIndex) {
+            return producedValues.contains(valueIndex);
+        }
+
+        Statement testCase(Test test) {
+            return splices.add(testCases.get(test).code);
+        }
+
+        Statement valueVariableDeclarations() {
+            StringBuilder code = new StringBuilder();
+            for (String name : sorted(VALUE_VARIABLE_PREFIX)) {
+                code.append(print(variable(name, identifier(VARIABLE_NO_VALUE))));
+            }
+            for (String name : sorted(TypeCreator.CONSTRUCTED_VARIABLE_CACHE_PREFIX)) {
+                code.append(print(variable(name, identifier(VARIABLE_NO_VALUE))));
+            }
+            return splices.add(code.toString());
+        }
+
+        Statement typeCheckingFunctions() {
+            StringBuilder code = new StringBuilder();
+            for (String name : sorted("assertType_")) {
+                if (assertTypeFunctions.containsKey(name)) {
+                    code.append(assertTypeFunctions.get(name).code);
+                }
+            }
+            return splices.add(code.toString());
+        }
+
+        Statement typeFunctions() {
+            StringBuilder code = new StringBuilder();
+            for (String name : sorted(TypeCreator.GET_TYPE_PREFIX)) {
+                int index = index(name, TypeCreator.GET_TYPE_PREFIX);
+                List<Integer> values = index < typeCreator.getNumberOfTypes() ? typeCreator.getTypeValues(index) : null;
+                if (values == null) {
+                    continue;
+                }
+                List<Integer> producedValues = new ArrayList<>();
+                for (Integer value : values) {
+                    if (isProduced(value)) {
+                        producedValues.add(value);
+                    }
+                }
+                code.append(print(typeCreator.createGetTypeFunction(index, producedValues)));
+            }
+            for (String name : sorted(TypeCreator.CONSTRUCT_TYPE_PREFIX)) {
+                Fragment function = getFunction(name);
+                if (function != null) {
+                    code.append(function.code);
+                }
+            }
+            return splices.add(code.toString());
+        }
+
+        /**
+         * The reachable names with the prefix, in the order they have in a normal driver.
+         */
+        private List<String> sorted(String prefix) {
+            List<String> result = new ArrayList<>();
+            for (String name : reachable) {
+                if (name.startsWith(prefix)) {
+                    result.add(name);
+                }
+            }
+            result.sort(Comparator.comparing((String name) -> name.length()).thenComparing(name -> name));
+            return result;
+        }
+    }
+
+    private static int index(String name, String prefix) {
+        try {
+            return Integer.parseInt(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -12,13 +12,20 @@ import dk.webbies.tajscheck.paser.AST.Expression;
 import dk.webbies.tajscheck.paser.AST.Operator;
 import dk.webbies.tajscheck.paser.AST.Statement;
 import dk.webbies.tajscheck.paser.AstBuilder;
+import dk.webbies.tajscheck.paser.AstToStringVisitor;
 import dk.webbies.tajscheck.testcreator.test.*;
 import dk.webbies.tajscheck.typeutil.TypesUtil;
 import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
 import dk.webbies.tajscheck.util.Pair;
 import dk.webbies.tajscheck.util.Util;
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,6 +42,7 @@ import static dk.webbies.tajscheck.paser.AstBuilder.*;
 public class DriverProgramBuilder {
     public static final String VARIABLE_NO_VALUE = "no_value";
     public static final String VALUE_VARIABLE_PREFIX = "value_";
+    public static final String REGISTER_VALUE_FUNCTION = "registerValue"; // (see prelude.js), called with the same index as the value-variable that was just set, IncrementalDriver remaps both.
     public static final String RUNTIME_ERROR_NAME = "RuntimeError";
     public static final String START_OF_FILE_MARKER = "-!-!-!- START OF FILE MARKER -!-!-!-:";
 
@@ -44,6 +52,9 @@ public class DriverProgramBuilder {
 
     private TypeCreator typeCreator;
 
+    private IncrementalDriver incremental = null;
+    private DriverFragments.Selection fragments = null;
+
 
     public DriverProgramBuilder(List<Test> tests, BenchmarkInfo info) {
         this.tests = new ArrayList<>(tests);
@@ -51,9 +62,79 @@ public class DriverProgramBuilder {
         this.typeChecker = new TypeChecker(info);
     }
 
-    public Statement buildDriver(ExecutionRecording recording) throws IOException {
+    /**
+     * A builder where the test-cases and the assertType functions are left as markers, to be filled in by the IncrementalDriver.
+     */
+    DriverProgramBuilder(List<Test> tests, BenchmarkInfo info, IncrementalDriver incremental) {
+        this.tests = new ArrayList<>(tests);
+        this.info = info;
+        this.typeChecker = new TypeChecker(info, true);
+        this.incremental = incremental;
+    }
+
+    /**
+     * A builder for (a subset of) the tests the TypeCreator was created for.
+     * If fragments is null, the builder is only used to create the code of the test-cases (see DriverFragments), otherwise all the code that does not depend on which tests are in the driver is taken from the fragments.
+     */
+    DriverProgramBuilder(List<Test> tests, BenchmarkInfo info, TypeCreator typeCreator, DriverFragments.Selection fragments) {
+        this.tests = new ArrayList<>(tests);
+        this.info = info;
+        this.typeChecker = typeCreator.getTypeChecker();
+        this.typeCreator = typeCreator;
+        this.fragments = fragments;
+    }
+
+    TypeChecker getTypeChecker() {
+        return typeChecker;
+    }
+
+    /**
+     * Writes the driver to the writer, while it is being printed.
+     * For BROWSER benchmarks the driver is preceded by the scripts of the dependencies and the library, each marked with a START_OF_FILE_MARKER comment (unless the output is compact).
+     * The scripts are copied as they are, they are not parsed and printed again.
+     */
+    public void writeDriver(ExecutionRecording recording, Writer writer) throws IOException {
+        Statement driver = buildProgram(recording);
+        boolean compact = info.options.dynamicOptions.compactOutput;
+
+        if (info.bench.run_method == Benchmark.RUN_METHOD.BROWSER) {
+            // An empty statement first, such that a "use strict" at the start of the first script is not the directive of the whole file (which would make the other scripts and the driver strict).
+            // Every script is followed by another empty statement (see copyScript), so the same holds for the scripts after it.
+            writer.write(";\n");
+            for (Benchmark dependency : info.bench.getDependencies()) {
+                copyScript(dependency.getJSName(), dependency.jsFile, writer, compact);
+            }
+            copyScript(getJSFileName(), info.bench.jsFile, writer, compact);
+            if (!compact) {
+                writer.write("// " + START_OF_FILE_MARKER + DynamicMain.TEST_FILE_NAME + "\n");
+            }
+        } else {
+            assert info.bench.run_method == Benchmark.RUN_METHOD.NODE || info.bench.run_method == Benchmark.RUN_METHOD.BOOTSTRAP;
+        }
+
+        AstToStringVisitor.write(driver, compact, writer);
+    }
+
+    private static void copyScript(String name, String file, Writer writer, boolean compact) throws IOException {
+        if (!compact) {
+            writer.write("// " + START_OF_FILE_MARKER + name + "\n");
+        }
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), Charset.defaultCharset())) {
+            IOUtils.copy(reader, writer);
+        }
+        // Such that the next script (or the driver) is not parsed as a continuation of the last statement in this one.
+        writer.write("\n;\n");
+    }
+
+    private String getJSFileName() {
+        return info.bench.jsFile.substring(info.bench.jsFile.lastIndexOf('/') + 1, info.bench.jsFile.length());
+    }
+
+    private Statement buildProgram(ExecutionRecording recording) throws IOException {
         List<Statement> program = new ArrayList<>();
-        this.typeCreator = new TypeCreator(tests, info, typeChecker);
+        if (fragments == null) {
+            this.typeCreator = new TypeCreator(tests, info, typeChecker);
+        }
 
         // var initialRandomness = Math.random()
         if (recording == null || recording.seed == null) {
@@ -66,16 +147,28 @@ public class DriverProgramBuilder {
         program.add(variable("maxIterations", number(info.options.dynamicOptions.maxIterationsToRun)));
 
         program.add(variable("failOnAny", bool(info.options.dynamicOptions.failOnAny)));
+        program.add(variable("profileTests", bool(info.options.dynamicOptions.profileTests)));
+        program.add(variable("adaptiveSelection", bool(info.options.dynamicOptions.adaptiveTestSelection)));
 
         program.add(AstBuilder.programFromFile(DriverProgramBuilder.class.getResource("/prelude.js")));
 
-        program.add(block(typeCreator.getValueVariableDeclarationList()));
+        if (fragments != null) {
+            program.add(block(fragments.valueVariableDeclarations()));
+            program.add(block(fragments.typeCheckingFunctions()));
+            program.add(block(fragments.typeFunctions()));
+        } else {
+            program.add(block(typeCreator.getValueVariableDeclarationList()));
 
-        program.add(block(typeChecker.getTypeCheckingFunctionList()));
+            if (incremental == null) {
+                program.add(block(typeChecker.getTypeCheckingFunctionList()));
+            } else {
+                program.add(block(incremental.typeCheckingFunctionsMarker()));
+            }
 
-        // Adding all the getType_X functions.
+            // Adding all the getType_X functions.
 
-        program.add(typeCreator.getBlockStatementWithTypeFunctions());
+            program.add(typeCreator.getBlockStatementWithTypeFunctions());
+        }
 
         if (recording == null || recording.testSequence == null) {
             program.add(variable("runRecording", bool(false)));
@@ -88,23 +181,10 @@ public class DriverProgramBuilder {
                     .forEach(program::add);
         }
 
-        for (int i = 0; i < tests.size(); i++) {
-            Test test = tests.get(i);
-            List<ArrayLiteral> args = test
-                    .getTypeToTest()
-                    .stream()
-                    .map(typeToTest -> typeCreator.getValueIndex(typeToTest, test.getTypeContext()))
-                    .map(valueIndexes -> valueIndexes.stream().distinct().map(AstBuilder::number).collect(Collectors.toList()))
-                    .map(AstBuilder::array)
-                    .collect(Collectors.toList());
-
-            program.add(statement(
-                    call(identifier("registerTest"), number(i), array(args))
-            ));
-        }
+        program.add(buildScheduler());
 
         program.add(statement(function("testStuff", block(
-                statement(call(identifier("print"), string("total number of tests: " + tests.size()))),
+                statement(call(identifier("reportTotalTests"), number(tests.size()))),
                 statement(call(identifier("continuation"))),
                 statement(function("continuation",
                     block(
@@ -117,17 +197,7 @@ public class DriverProgramBuilder {
                                     )
                             ),
                             statement(methodCall(identifier("testOrderRecording"), "push", identifier("testNumberToRun"))),
-                            tryCatch(
-                                    AstBuilder.switchCase(
-                                            identifier("testNumberToRun"),
-                                            buildTestCases()),
-                                    catchBlock(
-                                            identifier("e"),
-                                            block(
-                                                    // statement(call(identifier("error"), expFromString("e.toString()")))
-                                            )
-                                    )
-                            ),
+                            runTestCases(),
                             ifThenElse(binary(binary(identifier("i"), Operator.MOD, number(100)), Operator.EQUAL_EQUAL_EQUAL, number(0)),
                                     statement(call(
                                             identifier("setTimeout"),
@@ -141,31 +211,87 @@ public class DriverProgramBuilder {
 
         program.add(AstBuilder.programFromFile(DriverProgramBuilder.class.getResource("/dumb.js")));
 
-        if (info.bench.run_method == Benchmark.RUN_METHOD.BROWSER) {
-            List<Statement> scripts = new ArrayList<>();
-            for (Benchmark dependency : info.bench.getDependencies()) {
-                String dependencyScript = Util.readFile(dependency.jsFile);
-                String jsName = dependency.getJSName();
-                scripts.add(comment(START_OF_FILE_MARKER + jsName));
-                scripts.add(AstBuilder.stmtFromString(dependencyScript));
-            }
+        return statement(call(function(block(program))));
+    }
 
-            scripts.add(comment(START_OF_FILE_MARKER + info.bench.jsFile.substring(info.bench.jsFile.lastIndexOf('/') + 1, info.bench.jsFile.length())));
+    private Statement runTestCases() {
+        if (!info.options.dynamicOptions.profileTests && !info.options.dynamicOptions.adaptiveTestSelection) {
+            return tryCatch(
+                    AstBuilder.switchCase(
+                            identifier("testNumberToRun"),
+                            buildTestCases()),
+                    catchBlock(
+                            identifier("e"),
+                            block(
+                                    // statement(call(identifier("error"), expFromString("e.toString()")))
+                            )
+                    )
+            );
+        }
+        // Every test-case is a function that is called and then breaks out of the switch, so the test is done when the try-catch is.
+        return block(
+                variable("testStartTime", call(identifier("preciseTime"))),
+                variable("testThrew", bool(false)),
+                tryCatch(
+                        AstBuilder.switchCase(
+                                identifier("testNumberToRun"),
+                                buildTestCases()),
+                        catchBlock(
+                                identifier("e"),
+                                statement(binary(identifier("testThrew"), Operator.EQUAL, bool(true)))
+                        )
+                ),
+                statement(call(identifier("testFinished"), identifier("testNumberToRun"), identifier("testStartTime"), identifier("testThrew")))
+        );
+    }
 
-            scripts.add(AstBuilder.stmtFromString(Util.readFile(info.bench.jsFile)));
+    /**
+     * Each test has a requirement for each type it tests, which is met when one of the values of that type has been produced.
+     * The requirements are given to initScheduler (in prelude.js) as flat integer arrays, grouped by the values that meet them.
+     */
+    private Statement buildScheduler() {
+        List<Integer> requirementTests = new ArrayList<>();
+        List<List<Integer>> valueRequirements = new ArrayList<>();
+        Util.ensureSize(valueRequirements, typeCreator.getNumberOfValues());
 
-            scripts.add(comment(START_OF_FILE_MARKER + DynamicMain.TEST_FILE_NAME));
+        for (int i = 0; i < tests.size(); i++) {
+            Test test = tests.get(i);
+            for (Type typeToTest : test.getTypeToTest()) {
+                int requirement = requirementTests.size();
+                requirementTests.add(i);
+                typeCreator.getValueIndex(typeToTest, test.getTypeContext()).stream().distinct().filter(valueIndex -> fragments == null || fragments.isProduced(valueIndex)).forEach(valueIndex -> {
+                    if (valueRequirements.get(valueIndex) == null) {
+                        valueRequirements.set(valueIndex, new ArrayList<>());
+                    }
+                    valueRequirements.get(valueIndex).add(requirement);
+                });
+            }
+        }
 
-            return block(
-                    block(scripts),
-                    statement(call(function(block(program))))
-            );
-        } else {
-            assert info.bench.run_method == Benchmark.RUN_METHOD.NODE || info.bench.run_method == Benchmark.RUN_METHOD.BOOTSTRAP;
-            return statement(call(function(block(program))));
+        List<Integer> offsets = new ArrayList<>();
+        List<Integer> requirements = new ArrayList<>();
+        for (List<Integer> requirementsOfValue : valueRequirements) {
+            offsets.add(requirements.size());
+            if (requirementsOfValue != null) {
+                requirements.addAll(requirementsOfValue);
+            }
         }
+        offsets.add(requirements.size());
+
+        return statement(call(identifier("initScheduler"),
+                number(tests.size()),
+                numberArray(requirementTests),
+                numberArray(offsets),
+                numberArray(requirements)
+        ));
+    }
 
+    static Statement registerValue(int valueIndex) {
+        return statement(call(identifier(REGISTER_VALUE_FUNCTION), number(valueIndex)));
+    }
 
+    private static ArrayLiteral numberArray(List<Integer> numbers) {
+        return array(numbers.stream().mapToInt(Integer::intValue).toArray());
     }
 
     private List<Pair<Expression, Statement>> buildTestCases() {
@@ -180,7 +306,10 @@ public class DriverProgramBuilder {
                     block(
                             comment("path: " + test.getPath() + " type: " + test.getClass().getSimpleName()),
                             statement(call(identifier("testCalled"), number(i))),
-                            statement(call(function(block(buildTestCase(test))))),
+                            fragments != null ? fragments.testCase(test) :
+                            incremental == null ?
+                                    buildTestCaseStatement(test) :
+                                    incremental.testCase(test, typeCreator, () -> buildTestCaseStatement(test)),
                             breakStatement()
                     )
             ));
@@ -189,6 +318,10 @@ public class DriverProgramBuilder {
         return result;
     }
 
+    Statement buildTestCaseStatement(Test test) {
+        return statement(call(function(block(buildTestCase(test)))));
+    }
+
     private List<Statement> buildTestCase(Test test) {
         List<Statement> testCode = test.accept(new TestBuilderVisitor());
 
@@ -210,7 +343,7 @@ public class DriverProgramBuilder {
                     ))),
                     typeChecker.assertResultingType(new TypeWithContext(product, test.getTypeContext()), identifier("result"), test.getPath(), info.options.dynamicOptions.checkDepthUseValue, test.getTestType()),
                     statement(binary(identifier(VALUE_VARIABLE_PREFIX + index), Operator.EQUAL, identifier("result"))),
-                    statement(call(identifier("registerValue"), number(index)))
+                    registerValue(index)
             );
         } else {
             List<Integer> valueIndexes = typeCreator.getTestProducesIndexes(test);
@@ -220,12 +353,12 @@ public class DriverProgramBuilder {
                     block(
                             Util.withIndex(produces).map(pair -> {
                                 Type type = pair.getLeft();
-                                Integer valueIndex = pair.getRight();
+                                Integer position = pair.getRight(); // the position in produces, not a value index, so IncrementalDriver does not need to remap it.
                                 return block(
-                                        variable("passed" + valueIndex, typeChecker.checkResultingType(new TypeWithContext(type, test.getTypeContext()), identifier("result"), test.getPath(), info.options.dynamicOptions.checkDepthForUnions)),
+                                        variable("passed" + position, typeChecker.checkResultingType(new TypeWithContext(type, test.getTypeContext()), identifier("result"), test.getPath(), info.options.dynamicOptions.checkDepthForUnions)),
                                         ifThen(
-                                                identifier("passed" + valueIndex),
-                                                statement(methodCall(identifier("passedResults"), "push", number(valueIndex)))
+                                                identifier("passed" + position),
+                                                statement(methodCall(identifier("passedResults"), "push", number(position)))
                                         )
                                 );
                             }).collect(Collectors.toList())
@@ -276,7 +409,7 @@ public class DriverProgramBuilder {
                                             number(index),
                                             block(
                                                     statement(binary(identifier(VALUE_VARIABLE_PREFIX + valueIndexes.get(index)), Operator.EQUAL, identifier("result"))),
-                                                    statement(call(identifier("registerValue"), number(valueIndexes.get(index)))),
+                                                    registerValue(valueIndexes.get(index)),
                                                     breakStatement()
                                             )
                                     )
@@ -0,0 +1,305 @@
+package dk.webbies.tajscheck.buildprogram;
+
+import com.google.gson.Gson;
+import dk.webbies.tajscheck.DynamicMain;
+import dk.webbies.tajscheck.ExecutionRecording;
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.paser.AST.Statement;
+import dk.webbies.tajscheck.paser.AstToStringVisitor;
+import dk.webbies.tajscheck.testcreator.TestFingerprinter;
+import dk.webbies.tajscheck.testcreator.test.Test;
+import dk.webbies.tajscheck.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates a driver, reusing the code of the test-cases from the previous driver of the same benchmark for every test where nothing reachable from the test changed.
+ *
+ * The previous test-cases are stored in a JSON file next to the driver, each with the structural fingerprint of its test (see TestFingerprinter).
+ * The value-variables (and the indexes given to registerValue), getType and constructType functions are numbered by the order of the tests, so the numbers in a reused test-case are remapped to the numbers of the structurally same types in the new driver.
+ * The assertType functions are named by the hash of their body, so they need no remapping.
+ * A test-case is only reused if every number can be remapped, otherwise it is generated like in a normal driver.
+ *
+ * The TypeCreator is still run on all the tests, as the getType functions depend on all the tests.
+ */
+public class IncrementalDriver {
+    public static final String STATE_FILE_SUFFIX = ".incremental.json";
+    private static final int STATE_VERSION = 2;
+
+    private static final Pattern INDEX_PATTERN = Pattern.compile("\\b(" + TypeCreator.GET_TYPE_PREFIX + "|" + TypeCreator.CONSTRUCT_TYPE_PREFIX + "|" + DriverProgramBuilder.VALUE_VARIABLE_PREFIX + ")(\\d+)\\b");
+    private static final Pattern REGISTER_VALUE_PATTERN = Pattern.compile("\\b(" + DriverProgramBuilder.REGISTER_VALUE_FUNCTION + "\\(\\s*)(\\d+)(\\s*\\))");
+    private static final Pattern ASSERT_TYPE_PATTERN = Pattern.compile("\\bassertType_[0-9a-f]+\\b");
+    private static final Pattern ASSERT_TYPE_DEFINITION_PATTERN = Pattern.compile("function (assertType_[0-9a-f]+)\\b");
+
+    private static final class TestCase {
+        String fingerprint;
+        String code;
+        Map<Integer, String> types; // from the numbers of the getType/constructType functions used in the code, to the fingerprint of the type.
+        List<Integer> produces;
+    }
+
+    private static final class State {
+        int version;
+        String options;
+        Map<String, TestCase> tests = new HashMap<>();
+        Map<String, String> assertTypeFunctions = new HashMap<>();
+    }
+
+    private final BenchmarkInfo info;
+    private final State previous;
+    private final State next = new State();
+    private final TestFingerprinter fingerprinter;
+
+    private final Splices splices = new Splices();
+    private final Map<String, Integer> keyOccurrences = new HashMap<>();
+    private final Set<String> reusedAssertTypeFunctions = new LinkedHashSet<>();
+    private int typeCheckingFunctionsSplice = -1;
+    private Map<String, Integer> typeIndexByFingerprint = null;
+
+    private int reused = 0;
+    private int generated = 0;
+
+    private IncrementalDriver(BenchmarkInfo info, State previous, String options) {
+        this.info = info;
+        this.previous = previous;
+        this.next.version = STATE_VERSION;
+        this.next.options = options;
+        this.fingerprinter = new TestFingerprinter(info);
+    }
+
+    public static String stateFile(BenchmarkInfo info) {
+        return DynamicMain.getFolderPath(info.bench) + DynamicMain.TEST_FILE_NAME + STATE_FILE_SUFFIX;
+    }
+
+    public static String generate(BenchmarkInfo info, List<Test> tests, ExecutionRecording recording) throws IOException {
+        File stateFile = new File(stateFile(info));
+        String options = optionsFingerprint(info);
+
+        State previous = null;
+        if (stateFile.exists()) {
+            previous = new Gson().fromJson(Util.readFile(stateFile.getPath()), State.class);
+            if (previous == null || previous.version != STATE_VERSION || !options.equals(previous.options)) {
+                previous = null;
+            }
+        }
+
+        IncrementalDriver incremental = new IncrementalDriver(info, previous, options);
+        DriverProgramBuilder builder = new DriverProgramBuilder(tests, info, incremental);
+        StringWriter skeleton = new StringWriter();
+        builder.writeDriver(recording, skeleton);
+
+        String driver = incremental.splice(skeleton.toString(), builder.getTypeChecker());
+
+        Util.writeFile(stateFile.getPath(), new Gson().toJson(incremental.next));
+
+        System.out.println("Incremental driver, reused " + incremental.reused + " test-cases, generated " + incremental.generated);
+
+        return driver;
+    }
+
+    Statement typeCheckingFunctionsMarker() {
+        typeCheckingFunctionsSplice = splices.reserve(); // filled in by splice(), when all the test-cases have been created.
+        return Splices.marker(typeCheckingFunctionsSplice);
+    }
+
+    Statement testCase(Test test, TypeCreator typeCreator, Supplier<Statement> generate) {
+        String key = TestFingerprinter.key(test);
+        int occurrence = keyOccurrences.merge(key, 1, Integer::sum);
+        if (occurrence > 1) {
+            key = key + "#" + occurrence;
+        }
+
+        String fingerprint = fingerprinter.fingerprint(test);
+
+        TestCase old = previous != null ? previous.tests.get(key) : null;
+        String code = null;
+        if (old != null && old.fingerprint.equals(fingerprint)) {
+            code = remap(old, typeCreator.getTestProducesIndexes(test), typeCreator);
+        }
+        if (code == null) {
+            code = AstToStringVisitor.toString(generate.get(), info.options.dynamicOptions.compactOutput);
+            generated++;
+        } else {
+            reused++;
+        }
+
+        TestCase testCase = new TestCase();
+        testCase.fingerprint = fingerprint;
+        testCase.code = code;
+        testCase.types = typeFingerprints(code, typeCreator);
+        testCase.produces = new ArrayList<>(typeCreator.getTestProducesIndexes(test));
+        next.tests.put(key, testCase);
+
+        return splices.add(code);
+    }
+
+    /**
+     * Returns the code of the old test-case, with all the numbers changed to the numbers in the new driver, or null if that is not possible.
+     */
+    private String remap(TestCase old, List<Integer> produces, TypeCreator typeCreator) {
+        if (old.produces.size() != produces.size()) {
+            return null;
+        }
+        Map<Integer, Integer> valueMapping = new HashMap<>();
+        for (int i = 0; i < produces.size(); i++) {
+            valueMapping.put(old.produces.get(i), produces.get(i));
+        }
+
+        Map<Integer, Integer> typeMapping = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : old.types.entrySet()) {
+            Integer newIndex = getTypeIndexByFingerprint(typeCreator).get(entry.getValue());
+            if (newIndex == null || newIndex == -1) {
+                return null; // not there, or ambiguous.
+            }
+            typeMapping.put(entry.getKey(), newIndex);
+        }
+
+        Set<String> assertTypeFunctions = new LinkedHashSet<>();
+        if (!collectAssertTypeFunctions(old.code, assertTypeFunctions)) {
+            return null;
+        }
+
+        String code = remapIndexes(old.code, valueMapping, typeMapping, typeCreator::hasConstructTypeFunction);
+        if (code == null) {
+            return null;
+        }
+
+        reusedAssertTypeFunctions.addAll(assertTypeFunctions);
+        return code;
+    }
+
+    /**
+     * Changes the numbers of the value-variables, the registerValue calls, and the getType and constructType functions in the code.
+     * Returns null if a number is not in the mappings (or a constructType function that does not exist is needed).
+     */
+    static String remapIndexes(String code, Map<Integer, Integer> valueMapping, Map<Integer, Integer> typeMapping, Predicate<Integer> hasConstructTypeFunction) {
+        StringBuffer result = new StringBuffer();
+        Matcher matcher = INDEX_PATTERN.matcher(code);
+        while (matcher.find()) {
+            String prefix = matcher.group(1);
+            int oldIndex = Integer.parseInt(matcher.group(2));
+            Integer newIndex = prefix.equals(DriverProgramBuilder.VALUE_VARIABLE_PREFIX) ? valueMapping.get(oldIndex) : typeMapping.get(oldIndex);
+            if (newIndex == null) {
+                return null;
+            }
+            if (prefix.equals(TypeCreator.CONSTRUCT_TYPE_PREFIX) && !hasConstructTypeFunction.test(newIndex)) {
+                return null;
+            }
+            matcher.appendReplacement(result, prefix + newIndex);
+        }
+        matcher.appendTail(result);
+
+        // The indexes given to registerValue are plain numbers, they are the indexes of value-variables.
+        StringBuffer registered = new StringBuffer();
+        matcher = REGISTER_VALUE_PATTERN.matcher(result);
+        while (matcher.find()) {
+            Integer newIndex = valueMapping.get(Integer.parseInt(matcher.group(2)));
+            if (newIndex == null) {
+                return null;
+            }
+            matcher.appendReplacement(registered, Matcher.quoteReplacement(matcher.group(1) + newIndex + matcher.group(3)));
+        }
+        matcher.appendTail(registered);
+        return registered.toString();
+    }
+
+    /**
+     * Collects the assertType functions used by the code from the previous driver, including the assertType functions they use.
+     * Returns false if one of them is missing.
+     */
+    private boolean collectAssertTypeFunctions(String code, Set<String> result) {
+        Matcher matcher = ASSERT_TYPE_PATTERN.matcher(code);
+        while (matcher.find()) {
+            String name = matcher.group();
+            if (result.contains(name)) {
+                continue;
+            }
+            String definition = previous.assertTypeFunctions.get(name);
+            if (definition == null) {
+                return false;
+            }
+            result.add(name);
+            if (!collectAssertTypeFunctions(definition, result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<Integer, String> typeFingerprints(String code, TypeCreator typeCreator) {
+        Map<Integer, String> result = new HashMap<>();
+        Matcher matcher = INDEX_PATTERN.matcher(code);
+        while (matcher.find()) {
+            if (matcher.group(1).equals(DriverProgramBuilder.VALUE_VARIABLE_PREFIX)) {
+                continue;
+            }
+            int index = Integer.parseInt(matcher.group(2));
+            if (!result.containsKey(index)) {
+                result.put(index, fingerprinter.fingerprint(typeCreator.getTypeWithContext(index)));
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Integer> getTypeIndexByFingerprint(TypeCreator typeCreator) {
+        if (typeIndexByFingerprint == null) {
+            typeIndexByFingerprint = new HashMap<>();
+            for (int i = 0; i < typeCreator.getNumberOfTypes(); i++) {
+                TypeWithContext type = typeCreator.getTypeWithContext(i);
+                // -1 marks structurally equal types, that cannot be told apart.
+                typeIndexByFingerprint.merge(fingerprinter.fingerprint(type), i, (a, b) -> -1);
+            }
+        }
+        return typeIndexByFingerprint;
+    }
+
+    private String splice(String skeleton, TypeChecker typeChecker) {
+        Map<String, String> assertTypeFunctions = new LinkedHashMap<>();
+        for (Statement function : typeChecker.getTypeCheckingFunctionList()) {
+            String code = AstToStringVisitor.toString(function, info.options.dynamicOptions.compactOutput);
+            Matcher matcher = ASSERT_TYPE_DEFINITION_PATTERN.matcher(code);
+            if (!matcher.find()) {
+                throw new RuntimeException("Could not find the name of the function: " + code);
+            }
+            assertTypeFunctions.put(matcher.group(1), code);
+        }
+        for (String name : reusedAssertTypeFunctions) {
+            assertTypeFunctions.putIfAbsent(name, previous.assertTypeFunctions.get(name));
+        }
+        next.assertTypeFunctions.putAll(assertTypeFunctions);
+        splices.set(typeCheckingFunctionsSplice, String.join("", assertTypeFunctions.values()));
+
+        return splices.apply(skeleton);
+    }
+
+    /**
+     * Everything besides the tests that affects the code of a test-case.
+     */
+    private static String optionsFingerprint(BenchmarkInfo info) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(info.bench.run_method).append(",").append(DynamicMain.getRequirePath(info.bench));
+        for (Object options : Arrays.asList(info.options, info.options.dynamicOptions)) {
+            for (Field field : options.getClass().getFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || !field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    builder.append(",").append(field.getName()).append("=").append(field.get(options));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return Util.sha256(builder.toString());
+    }
+}
@@ -0,0 +1,58 @@
+package dk.webbies.tajscheck.buildprogram;
+
+import dk.webbies.tajscheck.paser.AST.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dk.webbies.tajscheck.paser.AstBuilder.statement;
+import static dk.webbies.tajscheck.paser.AstBuilder.string;
+
+/**
+ * Code that is printed on its own, and put into a printed driver in place of a marker statement.
+ * Used when (parts of) the driver are created from code that has already been printed (see IncrementalDriver and DriverFragments).
+ */
+final class Splices {
+    private static final String SPLICE_MARKER = "TSTEST_SPLICE:";
+    private static final Pattern SPLICE_PATTERN = Pattern.compile("([ \\t]*)\"" + SPLICE_MARKER + "(\\d+)\";");
+
+    private final List<String> splices = new ArrayList<>();
+
+    Statement add(String code) {
+        splices.add(code);
+        return marker(splices.size() - 1);
+    }
+
+    /**
+     * A marker for code that is not known yet, it must be set() before apply() is called.
+     */
+    int reserve() {
+        splices.add(null);
+        return splices.size() - 1;
+    }
+
+    void set(int index, String code) {
+        splices.set(index, code);
+    }
+
+    static Statement marker(int index) {
+        return statement(string(SPLICE_MARKER + index));
+    }
+
+    String apply(String skeleton) {
+        StringBuffer result = new StringBuffer();
+        Matcher matcher = SPLICE_PATTERN.matcher(skeleton);
+        while (matcher.find()) {
+            String indentation = matcher.group(1);
+            String code = splices.get(Integer.parseInt(matcher.group(2)));
+            if (code.endsWith("\n")) {
+                code = code.substring(0, code.length() - 1);
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(indentation + code.replace("\n", "\n" + indentation)));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
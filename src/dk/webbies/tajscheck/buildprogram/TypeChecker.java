@@ -9,7 +9,9 @@ import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
 import dk.webbies.tajscheck.buildprogram.typechecks.FieldTypeCheck;
 import dk.webbies.tajscheck.buildprogram.typechecks.SimpleTypeCheck;
 import dk.webbies.tajscheck.buildprogram.typechecks.TypeCheck;
+import dk.webbies.tajscheck.buildprogram.typechecks.TypeCheckCache;
 import dk.webbies.tajscheck.paser.AST.*;
+import dk.webbies.tajscheck.paser.AstToStringVisitor;
 import dk.webbies.tajscheck.testcreator.test.check.Check;
 import dk.webbies.tajscheck.testcreator.test.check.CheckToExpression;
 import dk.webbies.tajscheck.typeutil.TypesUtil;
@@ -17,6 +19,7 @@ import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
 import dk.webbies.tajscheck.util.Util;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -25,9 +28,21 @@ import static dk.webbies.tajscheck.paser.AstBuilder.*;
 public class TypeChecker {
     private final BenchmarkInfo info;
     private List<Statement> typeCheckingFunctionList = new ArrayList<>();
+    private final boolean contentAddressedNames;
+    private final Set<String> typeCheckingFunctionNames = new HashSet<>();
+    private final CheckCompiler checkCompiler;
 
     public TypeChecker(BenchmarkInfo info) {
+        this(info, false);
+    }
+
+    /**
+     * @param contentAddressedNames name the assertType functions by the hash of their body instead of by a counter, such that the names are the same across drivers (used by IncrementalDriver).
+     */
+    TypeChecker(BenchmarkInfo info, boolean contentAddressedNames) {
         this.info = info;
+        this.contentAddressedNames = contentAddressedNames;
+        this.checkCompiler = new CheckCompiler(this, TypeCheckCache.get(info));
     }
 
     public Expression checkResultingType(TypeWithContext type, Expression exp, String path, int depth) {
@@ -55,14 +70,14 @@ public class TypeChecker {
     }
 
     public String getTypeDescription(TypeWithContext type, int depth) {
-        List<TypeCheck> result = type.getType().accept(new CreateTypeCheckVisitor(info), new Arg(type.getTypeContext(), depth));
+        List<TypeCheck> result = getTypeChecks(type.getType(), type.getTypeContext(), info, depth);
         return createIntersection(result).getExpected();
     }
 
     public Statement assertResultingType(TypeWithContext type, Expression exp, String path, int depth, String testType) {
         path = sanitizePath(path);
 
-        List<TypeCheck> typeChecks = type.getType().accept(new CreateTypeCheckVisitor(info), new Arg(type.getTypeContext(), depth));
+        List<TypeCheck> typeChecks = getTypeChecks(type.getType(), type.getTypeContext(), info, depth);
         if (info.bench.options.dynamicOptions.useAssertTypeFunctions) {
             return block(
                     ifThen(
@@ -113,7 +128,12 @@ public class TypeChecker {
                     ));
                 } else {
                     assert typeCheck instanceof SimpleTypeCheck;
-                    Expression checkExpression = CheckToExpression.generate(typeCheck.getCheck(), exp);
+                    Expression checkExpression;
+                    if (info.bench.options.dynamicOptions.useValidatorFunctions) {
+                        checkExpression = checkCompiler.generate(typeCheck.getCheck(), exp);
+                    } else {
+                        checkExpression = CheckToExpression.generate(typeCheck.getCheck(), exp);
+                    }
                     CallExpression assertCall = call(identifier("assert"), checkExpression, path, string(typeCheck.getExpected()), exp, identifier("i"), testType);
                     result.add(ifThen(
                             unary(Operator.NOT, assertCall),
@@ -125,10 +145,7 @@ public class TypeChecker {
             }
             result.add(Return(bool(true)));
 
-            String name = "assertType_" + typeCheckingFunctionList.size();
-            FunctionExpression function = function(name, block(result), "assert", "exp", "path", "testType");
-
-            typeCheckingFunctionList.add(statement(function));
+            String name = addTypeCheckingFunction(functionName -> function(functionName, block(result), "assert", "exp", "path", "testType"));
 
             typeCheckFunctionNameCache.put(typeChecks, name);
         }
@@ -136,6 +153,24 @@ public class TypeChecker {
         return identifier(typeCheckFunctionNameCache.get(typeChecks));
     }
 
+    /**
+     * Adds an assertType function (unless an identical one exists), and returns its name.
+     * @param createFunction creates the function given its name.
+     */
+    String addTypeCheckingFunction(Function<String, FunctionExpression> createFunction) {
+        String name;
+        if (contentAddressedNames) {
+            name = "assertType_" + Util.sha256(AstToStringVisitor.toString(createFunction.apply("assertType_"), true)).substring(0, 16);
+        } else {
+            name = "assertType_" + typeCheckingFunctionList.size();
+        }
+
+        if (typeCheckingFunctionNames.add(name)) {
+            typeCheckingFunctionList.add(statement(createFunction.apply(name)));
+        }
+        return name;
+    }
+
     private Statement inlineCheckToAssertions(TypeCheck typeCheck, Expression exp, String path, String testType) {
         if (typeCheck instanceof FieldTypeCheck) {
             FieldTypeCheck fieldTypeCheck = (FieldTypeCheck) typeCheck;
@@ -157,8 +192,11 @@ public class TypeChecker {
         );
     }
 
+    /**
+     * Memoized, and equal checks are the same object (see TypeCheckCache), the result must not be modified.
+     */
     public static List<TypeCheck> getTypeChecks(Type type, TypeContext context, BenchmarkInfo info, int depth) {
-        return type.accept(new CreateTypeCheckVisitor(info), new Arg(context, depth));
+        return TypeCheckCache.get(info).getTypeChecks(new TypeWithContext(type, context), depth, () -> type.accept(new CreateTypeCheckVisitor(info), new Arg(context, depth)));
     }
 
     private final Map<List<TypeCheck>, String> typeCheckFunctionNameCache = new HashMap<>();
@@ -37,8 +37,8 @@ public class TypeCreator {
     private final BenchmarkInfo info;
     private ArrayList<Statement> functions = new ArrayList<>();
 
-    private static final String GET_TYPE_PREFIX = "getType_";
-    private static final String CONSTRUCT_TYPE_PREFIX = "constructType_";
+    static final String GET_TYPE_PREFIX = "getType_";
+    static final String CONSTRUCT_TYPE_PREFIX = "constructType_";
     private List<Statement> valueVariableDeclarationList = new ArrayList<>();
 
     TypeCreator(List<Test> tests, BenchmarkInfo info, TypeChecker typeChecker) {
@@ -829,7 +829,7 @@ public class TypeCreator {
                 (valueIndex, argIndex) -> {
                     return block(
                             statement(binary(identifier(VALUE_VARIABLE_PREFIX + valueIndex), Operator.EQUAL, identifier("arg" + argIndex))),
-                            statement(call(identifier("registerValue"), number(valueIndex)))
+                            registerValue(valueIndex)
                     );
                 }
         ).forEach(saveArgumentValues::add);
@@ -1213,6 +1213,8 @@ public class TypeCreator {
 
     private final List<TypeWithContext> getTypeQueue = new ArrayList<>();
     private final List<TypeWithContext> constructTypeQueue = new ArrayList<>();
+    private final Map<Integer, List<Integer>> getTypeValues = new HashMap<>();
+    private final Map<Integer, Statement> constructTypeFunctions = new HashMap<>();
 
     private void finish() {
         while (!constructTypeQueue.isEmpty()) {
@@ -1236,38 +1238,50 @@ public class TypeCreator {
             }
 
             values = values.stream().distinct().collect(Collectors.toList());
+            getTypeValues.put(value, values);
 
-            Statement returnTypeStatement;
+            functions.add(createGetTypeFunction(value, values));
+        }
 
-            if (values.size() == 1) {
-                returnTypeStatement = Return(identifier(VALUE_VARIABLE_PREFIX + values.iterator().next()));
-            } else if (values.isEmpty()) {
-                returnTypeStatement = Return(identifier(VARIABLE_NO_VALUE));
-            } else {
-                returnTypeStatement = returnOneOfExistingValues(values);
-            }
+    }
 
-            ExpressionStatement getTypeFunction = statement(
-                    function(
-                            GET_TYPE_PREFIX + value,
-                            block(returnTypeStatement)
-                    )
-            );
-            functions.add(getTypeFunction);
+    /**
+     * The getType_X function, returning one of the values.
+     */
+    Statement createGetTypeFunction(int index, List<Integer> values) {
+        Statement returnTypeStatement;
+
+        if (values.size() == 1) {
+            returnTypeStatement = Return(identifier(VALUE_VARIABLE_PREFIX + values.iterator().next()));
+        } else if (values.isEmpty()) {
+            returnTypeStatement = Return(identifier(VARIABLE_NO_VALUE));
+        } else {
+            returnTypeStatement = returnOneOfExistingValues(values);
         }
 
+        return statement(
+                function(
+                        GET_TYPE_PREFIX + index,
+                        block(returnTypeStatement)
+                )
+        );
     }
 
     private final Set<Integer> hasCreateTypeFunction = new HashSet<>();
 
-    private static final String CONSTRUCTED_VARIABLE_CACHE_PREFIX = "constructed_cache_";
+    static final String CONSTRUCTED_VARIABLE_CACHE_PREFIX = "constructed_cache_";
     private int constructed_value_cache_counter = 0;
+    private void addConstructTypeFunction(int index, Statement function) {
+        constructTypeFunctions.put(index, function);
+        functions.add(function);
+    }
+
     private void addConstructInstanceFunction(TypeWithContext typeWithParameters, int index) {
         Type type = typeWithParameters.getType();
         TypeContext typeContext = typeWithParameters.getTypeContext();
 
         if (!info.shouldConstructType(type)) {
-            functions.add(statement(
+            addConstructTypeFunction(index, statement(
                     function(
                             CONSTRUCT_TYPE_PREFIX + index,
                             block(
@@ -1281,7 +1295,7 @@ public class TypeCreator {
                     )
             ));
         } else {
-            functions.add(statement(
+            addConstructTypeFunction(index, statement(
                     function(
                             CONSTRUCT_TYPE_PREFIX + index,
                             block(
@@ -1303,6 +1317,37 @@ public class TypeCreator {
 
     }
 
+    int getNumberOfValues() {
+        return valueCounter;
+    }
+
+    int getNumberOfTypes() {
+        return typeIndexes.size();
+    }
+
+    TypeWithContext getTypeWithContext(int index) {
+        return typeIndexes.inverse().get(index);
+    }
+
+    boolean hasConstructTypeFunction(int index) {
+        return hasCreateTypeFunction.contains(index);
+    }
+
+    /**
+     * The values the getType_X function returns one of.
+     */
+    List<Integer> getTypeValues(int index) {
+        return getTypeValues.get(index);
+    }
+
+    Statement getConstructTypeFunction(int index) {
+        return constructTypeFunctions.get(index);
+    }
+
+    TypeChecker getTypeChecker() {
+        return typeChecker;
+    }
+
     public BlockStatement getBlockStatementWithTypeFunctions() {
         return block(functions);
     }
@@ -13,7 +13,7 @@ import java.util.stream.Collectors;
 public class FieldTypeCheck implements TypeCheck {
     private final String field;
     private final List<TypeCheck> fieldChecks;
-    private TypeWithContext subType;
+    private final TypeWithContext subType;
 
     public FieldTypeCheck(String field, List<TypeCheck> fieldChecks, TypeWithContext subType) {
         this.field = field;
@@ -29,6 +29,10 @@ public class FieldTypeCheck implements TypeCheck {
         return fieldChecks;
     }
 
+    public TypeWithContext getSubType() {
+        return subType;
+    }
+
     @Override
     public String getExpected() {
         return "field[" + field + "]:(" + TypeChecker.createIntersectionDescription(fieldChecks) + ")";
@@ -50,10 +54,15 @@ public class FieldTypeCheck implements TypeCheck {
         return fieldChecks != null ? fieldChecks.equals(that.fieldChecks) : that.fieldChecks == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        int result = field != null ? field.hashCode() : 0;
-        result = 31 * result + (fieldChecks != null ? fieldChecks.hashCode() : 0);
-        return result;
+        if (hashCode == 0) {
+            int result = field != null ? field.hashCode() : 0;
+            result = 31 * result + (fieldChecks != null ? fieldChecks.hashCode() : 0);
+            hashCode = result;
+        }
+        return hashCode;
     }
 }
@@ -33,11 +33,16 @@ public class SimpleTypeCheck implements TypeCheck {
         return expected != null ? expected.equals(that.expected) : that.expected == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        int result = check != null ? check.hashCode() : 0;
-        result = 31 * result + (expected != null ? expected.hashCode() : 0);
-        return result;
+        if (hashCode == 0) {
+            int result = check != null ? check.hashCode() : 0;
+            result = 31 * result + (expected != null ? expected.hashCode() : 0);
+            hashCode = result;
+        }
+        return hashCode;
     }
 
     @Override
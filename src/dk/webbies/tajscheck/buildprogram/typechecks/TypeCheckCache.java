@@ -0,0 +1,189 @@
+package dk.webbies.tajscheck.buildprogram.typechecks;
+
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.testcreator.test.check.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The type checks of a benchmark (see TypeChecker.getTypeChecks()), memoized by type and depth.
+ *
+ * The checks are hash-consed: structurally equal TypeChecks and Checks are the same object, such that equal checks are shared by identity, and comparing them mostly ends at "this == o".
+ * Structural equality here includes the sub-types (of FieldCheck etc.), which equals() ignores, as TajsTypeChecker uses the sub-types.
+ */
+public class TypeCheckCache {
+    private final Map<Key, List<TypeCheck>> memo = new ConcurrentHashMap<>();
+    private final Map<Key, TypeCheck> typeChecks = new ConcurrentHashMap<>();
+    private final Map<Key, Check> checks = new ConcurrentHashMap<>();
+
+    public static TypeCheckCache get(BenchmarkInfo info) {
+        synchronized (info) {
+            return info.getAttribute(TypeCheckCache.class, "cache", TypeCheckCache::new);
+        }
+    }
+
+    /**
+     * @param create creates the checks, if they are not already known.
+     */
+    public List<TypeCheck> getTypeChecks(TypeWithContext type, int depth, Supplier<List<TypeCheck>> create) {
+        Key key = new Key(type, depth);
+        List<TypeCheck> result = memo.get(key);
+        if (result != null) {
+            return result;
+        }
+        // Not computeIfAbsent, creating the checks can take a while, and the map should not be locked meanwhile.
+        result = Collections.unmodifiableList(internAll(create.get()));
+        List<TypeCheck> existing = memo.putIfAbsent(key, result);
+        return existing != null ? existing : result;
+    }
+
+    public List<TypeCheck> internAll(List<TypeCheck> list) {
+        List<TypeCheck> result = new ArrayList<>(list.size());
+        for (TypeCheck typeCheck : list) {
+            result.add(intern(typeCheck));
+        }
+        return result;
+    }
+
+    public TypeCheck intern(TypeCheck typeCheck) {
+        if (typeCheck instanceof FieldTypeCheck) {
+            FieldTypeCheck field = (FieldTypeCheck) typeCheck;
+            List<TypeCheck> fieldChecks = internAll(field.getFieldChecks());
+            Key key = new Key(FieldTypeCheck.class, Arrays.asList(field.getField(), field.getSubType()), fieldChecks);
+            return typeChecks.computeIfAbsent(key, k -> sameElements(fieldChecks, field.getFieldChecks()) ? field : new FieldTypeCheck(field.getField(), fieldChecks, field.getSubType()));
+        }
+        assert typeCheck instanceof SimpleTypeCheck;
+        Check check = intern(typeCheck.getCheck());
+        Key key = new Key(SimpleTypeCheck.class, typeCheck.getExpected(), Collections.singletonList(check));
+        return typeChecks.computeIfAbsent(key, k -> check == typeCheck.getCheck() ? typeCheck : new SimpleTypeCheck(check, typeCheck.getExpected()));
+    }
+
+    public Check intern(Check check) {
+        return check.accept(internVisitor, null);
+    }
+
+    private final CheckVisitorWithArgument<Check, Void> internVisitor = new CheckVisitorWithArgument<Check, Void>() {
+        @Override
+        public Check visit(OrCheck check, Void a) {
+            List<Check> subChecks = internList(check.getChecks());
+            return intern(new Key(OrCheck.class, null, subChecks), () -> sameElements(subChecks, check.getChecks()) ? check : Check.or(subChecks));
+        }
+
+        @Override
+        public Check visit(AndCheck check, Void a) {
+            List<Check> subChecks = internList(check.getChecks());
+            return intern(new Key(AndCheck.class, null, subChecks), () -> sameElements(subChecks, check.getChecks()) ? check : Check.and(subChecks));
+        }
+
+        @Override
+        public Check visit(NotCheck check, Void a) {
+            Check subCheck = check.getCheck().accept(this, a);
+            return intern(new Key(NotCheck.class, null, Collections.singletonList(subCheck)), () -> subCheck == check.getCheck() ? check : Check.not(subCheck));
+        }
+
+        @Override
+        public Check visit(FieldCheck check, Void a) {
+            List<Check> subChecks = internList(check.getChecks());
+            return intern(new Key(FieldCheck.class, Arrays.asList(check.getField(), check.getSubType()), subChecks), () -> sameElements(subChecks, check.getChecks()) ? check : Check.field(check.getField(), check.getSubType(), subChecks));
+        }
+
+        @Override
+        public Check visit(NumberIndexCheck check, Void a) {
+            Check subCheck = check.getSubCheck().accept(this, a);
+            return intern(new Key(NumberIndexCheck.class, check.getSubType(), Collections.singletonList(subCheck)), () -> subCheck == check.getSubCheck() ? check : Check.numberIndex(subCheck, check.getSubType()));
+        }
+
+        @Override
+        public Check visit(StringIndexCheck check, Void a) {
+            Check subCheck = check.getSubCheck().accept(this, a);
+            return intern(new Key(StringIndexCheck.class, check.getSubType(), Collections.singletonList(subCheck)), () -> subCheck == check.getSubCheck() ? check : Check.stringIndex(subCheck, check.getSubType()));
+        }
+
+        // The rest have no sub-checks, so equals() is structural equality.
+
+        @Override
+        public Check visit(TypeOfCheck check, Void a) {
+            return intern(new Key(TypeOfCheck.class, check, Collections.emptyList()), () -> check);
+        }
+
+        @Override
+        public Check visit(EqualityCheck check, Void a) {
+            return intern(new Key(EqualityCheck.class, check, Collections.emptyList()), () -> check);
+        }
+
+        @Override
+        public Check visit(InstanceOfCheck check, Void a) {
+            return intern(new Key(InstanceOfCheck.class, check, Collections.emptyList()), () -> check);
+        }
+
+        @Override
+        public Check visit(ExpressionCheck check, Void a) {
+            return intern(new Key(ExpressionCheck.class, check, Collections.emptyList()), () -> check);
+        }
+
+        private List<Check> internList(List<Check> list) {
+            List<Check> result = new ArrayList<>(list.size());
+            for (Check check : list) {
+                result.add(check.accept(this, null));
+            }
+            return result;
+        }
+    };
+
+    private Check intern(Key key, Supplier<Check> create) {
+        return checks.computeIfAbsent(key, k -> create.get());
+    }
+
+    private static boolean sameElements(List<?> a, List<?> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The shallow content of a node (compared with equals()), and its children (already interned, so compared by identity).
+     */
+    private static final class Key {
+        private final Object kind;
+        private final Object shallow;
+        private final List<?> children;
+        private final int hashCode;
+
+        Key(TypeWithContext type, int depth) {
+            this(type, depth, Collections.emptyList());
+        }
+
+        Key(Object kind, Object shallow, List<?> children) {
+            this.kind = kind;
+            this.shallow = shallow;
+            this.children = children;
+            int hashCode = 31 * kind.hashCode() + Objects.hashCode(shallow);
+            for (Object child : children) {
+                hashCode = 31 * hashCode + System.identityHashCode(child);
+            }
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hashCode == key.hashCode && kind.equals(key.kind) && Objects.equals(shallow, key.shallow) && sameElements(children, key.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
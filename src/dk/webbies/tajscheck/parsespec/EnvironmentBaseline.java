@@ -0,0 +1,67 @@
+package dk.webbies.tajscheck.parsespec;
+
+import dk.au.cs.casa.typescript.SpecReader;
+import dk.au.cs.casa.typescript.types.Type;
+import dk.webbies.tajscheck.parsespec.flow.FlowParser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parts of the spec of an empty declaration (the ES5/ES6/DOM environment) that every BenchmarkInfo needs.
+ * There is one per environment, shared between all BenchmarkInfos, so it must not be modified.
+ *
+ * Everything is computed in the constructor (which also forces all types reachable from the global object to be resolved), after that it is only read, so it can be used from multiple threads.
+ */
+public final class EnvironmentBaseline {
+    /**
+     * Can be set to false to parse the environment for every benchmark, like it was done before this cache existed.
+     */
+    public static boolean useCache = true;
+
+    private static final Map<String, EnvironmentBaseline> cache = new ConcurrentHashMap<>();
+
+    public final SpecReader spec;
+    public final Set<String> globalPropertyNames;
+    public final Set<String> nativeNames;
+    /**
+     * From the name of a native type to the type, or to null if the name is ambiguous.
+     */
+    public final Map<String, Type> nativeTypesByName;
+
+    private EnvironmentBaseline(SpecReader spec) {
+        this.spec = spec;
+        this.globalPropertyNames = Collections.unmodifiableSet(new HashSet<>(spec.getGlobal().getDeclaredProperties().keySet()));
+
+        Map<Type, String> nativeNameMap = ParseDeclaration.getTypeNamesMap(spec);
+        this.nativeNames = Collections.unmodifiableSet(new HashSet<>(nativeNameMap.values()));
+
+        Map<String, Type> nativeTypesByName = new HashMap<>();
+        for (Map.Entry<Type, String> entry : nativeNameMap.entrySet()) {
+            if (nativeTypesByName.containsKey(entry.getValue())) {
+                nativeTypesByName.put(entry.getValue(), null);
+            } else {
+                nativeTypesByName.put(entry.getValue(), entry.getKey());
+            }
+        }
+        this.nativeTypesByName = Collections.unmodifiableMap(nativeTypesByName);
+    }
+
+    public static EnvironmentBaseline of(SpecReader emptySpec) {
+        return new EnvironmentBaseline(emptySpec);
+    }
+
+    public static EnvironmentBaseline get(ParseDeclaration.Environment environment, boolean flow) {
+        if (!useCache) {
+            return create(environment, flow);
+        }
+        return cache.computeIfAbsent(environment.getCliArgument() + (flow ? "-flow" : ""), key -> create(environment, flow));
+    }
+
+    private static EnvironmentBaseline create(ParseDeclaration.Environment environment, boolean flow) {
+        SpecReader emptySpec = flow ?
+                FlowParser.parse(environment, Collections.emptyList()) :
+                ParseDeclaration.getTypeSpecification(environment, Collections.emptyList());
+        return new EnvironmentBaseline(emptySpec);
+    }
+}
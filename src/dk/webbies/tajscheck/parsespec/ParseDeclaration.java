@@ -3,35 +3,96 @@ package dk.webbies.tajscheck.parsespec;
 import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.types.*;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.util.ContentAddressedCache;
+import dk.webbies.tajscheck.util.ObjectGraphCopier;
 import dk.webbies.tajscheck.util.Util;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Created by erik1 on 01-11-2016.
  */
 public class ParseDeclaration {
+    /**
+     * If enabled, a parsed spec is kept in memory, and later requests for the same spec in this JVM get a copy of that instead of parsing the JSON again.
+     * A new process still parses the cached JSON once.
+     * Can be disabled using -Dtajscheck.specSnapshots=false.
+     */
+    public static boolean useSnapshots = !"false".equals(System.getProperty("tajscheck.specSnapshots"));
+
+    // The snapshots are never given out directly, since BenchmarkInfo modifies the types of the spec it gets.
+    private static final Map<String, SoftReference<SpecReader>> snapshots = new ConcurrentHashMap<>();
+
     public static SpecReader getTypeSpecification(Environment env, Collection<String> declarationFilePaths) {
         String runString = "ts-spec-reader/src/CLI.js --env " + env.getCliArgument();
         for (String declarationFile : declarationFilePaths) {
             runString += " \"" + declarationFile + "\"";
         }
 
-        String cachePath = "declaration-" + env.getCliArgument() + "-" + runString.hashCode() + ".json";
+        String name = "declaration-" + env.getCliArgument();
+        List<String> arguments = Collections.singletonList(runString);
+        List<File> declarationFiles = declarationFilePaths.stream().map(File::new).collect(Collectors.toList());
+        List<File> tools = Collections.singletonList(new File("ts-spec-reader"));
+        ContentAddressedCache cache = ContentAddressedCache.get();
 
-        List<File> toCheckAgainst = new ArrayList<>(Arrays.asList(new File("ts-spec-reader")));
-        declarationFilePaths.stream().map(File::new).forEach(toCheckAgainst::add);
-
-        String specification;
         try {
-            specification = Util.getCachedOrRunNode(cachePath, toCheckAgainst, runString);
-            return new SpecReader(specification.split("\\n")[specification.split("\\n").length - 1]);
+            String key = cache.key(name, arguments, declarationFiles, tools);
+            if (useSnapshots) {
+                SoftReference<SpecReader> snapshot = snapshots.get(key);
+                SpecReader spec = snapshot != null ? snapshot.get() : null;
+                SpecReader copy = spec != null ? copy(spec) : null;
+                if (copy != null) {
+                    return copy;
+                }
+            }
+
+            String finalRunString = runString;
+            String specification = cache.getOrCompute(name, arguments, declarationFiles, tools, () -> {
+                try {
+                    // Only the last line is the spec, the rest is logging from the spec-reader.
+                    return lastLine(Util.runNodeJob(finalRunString, -1));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            SpecReader spec = new SpecReader(lastLine(specification));
+
+            if (useSnapshots) {
+                SpecReader copy = copy(spec);
+                if (copy != null) {
+                    snapshots.put(key, new SoftReference<>(spec));
+                    return copy;
+                }
+                snapshots.remove(key);
+            }
+            return spec;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return a copy of the snapshot, or null if it cannot be copied, then the spec is parsed every time instead.
+     */
+    private static SpecReader copy(SpecReader snapshot) {
+        try {
+            return ObjectGraphCopier.deepCopy(snapshot);
+        } catch (RuntimeException e) {
+            System.err.println("Cannot copy the snapshot of a spec, parsing it instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String lastLine(String str) {
+        str = str.trim();
+        return str.substring(str.lastIndexOf('\n') + 1);
+    }
+
     @SuppressWarnings("Duplicates")
     private static void markNamedTypes(List<SpecReader.NamedType> namedTypes, Map<Type, String> typeNames) {
         for (SpecReader.NamedType namedType : namedTypes) {
@@ -5,6 +5,8 @@ import dk.webbies.tajscheck.paser.AST.*;
 import dk.webbies.tajscheck.util.Pair;
 import dk.webbies.tajscheck.util.Util;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,11 +21,19 @@ import static dk.webbies.tajscheck.paser.AstBuilder.*;
  */
 public class AstToStringVisitor implements ExpressionVisitor<Void>, StatementVisitor<Void> {
     private int ident = 0;
-    private StringBuilder builder = new StringBuilder();
+    private final Appendable out;
     private final boolean compact;
 
     public AstToStringVisitor(boolean compact) {
+        this(compact, new StringBuilder());
+    }
+
+    /**
+     * A visitor that writes directly to out (typically a buffered Writer), instead of building the whole program as one string.
+     */
+    public AstToStringVisitor(boolean compact, Appendable out) {
         this.compact = compact;
+        this.out = out;
     }
 
     @Override
@@ -852,17 +862,33 @@ public class AstToStringVisitor implements ExpressionVisitor<Void>, StatementVis
     public static String toString(Expression exp, boolean compact) {
         AstToStringVisitor visitor = new AstToStringVisitor(compact);
         exp.accept(visitor);
-        return visitor.builder.toString();
+        return visitor.out.toString();
     }
 
     public static String toString(Statement stmt, boolean compact) {
-        AstToStringVisitor visitor = new AstToStringVisitor(compact);
+        StringBuilder builder = new StringBuilder();
+        print(stmt, compact, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Prints the statement to out, an IOException thrown by out is thrown from here (such that Util.writeFile can retry).
+     */
+    public static void write(Statement stmt, boolean compact, Appendable out) throws IOException {
+        try {
+            print(stmt, compact, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void print(Statement stmt, boolean compact, Appendable out) {
+        AstToStringVisitor visitor = new AstToStringVisitor(compact, out);
         if (stmt instanceof BlockStatement) {
             visitor.writeAsBlock(stmt);
         } else {
             stmt.accept(visitor);
         }
-        return visitor.builder.toString();
     }
 
     public static String toString(Statement stmt, BenchmarkInfo info) {
@@ -870,11 +896,19 @@ public class AstToStringVisitor implements ExpressionVisitor<Void>, StatementVis
     }
 
     private void write(String s) {
-        this.builder.append(s);
+        try {
+            this.out.append(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void write(char c) {
-        this.builder.append(c);
+        try {
+            this.out.append(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void writeLn(String s) {
@@ -894,7 +928,7 @@ public class AstToStringVisitor implements ExpressionVisitor<Void>, StatementVis
             return;
         }
         for (int i = 0; i < this.ident; i++) {
-            builder.append("    ");
+            write("    ");
         }
     }
 
@@ -0,0 +1,174 @@
+package dk.webbies.tajscheck.tajstester;
+
+import com.google.gson.Gson;
+import dk.brics.tajs.lattice.Context;
+import dk.brics.tajs.solver.NodeAndContext;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.benchmark.options.staticOptions.RetractionPolicy;
+import dk.webbies.tajscheck.tajstester.data.TypeViolation;
+import dk.webbies.tajscheck.testcreator.test.Test;
+import dk.webbies.tajscheck.util.Util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * What an analysis that timed out (or ran out of memory) learned about the tests, such that a later analysis of the same benchmark can skip the tests that are known to be bad (see StaticOptions.skipKnownBadTests).
+ *
+ * This is not a snapshot of the analysis, and a later analysis does not continue where this one stopped.
+ * The state of TAJS (the lattice and the worklist), and the state of the TajsTypeTester that is made of abstract values (the feedback values, which tests were performed with them, and the certificates)
+ * refers to object-labels and contexts that only exist in the analysis that created them, so none of that is saved.
+ * A later analysis therefore starts over: it loads the library (including the initialization) and performs the tests again, round by round.
+ * What it gains from the hints is that it does not spend its time on the tests that were retracted or threw an exception in the previous analyses,
+ * and that the violations found before the previous analyses stopped are kept if the later analysis also stops before it is done.
+ * The tests that hit the per-test limit of the retraction policy (the timed out tests) are tried again, the later analysis might have a larger budget.
+ *
+ * The tests are saved by their index in TajsTypeTester.getAllTests(), and the hints are only used if the tests have the same names as when they were saved.
+ */
+public class AnalysisHints {
+    private final String benchmark;
+    private final int testsHash;
+    private final String reason;
+    private final int runs;
+    private final List<Integer> retracted;
+    private final List<Integer> timeouts;
+    private final Map<Integer, String> exceptions;
+    private final List<TypeViolation> violations;
+    private final List<TypeViolation> warnings;
+
+    private AnalysisHints(String benchmark, int testsHash, String reason, int runs, List<Integer> retracted, List<Integer> timeouts, Map<Integer, String> exceptions, List<TypeViolation> violations, List<TypeViolation> warnings) {
+        this.benchmark = benchmark;
+        this.testsHash = testsHash;
+        this.reason = reason;
+        this.runs = runs;
+        this.retracted = retracted;
+        this.timeouts = timeouts;
+        this.exceptions = exceptions;
+        this.violations = violations;
+        this.warnings = warnings;
+    }
+
+    public static Path file(BenchmarkInfo info) {
+        return TAJSUtil.outputFile(info, "analysisHints.json");
+    }
+
+    /**
+     * @param reason why the analysis stopped.
+     * @param previous the hints the analysis used, or null.
+     */
+    public static AnalysisHints create(TajsTypeTester typeTester, String reason, AnalysisHints previous) {
+        List<Test> tests = typeTester.getAllTests();
+        Map<Test, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < tests.size(); i++) {
+            indexes.put(tests.get(i), i);
+        }
+
+        // The retracted tests include the ones from the previous hints, see retractionPolicy(). The timed out tests are only the ones that timed out in this analysis.
+        List<Integer> retracted = typeTester.getRetractedTests().stream().map(indexes::get).sorted().collect(Collectors.toList());
+        List<Integer> timeouts = typeTester.getTimedOutTests().stream().map(indexes::get).sorted().collect(Collectors.toList());
+
+        Map<Integer, String> exceptions = new TreeMap<>();
+        for (Test test : typeTester.getExceptionsEncountered().keySet()) {
+            if (test != null) {
+                exceptions.put(indexes.get(test), typeTester.getExceptionsEncountered().get(test).iterator().next().toString());
+            }
+        }
+
+        return new AnalysisHints(
+                typeTester.getBenchmarkInfo().bench.name,
+                testsHash(tests),
+                reason,
+                previous != null ? previous.runs + 1 : 1,
+                retracted,
+                timeouts,
+                exceptions,
+                typeTester.getViolations(true).stream().distinct().collect(Collectors.toList()),
+                typeTester.getWarnings(true).stream().distinct().collect(Collectors.toList())
+        );
+    }
+
+    /**
+     * @return the hints in the file, or null if there are none.
+     */
+    public static AnalysisHints load(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return new Gson().fromJson(Util.readFile(file.toString()), AnalysisHints.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void save(Path file) {
+        try {
+            PartialResultWriter.writeAtomically(file, new Gson().toJson(this));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * If these hints were saved by an analysis of the same tests.
+     */
+    boolean matches(BenchmarkInfo info, List<Test> tests) {
+        return info.bench.name.equals(benchmark) && testsHash(tests) == testsHash;
+    }
+
+    private static int testsHash(List<Test> tests) {
+        return tests.stream().map(Test::toString).collect(Collectors.toList()).hashCode();
+    }
+
+    /**
+     * The retraction policy of the later analysis, the tests that were retracted before stay retracted.
+     * The tests that timed out are left to the policy, such that they are tried again.
+     */
+    RetractionPolicy retractionPolicy(RetractionPolicy policy, List<Test> tests) {
+        Set<Test> retracted = this.retracted.stream().map(tests::get).collect(Collectors.toSet());
+        return new RetractionPolicy() {
+            @Override
+            public void notifyTestTransfer(Test test, int totalTransfers) {
+                policy.notifyTestTransfer(test, totalTransfers);
+            }
+
+            @Override
+            public void notifySuspiciousLocation(Test test, Set<NodeAndContext<Context>> location) {
+                policy.notifySuspiciousLocation(test, location);
+            }
+
+            @Override
+            public boolean isRetracted(Test test) {
+                return retracted.contains(test) || policy.isRetracted(test);
+            }
+
+            @Override
+            public boolean isTimeout(Test test) {
+                return policy.isTimeout(test);
+            }
+        };
+    }
+
+    Map<Test, Exception> getExceptions(List<Test> tests) {
+        Map<Test, Exception> result = new LinkedHashMap<>();
+        exceptions.forEach((index, message) -> result.put(tests.get(index), new RuntimeException("In a previous analysis: " + message)));
+        return result;
+    }
+
+    List<TypeViolation> getViolations() {
+        return violations;
+    }
+
+    List<TypeViolation> getWarnings() {
+        return warnings;
+    }
+
+    @Override
+    public String toString() {
+        return "analysis hints for " + benchmark + " after " + runs + " analyses (the last stopped because of " + reason + "), " +
+                retracted.size() + " retracted, " + timeouts.size() + " timed out, " + exceptions.size() + " with exceptions, " + violations.size() + " violations";
+    }
+}
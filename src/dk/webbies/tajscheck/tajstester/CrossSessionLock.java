@@ -0,0 +1,16 @@
+package dk.webbies.tajscheck.tajstester;
+
+/**
+ * A lock that is shared by all TajsAnalysisSessions.
+ *
+ * A session loads everything again in its own class loader, so synchronizing on a class (or a static field) of this project only excludes the analyses of the same session.
+ * This class is the exception, every session loads it from the class loader of the host (see TajsAnalysisSession.SessionClassLoader), so there is only one LOCK.
+ * It is used for the files that are written by every session (the ResultIndex).
+ */
+public final class CrossSessionLock {
+    public static final Object LOCK = new Object();
+
+    private CrossSessionLock() {
+
+    }
+}
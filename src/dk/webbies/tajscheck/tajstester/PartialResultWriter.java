@@ -0,0 +1,235 @@
+package dk.webbies.tajscheck.tajstester;
+
+import com.google.gson.Gson;
+import dk.au.cs.casa.typescript.types.ClassType;
+import dk.webbies.tajscheck.tajstester.data.TypeViolation;
+import dk.webbies.tajscheck.testcreator.test.Test;
+import dk.webbies.tajscheck.util.ArrayListMultiMap;
+import dk.webbies.tajscheck.util.MultiMap;
+import dk.webbies.tajscheck.util.Util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the partial results of a running analysis (partialResult.json and partialResult.txt), such that they can be inspected while the analysis runs.
+ *
+ * The results are written at most once every interval.
+ * A checkpoint that comes sooner replaces the snapshot that is waiting to be written, and that snapshot is written when the interval is up, so the files are never more than an interval behind the last checkpoint.
+ * The solver thread only copies what the results are created from, the violations and warnings are copied as the delta since the previous checkpoint (they are only ever appended to).
+ * Creating the results and writing them happens on a background thread, if that thread is behind, only the newest checkpoint is written.
+ * The files are written to a temporary file, which is then moved into place, so a reader never sees a half written file.
+ *
+ * Both files are written next to each other, in TAJSUtil.outputFile() (next to the .d.ts file, or in the directory of the TajsAnalysisSession), partialResult.txt is no longer written to the working directory.
+ */
+public class PartialResultWriter {
+    public static int defaultInterval = Integer.getInteger("tajscheck.partialResultInterval", 5 * 1000);
+
+    private static final ScheduledExecutorService writerThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "partial-result-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path jsonFile;
+    private final Path textFile;
+    private final int interval;
+
+    // The violations and warnings of the previous checkpoints, every checkpoint adds a chunk with the new ones.
+    private final Delta<TypeViolation> violations = new Delta<>();
+    private final Delta<TypeViolation> warnings = new Delta<>();
+    private Boolean hasClassesInDec = null;
+
+    private long lastWrite = Long.MIN_VALUE; // when the last write was (or is scheduled to be) started.
+    private final AtomicReference<Snapshot> next = new AtomicReference<>(); // not null while a write is waiting to be started.
+    private volatile IOException failure = null;
+
+    public PartialResultWriter(Path jsonFile, Path textFile) {
+        this(jsonFile, textFile, defaultInterval);
+    }
+
+    public PartialResultWriter(Path jsonFile, Path textFile, int interval) {
+        this.jsonFile = jsonFile;
+        this.textFile = textFile;
+        this.interval = interval;
+    }
+
+    /**
+     * Called from the solver thread, returns without waiting for anything to be written.
+     */
+    public void checkpoint(TajsTypeTester typeTester) {
+        if (next.getAndSet(snapshot(typeTester)) != null) {
+            return; // The write that is waiting will write this snapshot instead.
+        }
+        long now = System.currentTimeMillis();
+        if (lastWrite != Long.MIN_VALUE && now - lastWrite < interval) {
+            lastWrite += interval;
+            writerThread.schedule(this::writeNext, lastWrite - now, TimeUnit.MILLISECONDS);
+        } else {
+            lastWrite = now;
+            writerThread.submit(this::writeNext);
+        }
+    }
+
+    /**
+     * Writes the current state, and waits until everything has been written.
+     * A write that is scheduled for later finds nothing to write, so it does not overwrite what is written after this.
+     */
+    public void close(TajsTypeTester typeTester) {
+        next.set(snapshot(typeTester));
+        try {
+            writerThread.submit(this::writeNext).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private Snapshot snapshot(TajsTypeTester typeTester) {
+        if (hasClassesInDec == null) {
+            hasClassesInDec = typeTester.getAllTests().stream().flatMap(test -> test.getProduces().stream()).anyMatch(ClassType.class::isInstance);
+        }
+        Set<Test> performed = new LinkedHashSet<>(typeTester.getPerformedTests());
+
+        MultiMap<Test, Exception> exceptions = new ArrayListMultiMap<>();
+        MultiMap<Test, Exception> exceptionsEncountered = typeTester.getExceptionsEncountered();
+        for (Test test : exceptionsEncountered.keySet()) {
+            if (test != null && !performed.contains(test)) {
+                exceptions.putAll(test, new ArrayList<>(exceptionsEncountered.get(test)));
+            }
+        }
+
+        return new Snapshot(
+                typeTester.getAllTests(),
+                performed,
+                violations.update(typeTester.getViolations(true)),
+                warnings.update(typeTester.getWarnings(true)),
+                typeTester.getRetractedTests(),
+                typeTester.getTimedOutTests(),
+                exceptions,
+                hasClassesInDec
+        );
+    }
+
+    private void writeNext() {
+        Snapshot snapshot = next.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            TAJSUtil.TajsAnalysisResults results = snapshot.toResults();
+            writeAtomically(jsonFile, new Gson().toJson(results.summary()));
+            writeAtomically(textFile, results.toString());
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // Should not kill the writer, the next checkpoint might work.
+        }
+    }
+
+    static void writeAtomically(Path file, String content) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Util.writeFile(tmpFile.toString(), content);
+        try {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A list that is only appended to, copied as the elements added since the last copy.
+     * If the list is not the same as before followed by new elements, it is copied from the start.
+     */
+    private static final class Delta<T> {
+        private final List<List<T>> chunks = new ArrayList<>();
+        private int size = 0;
+        private T last = null;
+
+        List<List<T>> update(List<T> list) {
+            if (list.size() < size || (size > 0 && list.get(size - 1) != last)) {
+                chunks.clear();
+                size = 0;
+            }
+            if (list.size() > size) {
+                chunks.add(new ArrayList<>(list.subList(size, list.size())));
+                size = list.size();
+                last = list.get(size - 1);
+            }
+            return new ArrayList<>(chunks);
+        }
+    }
+
+    /**
+     * What the partial results are created from, nothing in here is changed by the analysis.
+     */
+    private static final class Snapshot {
+        private final List<Test> tests;
+        private final Set<Test> performed;
+        private final List<List<TypeViolation>> violations;
+        private final List<List<TypeViolation>> warnings;
+        private final Set<Test> retractedTests;
+        private final Set<Test> timeoutTests;
+        private final MultiMap<Test, Exception> exceptions;
+        private final boolean hasClassesInDec;
+
+        private Snapshot(List<Test> tests, Set<Test> performed, List<List<TypeViolation>> violations, List<List<TypeViolation>> warnings, Set<Test> retractedTests, Set<Test> timeoutTests, MultiMap<Test, Exception> exceptions, boolean hasClassesInDec) {
+            this.tests = tests;
+            this.performed = performed;
+            this.violations = violations;
+            this.warnings = warnings;
+            this.retractedTests = retractedTests;
+            this.timeoutTests = timeoutTests;
+            this.exceptions = exceptions;
+            this.hasClassesInDec = hasClassesInDec;
+        }
+
+        /**
+         * Only what summary() and toString() use is filled in.
+         */
+        private TAJSUtil.TajsAnalysisResults toResults() {
+            MultiMap<String, TypeViolation> violationsByPath = byPath(violations);
+
+            List<Test> testNot = new ArrayList<>(tests);
+            testNot.removeAll(performed);
+
+            TAJSUtil.TajsAnalysisResults results = new TAJSUtil.TajsAnalysisResults(
+                    violationsByPath,
+                    byPath(warnings),
+                    performed,
+                    testNot,
+                    Collections.emptyList(),
+                    Collections.emptyMap(),
+                    null,
+                    true,
+                    retractedTests,
+                    timeoutTests,
+                    Collections.emptyList(),
+                    violationsByPath,
+                    Collections.emptySet(),
+                    -1, -1, -1,
+                    hasClassesInDec
+            );
+            results.exceptionsEncountered = exceptions;
+            return results;
+        }
+
+        private static MultiMap<String, TypeViolation> byPath(List<List<TypeViolation>> chunks) {
+            MultiMap<String, TypeViolation> result = new ArrayListMultiMap<>();
+            for (List<TypeViolation> chunk : chunks) {
+                for (TypeViolation violation : chunk) {
+                    result.put(violation.path, violation);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -38,6 +39,24 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
 public class TAJSUtil {
+    /**
+     * The directory the results of the analyses are written to, null means next to the .d.ts file of the benchmark.
+     * Every TajsAnalysisSession sets its own directory, such that analyses running at the same time do not write the same files.
+     */
+    public static String outputDirectory = null;
+
+    public static Path outputFile(BenchmarkInfo info, String fileName) {
+        if (outputDirectory == null) {
+            return Paths.get(info.bench.dTSFile).getParent().resolve(fileName).toAbsolutePath();
+        }
+        Path directory = Paths.get(outputDirectory).resolve(info.bench.name.replaceAll("[^a-zA-Z0-9._-]", "_")).toAbsolutePath();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return directory.resolve(fileName);
+    }
 
     public static TajsAnalysisResults runNoDriverTAJS(
             Benchmark bench,
@@ -48,7 +67,9 @@ public class TAJSUtil {
 
         OptionValues additionalOpts = new OptionValues();
         CmdLineParser parser = new CmdLineParser(additionalOpts);
-        TajsTypeTester typeTester = new TajsTypeTester(tests, info);
+        Path hintsFile = AnalysisHints.file(info);
+        AnalysisHints hints = bench.options.staticOptions.skipKnownBadTests ? AnalysisHints.load(hintsFile) : null;
+        TajsTypeTester typeTester = new TajsTypeTester(tests, info, hints);
 
         if (info.bench.run_method == Benchmark.RUN_METHOD.BOOTSTRAP) {
             try {
@@ -125,20 +146,36 @@ public class TAJSUtil {
         initLogging();
 
         Analysis a = dk.brics.tajs.Main.init(additionalOpts, monitoring, null, new TesterTransfer(), typeTester);
-        boolean timedout = false;
+        String stoppedBecause = null;
+        typeTester.getTimers().start(Timers.Tags.ANALYSIS);
         try {
             dk.brics.tajs.Main.run(a);
             TajsMisc.captureSystemOutput();
         } catch (AnalysisLimitationException.AnalysisTimeException e) {
-            timedout = true;
+            stoppedBecause = "timeout";
         } catch (OutOfMemoryError e) {
             dk.brics.tajs.Main.reset(); // Trying to quickly free some mem.
-            timedout = true;
+            stoppedBecause = "out of memory";
+        } finally {
+            typeTester.getTimers().stop(Timers.Tags.ANALYSIS);
+        }
+        boolean timedout = stoppedBecause != null;
+
+        typeTester.getPartialResultWriter().close(typeTester); // Such that a late checkpoint does not overwrite the file below.
+
+        if (timedout) {
+            AnalysisHints.create(typeTester, stoppedBecause, typeTester.getAnalysisHints()).save(hintsFile);
+        } else {
+            try {
+                Files.deleteIfExists(hintsFile); // The analysis is done, the next one does not need to skip anything.
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         TajsAnalysisResults results = new TajsAnalysisResults(typeTester, timedout);
         try {
-            Util.writeFile("partialResult.txt", results.toString());
+            Util.writeFile(outputFile(info, "partialResult.txt").toString(), results.toString());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -152,8 +189,12 @@ public class TAJSUtil {
         TajsAnalysisResults result = runNoDriverTAJS(bench, secondsTimeout, info, tests);
 
         Gson gson = new Gson();
-        Path finalResultPath = Paths.get(info.bench.dTSFile).getParent().resolve("finalResult.json").toAbsolutePath();
+        Path finalResultPath = outputFile(info, "finalResult.json");
         Util.writeFile(finalResultPath.toString(), gson.toJson(result.summary()));
+        if (result.timers != null) {
+            // Can be given directly to flamegraph.pl or speedscope.
+            Util.writeFile(outputFile(info, "profile.folded").toString(), result.timers.toFoldedStacks());
+        }
         ResultIndex.singleton.addFinalResult(info.bench.name, finalResultPath);
         ResultIndex.singleton.save();//FIXME: Move to test after-all?
 
@@ -183,6 +224,9 @@ public class TAJSUtil {
 
         private boolean VERBOSE = false;
         public MultiMap<Test, Exception> exceptionsEncountered;
+        public TestScheduler.Statistics testScheduling;
+        public TajsVerdictCache.Statistics verdictCache;
+        public String analysisHints; // which AnalysisHints were used, or why they were ignored, null if there were none.
 
         public TajsAnalysisResults(MultiMap<String, TypeViolation> detectedViolations,
                                    MultiMap<String, TypeViolation> warnings,
@@ -234,6 +278,12 @@ public class TAJSUtil {
 
             this.exceptionsEncountered = typeTester.getExceptionsEncountered();
 
+            this.testScheduling = typeTester.getTestScheduler().getStatistics();
+            this.analysisHints = typeTester.getAnalysisHintsDescription();
+            if (typeTester.getVerdictCache() != null) {
+                this.verdictCache = typeTester.getVerdictCache().getStatistics();
+            }
+
             this.testPerformed = typeTester.getPerformedTests();
 
             this.testNot = new ArrayList<>(typeTester.getAllTests());
@@ -267,6 +317,8 @@ public class TAJSUtil {
             StringBuilder builder = new StringBuilder();
             if (this.timedout)
                 builder.append("Type-checking timedout!").append("\n");
+            if (analysisHints != null)
+                builder.append(analysisHints).append("\n");
             builder.append("Actions not performed (").append(testNot.size()).append(")").append("\n");
             for (Test notPerformed : testNot) {
                 builder.append("   ").append(notPerformed);
@@ -323,6 +375,12 @@ public class TAJSUtil {
 //                builder.append("Reads performed by the library that could be affected by the client: \n");
 //                this.possiblyProblematicReads.stream().map(AbstractNode::getSourceLocation).map(Object::toString).distinct().sorted().forEach(str -> builder.append(str).append("\n"));
 //            }
+            if (testScheduling != null) {
+                builder.append(testScheduling).append("\n");
+            }
+            if (verdictCache != null) {
+                builder.append(verdictCache).append("\n");
+            }
             if (hasClassesInDec) {
                 builder.append("The implementation does not currently support inheritance");
             }
@@ -346,7 +404,11 @@ public class TAJSUtil {
 
     public static class ResultSummary {
         Map<String, ArrayList<TypeViolation>> violations = new HashMap<>();
+        List<Timers.Entry> profile;
         ResultSummary(TajsAnalysisResults result) {
+            if (result.timers != null) {
+                profile = result.timers.getEntries();
+            }
             for(String k : result.detectedViolations.keySet()) {
                 ArrayList<TypeViolation> al = new ArrayList<>();
                 al.addAll(result.detectedViolations.get(k));
@@ -385,8 +447,15 @@ public class TAJSUtil {
         }
 
         public void save() throws Exception {
-            Gson gson = new Gson();
-            Util.writeFile(defaultIndexPath.toString(), gson.toJson(this));
+            // Analyses in other TajsAnalysisSessions have their own ResultIndex, so we keep what they have saved in the meantime.
+            synchronized (CrossSessionLock.LOCK) {
+                ResultIndex onDisk = loadOrWipe();
+                if (onDisk != null && onDisk.index != null) {
+                    onDisk.index.forEach(index::putIfAbsent);
+                }
+                Gson gson = new Gson();
+                Util.writeFile(defaultIndexPath.toString(), gson.toJson(this));
+            }
         }
     }
 }
@@ -0,0 +1,118 @@
+package dk.webbies.tajscheck.tajstester;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A session with its own copy of TAJS (and of this project), loaded by a separate class loader.
+ *
+ * TAJS keeps its options, monitors, flowgraph and lattice caches in static fields, so two analyses can only run at the same time if they run in different sessions.
+ * A session runs one analysis at a time, and can be reused for later analyses (TAJS is reset at the start of every analysis, see TAJSUtil.runNoDriverTAJS).
+ *
+ * Objects cannot be passed between sessions (a Benchmark in one session is a different class than a Benchmark in another).
+ * Therefore a task is given as the name of a class implementing Function&lt;String, String&gt; with a public no-argument constructor, that is instantiated inside the session.
+ *
+ * The results of the analyses in a session are written to a directory of the session (out/sessions/[name], see TAJSUtil.outputDirectory), instead of next to the .d.ts file, such that sessions analyzing the same benchmark do not overwrite each others files.
+ */
+public class TajsAnalysisSession implements AutoCloseable {
+    private static final AtomicInteger sessionCounter = new AtomicInteger(0);
+
+    private final URLClassLoader loader;
+    private final Path outputDirectory;
+
+    public TajsAnalysisSession() {
+        String name = "tajs-session-" + sessionCounter.incrementAndGet();
+        this.loader = new SessionClassLoader(name, classPath());
+        this.outputDirectory = Paths.get("out", "sessions", name).toAbsolutePath();
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Runs a task inside this session, blocking while another task is running in the same session.
+     * @param taskClass the name of a class implementing Function&lt;String, String&gt;.
+     * @param argument the argument given to the task.
+     * @return the result of the task.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized String run(String taskClass, String argument) {
+        Thread thread = Thread.currentThread();
+        ClassLoader oldContextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            Class.forName(TAJSUtil.class.getName(), true, loader).getField("outputDirectory").set(null, outputDirectory.toString());
+            Object task = Class.forName(taskClass, true, loader).getConstructor().newInstance();
+            if (!(task instanceof Function)) {
+                throw new RuntimeException(taskClass + " does not implement " + Function.class.getName());
+            }
+            return ((Function<String, String>) task).apply(argument);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        } finally {
+            thread.setContextClassLoader(oldContextLoader);
+        }
+    }
+
+    public String run(Class<? extends Function<String, String>> taskClass, String argument) {
+        return run(taskClass.getName(), argument);
+    }
+
+    @Override
+    public void close() {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Has the platform class loader as parent, meaning that everything except the JDK is loaded again for this session.
+     * Except for the classes that are shared between the sessions, those are loaded by the class loader of the host.
+     */
+    private static final class SessionClassLoader extends URLClassLoader {
+        private static final Set<String> sharedClasses = Collections.singleton(CrossSessionLock.class.getName());
+
+        private final ClassLoader host = TajsAnalysisSession.class.getClassLoader();
+
+        private SessionClassLoader(String name, URL[] urls) {
+            super(name, urls, ClassLoader.getPlatformClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (sharedClasses.contains(name)) {
+                return host.loadClass(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    private static URL[] classPath() {
+        List<URL> result = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            try {
+                result.add(Paths.get(entry).toAbsolutePath().toUri().toURL());
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return result.toArray(new URL[result.size()]);
+    }
+}
@@ -0,0 +1,98 @@
+package dk.webbies.tajscheck.tajstester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * A fixed number of TajsAnalysisSessions, such that that many analyses can run in parallel.
+ */
+public class TajsAnalysisSessionPool implements AutoCloseable {
+    private final List<TajsAnalysisSession> allSessions = new ArrayList<>();
+    private final BlockingQueue<TajsAnalysisSession> idle;
+    private final ExecutorService executor;
+
+    public TajsAnalysisSessionPool(int size) {
+        assert size > 0;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            TajsAnalysisSession session = new TajsAnalysisSession();
+            allSessions.add(session);
+            idle.add(session);
+        }
+        this.executor = Executors.newFixedThreadPool(size);
+    }
+
+    public int size() {
+        return allSessions.size();
+    }
+
+    /**
+     * Runs the task in the first available session, blocking until a session is available and the task is done.
+     */
+    public String run(String taskClass, String argument) {
+        TajsAnalysisSession session;
+        try {
+            session = idle.take();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            return session.run(taskClass, argument);
+        } finally {
+            idle.add(session);
+        }
+    }
+
+    public String run(Class<? extends Function<String, String>> taskClass, String argument) {
+        return run(taskClass.getName(), argument);
+    }
+
+    public Future<String> submit(String taskClass, String argument) {
+        return executor.submit(() -> run(taskClass, argument));
+    }
+
+    /**
+     * Runs the task once for every argument, using all the sessions in the pool.
+     * At most size() tasks are submitted at a time, the next is submitted when one is done.
+     * The results are in the same order as the arguments.
+     */
+    public List<String> runAll(String taskClass, List<String> arguments) {
+        Semaphore running = new Semaphore(size());
+        List<Future<String>> futures = new ArrayList<>();
+        for (String argument : arguments) {
+            try {
+                running.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            futures.add(executor.submit(() -> {
+                try {
+                    return run(taskClass, argument);
+                } finally {
+                    running.release();
+                }
+            }));
+        }
+        List<String> results = new ArrayList<>();
+        for (Future<String> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return results;
+    }
+
+    public List<String> runAll(Class<? extends Function<String, String>> taskClass, List<String> arguments) {
+        return runAll(taskClass.getName(), arguments);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        allSessions.forEach(TajsAnalysisSession::close);
+    }
+}
@@ -14,6 +14,7 @@ import dk.webbies.tajscheck.buildprogram.typechecks.TypeCheck;
 import dk.webbies.tajscheck.paser.AST.*;
 import dk.webbies.tajscheck.paser.AstBuilder;
 import dk.webbies.tajscheck.paser.ExpressionVisitor;
+import dk.webbies.tajscheck.tajstester.data.Timers;
 import dk.webbies.tajscheck.tajstester.data.TypeViolation;
 import dk.webbies.tajscheck.testcreator.test.Test;
 import dk.webbies.tajscheck.testcreator.test.check.*;
@@ -43,8 +44,25 @@ public class TajsTypeChecker {
     @SuppressWarnings({"unused", "FieldCanBeLocal"})
     private final Test test; // Not used for anything, but this way we enforce that a TajsTypeChecker is constructed for every test, and thereby the cache's aren't mixed.
 
+    private final Timers timers;
+
+    private final TajsVerdictCache verdictCache; // null if verdicts are not shared with other tests.
+    private final Map<Tuple4<Check, TypeWithContext, Value, String>, TajsVerdictCache.Recording> recordings = new HashMap<>(); // what the verdicts in the cache above depend on.
+    private final Deque<TajsVerdictCache.Recording> computing = new ArrayDeque<>();
+
     public TajsTypeChecker(Test test, Solver.SolverInterface c, BenchmarkInfo info, ViolationsOracle violationsOracle) {
+        this(test, c, info, violationsOracle, Timers.DISABLED, null);
+    }
+
+    public TajsTypeChecker(Test test, Solver.SolverInterface c, TajsTypeTester tajsTypeTester) {
+        this(test, c, tajsTypeTester.getBenchmarkInfo(), tajsTypeTester.getViolationsOracle(), tajsTypeTester.getTimers(),
+                tajsTypeTester.getViolationsOracle().hasSuppressions() ? null : tajsTypeTester.getVerdictCache()); // the suppressions depend on the path, see TajsVerdictCache.
+    }
+
+    private TajsTypeChecker(Test test, Solver.SolverInterface c, BenchmarkInfo info, ViolationsOracle violationsOracle, Timers timers, TajsVerdictCache verdictCache) {
         this.c = c;
+        this.timers = timers;
+        this.verdictCache = verdictCache;
         this.pv = c.getAnalysis().getPropVarOperations();
         this.violationsOracle = violationsOracle;
         this.info = info;
@@ -85,6 +103,15 @@ public class TajsTypeChecker {
 
 
     List<TypeViolation> typeCheck(Value v, Type type, TypeContext context, String path) {
+        timers.start(Timers.Tags.TYPE_CHECKING);
+        try {
+            return typeCheckInner(v, type, context, path);
+        } finally {
+            timers.stop(Timers.Tags.TYPE_CHECKING);
+        }
+    }
+
+    private List<TypeViolation> typeCheckInner(Value v, Type type, TypeContext context, String path) {
         List<TypeCheck> typeChecks = TypeChecker.getTypeChecks(type, context, info, 1);
 
         List<Value> split = split(v);
@@ -106,6 +133,9 @@ public class TajsTypeChecker {
     }
 
     private TypeViolation definiteViolation(String violationPath, Value value, TypeCheck check) {
+        if (!value.getAllObjectLabels().isEmpty()) {
+            notCacheable(); // the message prints the objects as they are in the current state.
+        }
         return TypeViolation.definite("Expected " + check.getExpected() + " but found " + Util.prettyValue(value, c.getState()), violationPath);
     }
 
@@ -162,13 +192,45 @@ public class TajsTypeChecker {
             };
 
             Tuple4<Check, TypeWithContext, Value, String> key = new Tuple4<>(check, typeWithContext, v, Util.lastPathPart(path));
-            if (cache.containsKey(key) && !(typeWithContext.getType() instanceof SimpleType || typeWithContext.getType() instanceof BooleanLiteral || typeWithContext.getType() instanceof NumberLiteral || typeWithContext.getType() instanceof StringLiteral)) {
+            boolean simpleType = typeWithContext.getType() instanceof SimpleType || typeWithContext.getType() instanceof BooleanLiteral || typeWithContext.getType() instanceof NumberLiteral || typeWithContext.getType() instanceof StringLiteral;
+            if (cache.containsKey(key) && !simpleType) {
+                if (verdictCache != null) {
+                    TajsVerdictCache.Recording recording = recordings.get(key);
+                    if (recording != null) {
+                        record(recording);
+                    } else {
+                        notCacheable(); // relies on the coinductive assumption.
+                    }
+                }
                 return cache.get(key);
             } else {
                 cache.put(key, java.util.Collections.emptyList()); // coinductive assumption, if we hit the same check, it must be true.
-                List<TypeViolation> result = getForCache.get();
+                List<TypeViolation> result;
+                TajsVerdictCache.Recording recording = null;
+                if (verdictCache == null || simpleType) {
+                    result = getForCache.get();
+                } else {
+                    TajsVerdictCache.Entry entry = verdictCache.lookup(check, typeWithContext, v, this);
+                    if (entry != null) {
+                        result = entry.getViolations(path);
+                        recording = entry.getRecording();
+                    } else {
+                        recording = new TajsVerdictCache.Recording();
+                        computing.push(recording);
+                        try {
+                            result = getForCache.get();
+                        } finally {
+                            computing.pop();
+                        }
+                        verdictCache.store(check, typeWithContext, v, path, result, recording);
+                    }
+                    record(recording);
+                }
                 if (result.stream().noneMatch(violation -> violation.path.startsWith(">"))) { // our magic marker that it was just a check if there was a violation, and that the reported violation is meaningless.
                     cache.put(key, result);
+                    if (recording != null) {
+                        recordings.put(key, recording);
+                    }
                 }
                 return result;
             }
@@ -189,8 +251,34 @@ public class TajsTypeChecker {
                 .reduce(new ArrayList<>(), Util::reduceList);
     }
 
+    /**
+     * The verdict being computed depends on what another verdict depended on.
+     */
+    private void record(TajsVerdictCache.Recording recording) {
+        if (!computing.isEmpty()) {
+            computing.peek().add(recording);
+        }
+    }
+
+    private void record(TajsVerdictCache.Read read) {
+        if (!computing.isEmpty()) {
+            computing.peek().add(read);
+        }
+    }
+
+    private void notCacheable() {
+        if (!computing.isEmpty()) {
+            computing.peek().notCacheable();
+        }
+    }
+
+    Value readProperty(Set<ObjectLabel> labels, Value field) {
+        return UnknownValueResolver.getRealValue(pv.readPropertyValue(labels, field), c.getState());
+    }
+
     private List<TypeViolation> performSubTypeCheck(Value v, CanHaveSubTypeCheck hasSubType, String newPath, Value field) {
-        Value propertyValue = UnknownValueResolver.getRealValue(pv.readPropertyValue(v.getAllObjectLabels(), field), c.getState());
+        Value propertyValue = readProperty(v.getAllObjectLabels(), field);
+        record(new TajsVerdictCache.PropertyRead(v.getAllObjectLabels(), field, propertyValue));
         if(propertyValue.isMaybeAbsent()) {
             propertyValue = Value.join(propertyValue, Value.makeUndef());
         }
@@ -212,6 +300,13 @@ public class TajsTypeChecker {
         return violations;
     }
 
+    /**
+     * Used to validate a cached verdict, a missing class was already reported when the verdict was computed.
+     */
+    Bool instanceOfGlobalQuietly(String name, Value o) {
+        return cc.instanceOfGlobal(name, o, false);
+    }
+
     private static Bool or(Bool a, Bool b) {
         if (a.isMaybeTrueButNotFalse() || b.isMaybeTrueButNotFalse()) {
             return Value.makeBool(true);
@@ -333,18 +428,26 @@ public class TajsTypeChecker {
                     case "Function":
                         return Value.makeBool(o.getObjectLabels().iterator().next().getKind() == ObjectLabel.Kind.FUNCTION);
                     default:
-                        Value clazz = UnknownValueResolver.getProperty(InitialStateBuilder.GLOBAL, PKey.make(Value.makeStr(name)), c.getState(), false);
-                        if (!clazz.isNotAbsent()) {
-                            System.err.println("Cannot check prototype of: " + name); // TODO: At Least MouseEvent and similar.
-                            return Value.makeBool(true);
-                        }
-                        assert clazz.getObjectLabels().size() == 1;
-                        return instof(o, clazz, c);
+                        Bool result = instanceOfGlobal(name, o, true);
+                        record(new TajsVerdictCache.InstanceOfRead(name, o, result));
+                        return result;
                 }
             }
             throw new RuntimeException("Instanceof check" + check + " against " + o);
         }
 
+        private Bool instanceOfGlobal(String name, Value o, boolean reportMissing) {
+            Value clazz = UnknownValueResolver.getProperty(InitialStateBuilder.GLOBAL, PKey.make(Value.makeStr(name)), c.getState(), false);
+            if (!clazz.isNotAbsent()) {
+                if (reportMissing) {
+                    System.err.println("Cannot check prototype of: " + name); // TODO: At Least MouseEvent and similar.
+                }
+                return Value.makeBool(true);
+            }
+            assert clazz.getObjectLabels().size() == 1;
+            return instof(o, clazz, c);
+        }
+
         public Value instof(Value v1, Value v2, Solver.SolverInterface c) {
             Set<ObjectLabel> v2_objlabels = v2.getObjectLabels();
             Value v2_prototype = c.getAnalysis().getPropVarOperations().readPropertyValue(v2_objlabels, "prototype");
@@ -1,6 +1,5 @@
 package dk.webbies.tajscheck.tajstester;
 
-import com.google.gson.Gson;
 import dk.brics.tajs.analysis.*;
 import dk.brics.tajs.analysis.FunctionCalls.CallInfo;
 import dk.brics.tajs.flowgraph.BasicBlock;
@@ -27,10 +26,7 @@ import dk.webbies.tajscheck.tajstester.monitors.TestTransfersMonitor;
 import dk.webbies.tajscheck.testcreator.test.*;
 import dk.webbies.tajscheck.util.ArrayListMultiMap;
 import dk.webbies.tajscheck.util.MultiMap;
-import dk.webbies.tajscheck.util.Util;
 
-import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -76,18 +72,49 @@ public class TajsTypeTester implements ITypeTester<Context> {
 
     private boolean hasScanned = false;
 
+    private final PartialResultWriter partialResultWriter;
+    private final AnalysisHints analysisHints;
+    private final String analysisHintsDescription;
+    private final TestScheduler scheduler;
+    private final TajsVerdictCache verdictCache = TajsVerdictCache.maxEntries > 0 ? new TajsVerdictCache(TajsVerdictCache.maxEntries) : null;
+
     public TajsTypeTester(List<Test> tests, BenchmarkInfo info) {
+        this(tests, info, null);
+    }
+
+    /**
+     * @param hints what previous analyses learned about the tests, ignored if they were saved for other tests.
+     */
+    public TajsTypeTester(List<Test> tests, BenchmarkInfo info, AnalysisHints hints) {
         this.tests = tests.stream().sorted((a, b) -> {
             int aValue = a instanceof FunctionTest ? 1 : 0;
             int bValue = b instanceof FunctionTest ? 1 : 0;
             return Integer.compare(aValue, bValue);
         }).collect(Collectors.toList());
         this.info = info;
-        this.retractionPolicy = this.info.options.staticOptions.retractionPolicy;
+        this.scheduler = new TestScheduler(this.tests);
+        if (hints != null && !hints.matches(info, this.tests)) {
+            this.analysisHintsDescription = "Ignored the " + hints + ", the tests have changed";
+            hints = null;
+        } else if (hints != null) {
+            this.analysisHintsDescription = "Skipped known bad tests using the " + hints;
+        } else {
+            this.analysisHintsDescription = null;
+        }
+        this.analysisHints = hints;
+        if (hints != null) {
+            this.retractionPolicy = hints.retractionPolicy(this.info.options.staticOptions.retractionPolicy, this.tests);
+            hints.getExceptions(this.tests).forEach(exceptionsEncountered::put);
+            notDoneViolations.addAll(hints.getViolations());
+            notDoneWarnings.addAll(hints.getWarnings());
+        } else {
+            this.retractionPolicy = this.info.options.staticOptions.retractionPolicy;
+        }
         this.expansionPolicy = new ConsistencyKeepingExpansionPolicy(this.info.options.staticOptions.expansionPolicy);
         this.transferMonitor = new TestTransfersMonitor(this, retractionPolicy::notifyTestTransfer);
         this.suspiciousMonitor = new SuspiciousnessMonitor(this, retractionPolicy::notifySuspiciousLocation);
         this.violationsOracle = ViolationsOracle.fromJson(info.bench);
+        this.partialResultWriter = new PartialResultWriter(TAJSUtil.outputFile(info, "partialResult.json"), TAJSUtil.outputFile(info, "partialResult.txt"));
     }
 
     public Timers getTimers() {return timers; }
@@ -97,6 +124,15 @@ public class TajsTypeTester implements ITypeTester<Context> {
 
 
     public void triggerTypeTests(Solver.SolverInterface c) {
+        timers.start(Timers.Tags.TYPE_TESTS);
+        try {
+            runTypeTests(c);
+        } finally {
+            timers.stop(Timers.Tags.TYPE_TESTS);
+        }
+    }
+
+    private void runTypeTests(Solver.SolverInterface c) {
         if(allTestsBlock == null) {
             init(c);
         }
@@ -125,6 +161,7 @@ public class TajsTypeTester implements ITypeTester<Context> {
         }
 
         performed.clear();
+        scheduler.startRound();
         expansionPolicy.nextRound();
         valueHandler.cleanUp();
 
@@ -186,14 +223,7 @@ public class TajsTypeTester implements ITypeTester<Context> {
 
 
         if (!c.isScanning()) {
-            TAJSUtil.TajsAnalysisResults partialResults = new TAJSUtil.TajsAnalysisResults(this, true);
-            try {
-                Gson gson = new Gson();
-                Util.writeFile(Paths.get(info.bench.dTSFile).getParent().resolve("partialResult.json").toAbsolutePath().toString(), gson.toJson(partialResults.summary()));
-                Util.writeFile("partialResult.txt", partialResults.toString());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            partialResultWriter.checkpoint(this);
         }
 
         if (!c.getWorklist().isEmpty()) {
@@ -213,7 +243,7 @@ public class TajsTypeTester implements ITypeTester<Context> {
 
     private boolean iterateAllNonPerformedTests(Solver.SolverInterface c) {
         boolean progress = false;
-        for (Test test : tests) {
+        for (Test test : scheduler.pass(performed)) {
             if (performed.contains(test)) {
                 continue;
             }
@@ -223,12 +253,14 @@ public class TajsTypeTester implements ITypeTester<Context> {
                 continue;
             }
 
-            if (test.getTypeToTest().stream().map(type -> new TypeWithContext(type, test.getTypeContext())).map(valueHandler::findFeedbackValue).anyMatch(Objects::isNull)) {
+            List<TypeWithContext> missingValues = test.getTypeToTest().stream().map(type -> new TypeWithContext(type, test.getTypeContext())).filter(type -> valueHandler.findFeedbackValue(type) == null).collect(Collectors.toList());
+            if (!missingValues.isEmpty()) {
                 if(performed.contains(test))
                     throw new RuntimeException("Previously performed test is now skipped because of no values for the types to test");
 
                 if (DEBUG && !c.isScanning()) System.out.println("Skipped test " + test);
                 if (DEBUG && c.isScanning()) System.out.println("Never performed test " + test);
+                scheduler.waitFor(test, missingValues);
                 continue;
             }
 
@@ -265,6 +297,10 @@ public class TajsTypeTester implements ITypeTester<Context> {
                     return true;
                 });
             });
+
+            if (!performed.contains(test)) {
+                scheduler.keep(test); // Also if the test threw an exception, such that the values it added are cleared in the next pass.
+            }
         }
         return progress;
     }
@@ -289,7 +325,7 @@ public class TajsTypeTester implements ITypeTester<Context> {
     private void performTest(Solver.SolverInterface c, Test test, Context newc) {
         if (DEBUG) System.out.println("Performing test " + test);
 
-        TajsTypeChecker typeChecker = new TajsTypeChecker(test, c, info, violationsOracle);
+        TajsTypeChecker typeChecker = new TajsTypeChecker(test, c, this);
         TajsTestVisitor visitor = new TajsTestVisitor(c, typeChecker, this, info, valueHandler);
 
         // attempting to perform the test in the local context
@@ -319,7 +355,7 @@ public class TajsTypeTester implements ITypeTester<Context> {
 
     boolean checkPropertyReads(Test testToBlame, List<PropertyReadTest> propertyReads, Solver.SolverInterface c, String pathToBlame) {
         boolean typeChecked = true;
-        TajsTypeChecker typeChecker = new TajsTypeChecker(testToBlame, c, info, violationsOracle);
+        TajsTypeChecker typeChecker = new TajsTypeChecker(testToBlame, c, this);
         for (PropertyReadTest propertyRead : propertyReads) {
             Value baseValue = valueHandler.findFeedbackValue(new TypeWithContext(propertyRead.getBaseType(), propertyRead.getTypeContext()));
             PropVarOperations pc = c.getAnalysis().getPropVarOperations();
@@ -594,6 +630,29 @@ public class TajsTypeTester implements ITypeTester<Context> {
         return typeCheckedTests;
     }
 
+    public TestScheduler getTestScheduler() {
+        return scheduler;
+    }
+
+    public TajsVerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+    public PartialResultWriter getPartialResultWriter() {
+        return partialResultWriter;
+    }
+
+    /**
+     * @return the hints that were used, or null.
+     */
+    public AnalysisHints getAnalysisHints() {
+        return analysisHints;
+    }
+
+    public String getAnalysisHintsDescription() {
+        return analysisHintsDescription;
+    }
+
     public RetractionPolicy getRetractionPolicy() {
         return retractionPolicy;
     }
@@ -0,0 +1,242 @@
+package dk.webbies.tajscheck.tajstester;
+
+import dk.brics.tajs.lattice.Bool;
+import dk.brics.tajs.lattice.ObjectLabel;
+import dk.brics.tajs.lattice.Value;
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.tajstester.data.TypeViolation;
+import dk.webbies.tajscheck.testcreator.test.check.Check;
+
+import java.util.*;
+
+/**
+ * The verdicts of TajsTypeChecker.getTypeViolations(), shared by all the TajsTypeCheckers of an analysis (there is one TajsTypeChecker per test, and its own cache is thrown away with it).
+ *
+ * A verdict is keyed by the check (by identity, the checks are interned, see TypeCheckCache), the type and the abstract value.
+ * The rest of what a verdict depends on is handled like this:
+ * - The path: the paths of the violations are saved relative to the path of the query.
+ *   This is only correct if the ViolationsOracle does not suppress any paths, otherwise the cache is not used.
+ * - The heap: every property read (and instanceof check) that was done while computing the verdict is saved with its result.
+ *   A verdict is only used if all of those still give the same result in the state of the query, otherwise it is recomputed and replaced.
+ *   This is how verdicts are invalidated when the abstract state grows.
+ * - The messages: a violation of an object prints the object as it is in the state, so verdicts with such violations are not saved.
+ * - Coinductive assumptions: a verdict that used an assumption of the TajsTypeChecker (a check that was still being computed) is not saved.
+ *
+ * The least recently used verdicts are evicted when there are more than maxEntries verdicts.
+ */
+public class TajsVerdictCache {
+    public static int maxEntries = Integer.getInteger("tajscheck.verdictCacheSize", 50 * 1000); // 0 disables the cache.
+    public static int maxReads = Integer.getInteger("tajscheck.verdictCacheMaxReads", 500); // verdicts depending on more reads than this are not saved, checking the reads would cost about as much as the check.
+
+    private final int capacity;
+    private final Map<Key, Entry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+    private long evictions = 0;
+    private long notSaved = 0;
+
+    public TajsVerdictCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > TajsVerdictCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the verdict, if there is one that is still valid in the state of the checker.
+     */
+    synchronized Entry lookup(Check check, TypeWithContext type, Value value, TajsTypeChecker checker) {
+        Key key = new Key(check, type, value);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        for (Read read : entry.recording.reads) {
+            if (!read.isValid(checker)) {
+                invalidations++;
+                entries.remove(key);
+                return null;
+            }
+        }
+        hits++;
+        return entry;
+    }
+
+    synchronized void store(Check check, TypeWithContext type, Value value, String path, List<TypeViolation> violations, Recording recording) {
+        if (!recording.cacheable || recording.reads.size() > maxReads) {
+            notSaved++;
+            return;
+        }
+        List<TypeViolation> relative = new ArrayList<>(violations.size());
+        for (TypeViolation violation : violations) {
+            if (!violation.path.startsWith(path)) {
+                notSaved++;
+                return;
+            }
+            relative.add(violation.withPath(violation.path.substring(path.length())));
+        }
+        entries.put(new Key(check, type, value), new Entry(relative, new Recording(recording)));
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(entries.size(), hits, misses, invalidations, evictions, notSaved);
+    }
+
+    static final class Entry {
+        private final List<TypeViolation> violations;
+        private final Recording recording;
+
+        private Entry(List<TypeViolation> violations, Recording recording) {
+            this.violations = violations;
+            this.recording = recording;
+        }
+
+        List<TypeViolation> getViolations(String path) {
+            if (violations.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<TypeViolation> result = new ArrayList<>(violations.size());
+            for (TypeViolation violation : violations) {
+                result.add(violation.withPath(path + violation.path));
+            }
+            return result;
+        }
+
+        Recording getRecording() {
+            return recording;
+        }
+    }
+
+    /**
+     * What a verdict depends on, collected while it is computed.
+     */
+    static final class Recording {
+        private final List<Read> reads;
+        private boolean cacheable = true;
+
+        Recording() {
+            this.reads = new ArrayList<>();
+        }
+
+        private Recording(Recording recording) {
+            this.reads = new ArrayList<>(recording.reads);
+        }
+
+        void add(Recording other) {
+            reads.addAll(other.reads);
+            cacheable &= other.cacheable;
+        }
+
+        void add(Read read) {
+            reads.add(read);
+        }
+
+        void notCacheable() {
+            cacheable = false;
+        }
+    }
+
+    interface Read {
+        boolean isValid(TajsTypeChecker checker);
+    }
+
+    static final class PropertyRead implements Read {
+        private final Set<ObjectLabel> labels;
+        private final Value property;
+        private final Value result;
+
+        PropertyRead(Set<ObjectLabel> labels, Value property, Value result) {
+            this.labels = labels;
+            this.property = property;
+            this.result = result;
+        }
+
+        @Override
+        public boolean isValid(TajsTypeChecker checker) {
+            return checker.readProperty(labels, property).equals(result);
+        }
+    }
+
+    static final class InstanceOfRead implements Read {
+        private final String className;
+        private final Value value;
+        private final Bool result;
+
+        InstanceOfRead(String className, Value value, Bool result) {
+            this.className = className;
+            this.value = value;
+            this.result = result;
+        }
+
+        @Override
+        public boolean isValid(TajsTypeChecker checker) {
+            return checker.instanceOfGlobalQuietly(className, value).equals(result);
+        }
+    }
+
+    private static final class Key {
+        private final Check check;
+        private final TypeWithContext type;
+        private final Value value;
+        private final int hashCode;
+
+        private Key(Check check, TypeWithContext type, Value value) {
+            this.check = check;
+            this.type = type;
+            this.value = value;
+            this.hashCode = 31 * (31 * System.identityHashCode(check) + type.hashCode()) + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hashCode == key.hashCode && check == key.check && type.equals(key.type) && value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public static final class Statistics {
+        public final int size;
+        public final long hits;
+        public final long misses;
+        public final long invalidations; // lookups that found a verdict, that was no longer valid (these are not counted as misses).
+        public final long evictions;
+        public final long notSaved;
+
+        private Statistics(int size, long hits, long misses, long invalidations, long evictions, long notSaved) {
+            this.size = size;
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+            this.evictions = evictions;
+            this.notSaved = notSaved;
+        }
+
+        public double hitRate() {
+            long lookups = hits + misses + invalidations;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Verdict cache: %.1f%% hits (%d hits, %d misses, %d invalidated), %d verdicts, %d evicted, %d not saved",
+                    hitRate() * 100, hits, misses, invalidations, size, evictions, notSaved);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package dk.webbies.tajscheck.tajstester;
+
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.testcreator.test.Test;
+
+import java.util.*;
+
+/**
+ * Decides which tests TajsTypeTester.iterateAllNonPerformedTests() visits.
+ *
+ * The first pass of a round visits all the tests, later passes only visit the tests that might be performed now, and did not get performed in the previous pass:
+ * A test that was skipped because there was no feedback value for one of its types-to-test waits for a feedback value for that type (see TypeValuesHandler.addFeedbackValue()).
+ * A test that was skipped for another reason (the expansion-policy, or no values for its arguments), is visited in every pass, as those reasons are not indexed.
+ *
+ * Like before, the tests are visited in order, and a test that gets a value from a test before it in the same pass is visited in that pass.
+ */
+public class TestScheduler {
+    private final List<Test> tests;
+    private final Map<Test, Integer> indexes = new IdentityHashMap<>();
+
+    private final BitSet pending = new BitSet();
+    private final Map<TypeWithContext, List<Integer>> waiting = new HashMap<>();
+    private int cursor = -1;
+
+    private int rounds = 0;
+    private int passes = 0;
+    private long visits = 0;
+    private long fullScanVisits = 0;
+
+    public TestScheduler(List<Test> tests) {
+        this.tests = tests;
+        for (int i = 0; i < tests.size(); i++) {
+            indexes.put(tests.get(i), i);
+        }
+    }
+
+    /**
+     * A new round, where no tests have been performed yet.
+     */
+    public void startRound() {
+        waiting.clear();
+        pending.set(0, tests.size());
+        rounds++;
+    }
+
+    /**
+     * The tests to visit in a pass, tests that are woken (or kept) while iterating are included if they come after the current test.
+     */
+    public Iterable<Test> pass(Collection<Test> performed) {
+        cursor = -1;
+        passes++;
+        fullScanVisits += tests.size() - performed.size();
+        return () -> new Iterator<Test>() {
+            @Override
+            public boolean hasNext() {
+                return pending.nextSetBit(cursor + 1) >= 0;
+            }
+
+            @Override
+            public Test next() {
+                cursor = pending.nextSetBit(cursor + 1);
+                if (cursor < 0) {
+                    throw new NoSuchElementException();
+                }
+                pending.clear(cursor);
+                visits++;
+                return tests.get(cursor);
+            }
+        };
+    }
+
+    /**
+     * The test is visited again in the next pass.
+     */
+    public void keep(Test test) {
+        pending.set(indexes.get(test));
+    }
+
+    /**
+     * The test is visited again once a feedback value for one of the types is added.
+     */
+    public void waitFor(Test test, Collection<TypeWithContext> types) {
+        int index = indexes.get(test);
+        for (TypeWithContext type : types) {
+            waiting.computeIfAbsent(type, t -> new ArrayList<>()).add(index);
+        }
+    }
+
+    public void feedbackValueAdded(TypeWithContext type) {
+        List<Integer> woken = waiting.remove(type);
+        if (woken != null) {
+            woken.forEach(pending::set);
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(rounds, passes, visits, fullScanVisits);
+    }
+
+    public static final class Statistics {
+        public final int rounds;
+        public final int passes;
+        public final long visits;
+        public final long fullScanVisits; // the visits if every pass had visited every test that was not performed.
+
+        private Statistics(int rounds, int passes, long visits, long fullScanVisits) {
+            this.rounds = rounds;
+            this.passes = passes;
+            this.visits = visits;
+            this.fullScanVisits = fullScanVisits;
+        }
+
+        @Override
+        public String toString() {
+            return "Test scheduling: " + rounds + " rounds, " + passes + " passes, " + visits + " test visits (" + (fullScanVisits - visits) + " saved, out of " + fullScanVisits + ")";
+        }
+    }
+}
@@ -5,6 +5,7 @@ import dk.brics.tajs.analysis.Solver;
 import dk.brics.tajs.lattice.Value;
 import dk.webbies.tajscheck.TypeWithContext;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.tajstester.data.Timers;
 import dk.webbies.tajscheck.tajstester.typeCreator.SpecInstantiator;
 import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
 import dk.webbies.tajscheck.util.ArrayListMultiMap;
@@ -19,6 +20,8 @@ public class TypeValuesHandler {
     private final Map<Type, String> typeNames;
     private BenchmarkInfo info;
     private final SpecInstantiator instantiator;
+    private final TestScheduler scheduler;
+    private final Timers timers;
 
     private final MultiMap<TypeWithContext, Reference<Value>> typeValueMap = new ArrayListMultiMap<>();
     private MultiMap<Object, Reference<Value>> testValueMap = new ArrayListMultiMap<>();
@@ -28,14 +31,21 @@ public class TypeValuesHandler {
         this.typeNames = typeNames;
         this.info = info;
         this.instantiator = new SpecInstantiator(c, info, this, tajsTypeTester);
+        this.scheduler = tajsTypeTester.getTestScheduler();
+        this.timers = tajsTypeTester.getTimers();
     }
 
     public Value findFeedbackValue(TypeWithContext t) {
-        List<Value> result = typeValueMap.get(t).stream().map(Reference::getValue).filter(Objects::nonNull).collect(Collectors.toList());
-        if (result.isEmpty()) {
-            return null;
+        timers.start(Timers.Tags.FEEDBACK_VALUES);
+        try {
+            List<Value> result = typeValueMap.get(t).stream().map(Reference::getValue).filter(Objects::nonNull).collect(Collectors.toList());
+            if (result.isEmpty()) {
+                return null;
+            }
+            return Value.join(result);
+        } finally {
+            timers.stop(Timers.Tags.FEEDBACK_VALUES);
         }
-        return Value.join(result);
     }
 
     public Value createValue(Type type, TypeContext context) {
@@ -79,6 +89,15 @@ public class TypeValuesHandler {
     }
 
     public boolean addFeedbackValue(Object key, TypeWithContext type, Value v, Solver.SolverInterface c) {
+        timers.start(Timers.Tags.FEEDBACK_VALUES);
+        try {
+            return addFeedbackValueInner(key, type, v);
+        } finally {
+            timers.stop(Timers.Tags.FEEDBACK_VALUES);
+        }
+    }
+
+    private boolean addFeedbackValueInner(Object key, TypeWithContext type, Value v) {
         if (!hasBeenUpdatedMap.containsKey(type)) {
             hasBeenUpdatedMap.put(type, Value.makeNone());
         }
@@ -95,6 +114,7 @@ public class TypeValuesHandler {
         testValueMap.put(key, ref);
         info.typesUtil.forAllSuperTypes(type.getType(), type.getTypeContext(), (subType) -> {
             typeValueMap.put(subType, ref);
+            scheduler.feedbackValueAdded(subType);
         });
         return valueWasAdded.get();
     }
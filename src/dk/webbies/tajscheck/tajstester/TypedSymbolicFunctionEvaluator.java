@@ -110,7 +110,7 @@ public class TypedSymbolicFunctionEvaluator {
     }
 
     private Value evaluateCallToSymbolicFunction(FunctionCalls.CallInfo call, Solver.SolverInterface c, Function<String, String> path, TypeContext context, List<Signature> signatures, Tuple3<HostObject, AbstractNode, Context> key) {
-        TajsTypeChecker tajsTypeChecker = new TajsTypeChecker(null, c, info, tajsTypeTester.getViolationsOracle());
+        TajsTypeChecker tajsTypeChecker = new TajsTypeChecker(null, c, tajsTypeTester);
 
         if (signatures.size() == 1) {
             Signature signature = signatures.get(0);
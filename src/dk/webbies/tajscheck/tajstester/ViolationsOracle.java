@@ -33,6 +33,10 @@ public class ViolationsOracle {
         }
     }
 
+    public boolean hasSuppressions() {
+        return !toSuppress.getSuppressions().isEmpty();
+    }
+
     public static final TypeViolation suppresedViolationMarker = TypeViolation.definite(">Is fake", "Should never be reported");
 
     public boolean isTight() {
@@ -1,47 +1,141 @@
 package dk.webbies.tajscheck.tajstester.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.function.BiConsumer;
 
+/**
+ * A hierarchical profiler, a section started while another section is running is recorded as a child of that section.
+ *
+ * Every thread has its own tree of sections, such that starting and stopping a section does not need any synchronization.
+ * A section that is started again while it is running (like a recursive call) is counted, but not timed twice.
+ * If a section is not stopped (because of an exception), it is stopped together with the section it is running inside.
+ *
+ * The profiler can be disabled (and enabled) at any time, a section that was started while the profiler was disabled is not recorded (also if it is stopped while the profiler is enabled),
+ * and a section that was started while it was enabled is recorded until it is stopped (also if that happens while the profiler is disabled).
+ * The results should be read when the profiled threads are done.
+ */
 public class Timers {
+    public static boolean enabledByDefault = Boolean.parseBoolean(System.getProperty("tajscheck.profile", "true"));
 
-    private final boolean ENABLED = true;
+    public static final Timers DISABLED = new Timers(false);
 
     public enum Tags {
         PROPAGATING_TO_THIS_CONTEXT,
         PROPAGATING_BACK_TO_LOOP_ENTRY,
         INITIAL_STATE_PROPAGATION_TO_TEST_ENTRY,
-        TEST_TRANSFER
+        TEST_TRANSFER,
+        ANALYSIS, // everything TAJS does, the time that is not in any of the other sections is the TAJS solver.
+        TYPE_TESTS, // TajsTypeTester.triggerTypeTests
+        TYPE_CHECKING, // TajsTypeChecker
+        VALUE_INSTANTIATION, // SpecInstantiator
+        FEEDBACK_VALUES, // TypeValuesHandler
     }
 
-    private List<Long> starts = new ArrayList<>();
+    private static final Tags[] TAGS = Tags.values();
 
-    private List<Long> totals = new ArrayList<>();
+    private volatile boolean enabled;
 
-    public void start(Tags tag) {
-        if(!ENABLED) return;
-        if (tag.ordinal() >= starts.size())
-            expand(starts, tag.ordinal());
+    private final List<ThreadProfile> threads = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<ThreadProfile> profile = ThreadLocal.withInitial(() -> {
+        ThreadProfile result = new ThreadProfile(Thread.currentThread().getName());
+        threads.add(result);
+        return result;
+    });
+
+    public Timers() {
+        this(enabledByDefault);
+    }
+
+    public Timers(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
 
-        starts.set(tag.ordinal(), System.currentTimeMillis());
+    public void setEnabled(boolean enabled) {
+        if (this == DISABLED) {
+            throw new IllegalStateException();
+        }
+        this.enabled = enabled;
+    }
+
+    public void start(Tags tag) {
+        if (this == DISABLED) return;
+        ThreadProfile profile = this.profile.get();
+        Node current = profile.current;
+        if (!enabled) {
+            profile.push(tag, null, current);
+            return;
+        }
+        if (current.tag == tag) {
+            current.count++;
+            profile.push(tag, null, current); // Not timed again.
+            return;
+        }
+        Node child = current.children[tag.ordinal()];
+        if (child == null) {
+            child = current.children[tag.ordinal()] = new Node(tag, current);
+        }
+        child.count++;
+        profile.push(tag, child, current);
+        profile.current = child;
+        child.startedAt = System.nanoTime();
     }
 
     public void stop(Tags tag) {
-        if(!ENABLED) return;
-        if (tag.ordinal() < starts.size() && starts.get(tag.ordinal()) > 0) {
-            long start = starts.get(tag.ordinal());
-            long elapsed = System.currentTimeMillis() - start;
-            if (tag.ordinal() >= totals.size()) {
-                expand(totals, tag.ordinal());
+        if (this == DISABLED) return;
+        long now = System.nanoTime();
+        ThreadProfile profile = this.profile.get();
+        int frame = profile.depth - 1;
+        while (frame >= 0 && profile.tags[frame] != tag) {
+            frame--;
+        }
+        if (frame < 0) {
+            return; // was not started.
+        }
+        // The sections started after this one were not stopped, they are stopped now.
+        for (int i = profile.depth - 1; i >= frame; i--) {
+            if (profile.timed[i] != null) {
+                profile.timed[i].stop(now);
             }
-            Long old = totals.get(tag.ordinal());
-            totals.set(tag.ordinal(), old + elapsed);
         }
+        profile.current = profile.previous[frame];
+        profile.pop(frame);
     }
 
-    private void expand(List<Long> l, int index) {
-        while (l.size() < index + 1) {
-            l.add(0L);
+    /**
+     * The sections of all threads, merged by their path, every section is followed by the sections inside it.
+     */
+    public List<Entry> getEntries() {
+        Map<String, Entry> result = new LinkedHashMap<>();
+        for (ThreadProfile thread : snapshotThreads()) {
+            thread.root.forEach("", (path, node) -> result.computeIfAbsent(path, Entry::new).add(node));
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * The self-time (in microseconds) of every section, in the "folded stacks" format read by flame-graph tools (e.g. flamegraph.pl and speedscope).
+     * The first frame of every stack is the name of the thread.
+     */
+    public String toFoldedStacks() {
+        StringBuilder builder = new StringBuilder();
+        for (ThreadProfile thread : snapshotThreads()) {
+            thread.root.forEach(thread.name.replace(';', '_').replace(' ', '_'), (path, node) -> {
+                long self = node.selfNanos() / 1000;
+                if (self > 0) {
+                    builder.append(path).append(" ").append(self).append("\n");
+                }
+            });
+        }
+        return builder.toString();
+    }
+
+    private List<ThreadProfile> snapshotThreads() {
+        synchronized (threads) {
+            return new ArrayList<>(threads);
         }
     }
 
@@ -49,14 +143,107 @@ public class Timers {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("Time spents\n");
-        for (Tags t : Tags.values()) {
-            if (t.ordinal() < totals.size() && totals.get(t.ordinal()) != null) {
-                sb.append(t).append(": ").append(totals.get(t.ordinal()) / (double) 1000).append("s");
-            } else {
-                sb.append(t).append(": ").append(0);
+        for (Entry entry : getEntries()) {
+            int depth = entry.path.split(";").length - 1;
+            for (int i = 0; i < depth; i++) {
+                sb.append("   ");
             }
-            sb.append("\n");
+            sb.append(String.format(Locale.ROOT, "%s: %.3fs (self %.3fs, %d times)\n", entry.path.substring(entry.path.lastIndexOf(';') + 1), entry.totalMillis / 1000, entry.selfMillis / 1000, entry.count));
         }
         return sb.toString();
     }
+
+    /**
+     * A section, summed over all threads.
+     */
+    public static final class Entry {
+        public final String path; // the tags from the outermost section to this section, separated by ";".
+        public long count = 0;
+        public double totalMillis = 0;
+        public double selfMillis = 0;
+
+        private Entry(String path) {
+            this.path = path;
+        }
+
+        private void add(Node node) {
+            count += node.count;
+            totalMillis += node.totalNanos / 1e6;
+            selfMillis += node.selfNanos() / 1e6;
+        }
+    }
+
+    private static final class ThreadProfile {
+        private final String name;
+        private final Node root = new Node(null, null);
+        private Node current = root;
+
+        // The started sections that have not been stopped, innermost last.
+        // For every section: its tag, the node it is timed by (null if it is not timed, because the profiler was disabled or it was already running), and the node that was current before it.
+        private int depth = 0;
+        private Tags[] tags = new Tags[16];
+        private Node[] timed = new Node[16];
+        private Node[] previous = new Node[16];
+
+        private ThreadProfile(String name) {
+            this.name = name;
+        }
+
+        private void push(Tags tag, Node timedBy, Node previousNode) {
+            if (depth == tags.length) {
+                tags = Arrays.copyOf(tags, depth * 2);
+                timed = Arrays.copyOf(timed, depth * 2);
+                previous = Arrays.copyOf(previous, depth * 2);
+            }
+            tags[depth] = tag;
+            timed[depth] = timedBy;
+            previous[depth] = previousNode;
+            depth++;
+        }
+
+        private void pop(int newDepth) {
+            Arrays.fill(timed, newDepth, depth, null);
+            Arrays.fill(previous, newDepth, depth, null);
+            depth = newDepth;
+        }
+    }
+
+    private static final class Node {
+        private final Tags tag;
+        private final Node parent;
+        private final Node[] children = new Node[TAGS.length];
+
+        private long count = 0;
+        private long totalNanos = 0;
+        private long startedAt = 0;
+
+        private Node(Tags tag, Node parent) {
+            this.tag = tag;
+            this.parent = parent;
+        }
+
+        private void stop(long now) {
+            totalNanos += now - startedAt;
+        }
+
+        private long selfNanos() {
+            long result = totalNanos;
+            for (Node child : children) {
+                if (child != null) {
+                    result -= child.totalNanos;
+                }
+            }
+            return Math.max(result, 0);
+        }
+
+        private void forEach(String path, BiConsumer<String, Node> consumer) {
+            for (Node child : children) {
+                if (child != null) {
+                    String childPath = path.isEmpty() ? child.tag.toString() : path + ";" + child.tag;
+                    consumer.accept(childPath, child);
+                    child.forEach(childPath, consumer);
+                }
+            }
+        }
+    }
 }
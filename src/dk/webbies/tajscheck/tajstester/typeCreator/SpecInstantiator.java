@@ -13,6 +13,7 @@ import dk.webbies.tajscheck.benchmark.options.staticOptions.expansionPolicy.Late
 import dk.webbies.tajscheck.benchmark.options.staticOptions.filter.CopyObjectInstantiation;
 import dk.webbies.tajscheck.tajstester.TajsTypeTester;
 import dk.webbies.tajscheck.tajstester.TypeValuesHandler;
+import dk.webbies.tajscheck.tajstester.data.Timers;
 import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
 import dk.webbies.tajscheck.util.*;
 import org.apache.log4j.Logger;
@@ -406,15 +407,20 @@ public class SpecInstantiator {
     }
 
     public Value createValue(TypeWithContext type, String path) {
-        boolean canConstruct = canConstruct(type);
-        if (!canConstruct) {
-            return Value.makeNone();
-        }
+        tajsTypeTester.getTimers().start(Timers.Tags.VALUE_INSTANTIATION);
         try {
-            MiscInfo misc = new MiscInfo(path, type.getTypeContext(), null);
-            return instantiate(type.getType(), misc, null);
-        } catch (CannotConstructType e) {
-            return Value.makeNone();
+            boolean canConstruct = canConstruct(type);
+            if (!canConstruct) {
+                return Value.makeNone();
+            }
+            try {
+                MiscInfo misc = new MiscInfo(path, type.getTypeContext(), null);
+                return instantiate(type.getType(), misc, null);
+            } catch (CannotConstructType e) {
+                return Value.makeNone();
+            }
+        } finally {
+            tajsTypeTester.getTimers().stop(Timers.Tags.VALUE_INSTANTIATION);
         }
     }
 
@@ -0,0 +1,277 @@
+package dk.webbies.tajscheck.testcreator;
+
+import dk.au.cs.casa.typescript.types.Type;
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.testcreator.test.Test;
+import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
+import dk.webbies.tajscheck.util.IdentityHashSet;
+import dk.webbies.tajscheck.util.Util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Structural fingerprints of tests and types, such that a test created from one version of a declaration file can be recognized when TestCreator is run on a later version.
+ * Two tests get the same fingerprint if they have the same kind and path, and everything reachable from them is structurally the same (including the names the types have in the declaration file).
+ *
+ * The type-graph is cyclic, so fingerprints are computed per strongly connected component, from the shallow content of the types in the component and the fingerprints of the components they point to.
+ * All fingerprints are memoized, so fingerprinting every test of a benchmark only visits each type once.
+ */
+public class TestFingerprinter {
+    private static final String TYPES_PACKAGE = Type.class.getPackage().getName() + ".";
+    private static final Map<Class<?>, List<Field>> fieldCache = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<Type, String> typeNames;
+
+    private final Map<Object, Node> nodes = new IdentityHashMap<>();
+    private final Map<Object, String> fingerprints = new IdentityHashMap<>();
+
+    public TestFingerprinter(BenchmarkInfo info) {
+        this.typeNames = info.typeNames;
+    }
+
+    /**
+     * Identifies a test across runs, the fingerprint tells whether it changed.
+     * Not unique on its own, as different tests can have the same path.
+     */
+    public static String key(Test test) {
+        return test.getClass().getSimpleName() + ":" + test.getPath();
+    }
+
+    public String fingerprint(Test test) {
+        Node node = describe(test);
+        List<String> children = new ArrayList<>();
+        for (Object child : node.children) {
+            children.add(fingerprintNode(child));
+        }
+        Collections.sort(children);
+        return Util.sha256(key(test) + "\n" + node.shallow + "\n" + String.join(",", children));
+    }
+
+    public String fingerprint(TypeWithContext type) {
+        return Util.sha256(fingerprintNode(type.getType()) + "," + fingerprintNode(type.getTypeContext()));
+    }
+
+    public String fingerprint(Type type) {
+        return fingerprintNode(type);
+    }
+
+    private static final class Node {
+        final String shallow;
+        final List<Object> children;
+
+        Node(String shallow, List<Object> children) {
+            this.shallow = shallow;
+            this.children = children;
+        }
+    }
+
+    private static final class Frame {
+        final Object node;
+        final Iterator<Object> children;
+
+        Frame(Object node, Iterator<Object> children) {
+            this.node = node;
+            this.children = children;
+        }
+    }
+
+    /**
+     * Tarjan's algorithm (without recursion, the type-graphs can be deep), every finished component gets its fingerprint.
+     */
+    private String fingerprintNode(Object root) {
+        if (root == null) {
+            return "null";
+        }
+        String known = fingerprints.get(root);
+        if (known != null) {
+            return known;
+        }
+
+        Map<Object, Integer> index = new IdentityHashMap<>();
+        Map<Object, Integer> lowLink = new IdentityHashMap<>();
+        Deque<Object> stack = new ArrayDeque<>();
+        Set<Object> onStack = new IdentityHashSet<>();
+        Deque<Frame> work = new ArrayDeque<>();
+
+        index.put(root, 0);
+        lowLink.put(root, 0);
+        stack.push(root);
+        onStack.add(root);
+        work.push(new Frame(root, describe(root).children.iterator()));
+
+        while (!work.isEmpty()) {
+            Frame frame = work.peek();
+            if (frame.children.hasNext()) {
+                Object child = frame.children.next();
+                if (fingerprints.containsKey(child)) {
+                    continue;
+                }
+                if (!index.containsKey(child)) {
+                    index.put(child, index.size());
+                    lowLink.put(child, index.get(child));
+                    stack.push(child);
+                    onStack.add(child);
+                    work.push(new Frame(child, describe(child).children.iterator()));
+                } else if (onStack.contains(child)) {
+                    lowLink.put(frame.node, Math.min(lowLink.get(frame.node), index.get(child)));
+                }
+                continue;
+            }
+
+            work.pop();
+            if (!work.isEmpty()) {
+                Object parent = work.peek().node;
+                lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(frame.node)));
+            }
+            if (lowLink.get(frame.node).equals(index.get(frame.node))) {
+                List<Object> component = new ArrayList<>();
+                Object member;
+                do {
+                    member = stack.pop();
+                    onStack.remove(member);
+                    component.add(member);
+                } while (member != frame.node);
+                finishComponent(component);
+            }
+        }
+
+        return fingerprints.get(root);
+    }
+
+    private void finishComponent(List<Object> component) {
+        Set<Object> members = new IdentityHashSet<>(component);
+        List<String> shallows = new ArrayList<>();
+        List<String> successors = new ArrayList<>();
+        for (Object member : component) {
+            Node node = describe(member);
+            shallows.add(node.shallow);
+            for (Object child : node.children) {
+                if (!members.contains(child)) {
+                    successors.add(fingerprints.get(child));
+                }
+            }
+        }
+        Collections.sort(shallows);
+        Collections.sort(successors);
+        String componentFingerprint = Util.sha256(String.join("\n", shallows) + "\n" + String.join(",", successors));
+
+        // Including the shallow content, such that the members of a component can be told apart.
+        for (Object member : component) {
+            fingerprints.put(member, Util.sha256(componentFingerprint + "\n" + describe(member).shallow));
+        }
+    }
+
+    /**
+     * The shallow content of a node (primitive fields, and the labels of the nodes it points to), and the nodes it points to.
+     */
+    private Node describe(Object obj) {
+        Node existing = nodes.get(obj);
+        if (existing != null) {
+            return existing;
+        }
+        StringBuilder shallow = new StringBuilder(label(obj)).append("{");
+        List<Object> children = new ArrayList<>();
+        if (obj instanceof TypeContext) {
+            // Not using reflection, the implementations hold caches with every other context.
+            TypeContext context = (TypeContext) obj;
+            shallow.append("this=");
+            encode(context.getThisType(), shallow, children);
+            shallow.append(",map=");
+            encode(context.getMap(), shallow, children);
+        } else {
+            for (Field field : fields(obj.getClass())) {
+                shallow.append(field.getName()).append("=");
+                try {
+                    encode(field.get(obj), shallow, children);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                shallow.append(",");
+            }
+        }
+        Node node = new Node(shallow.append("}").toString(), children);
+        nodes.put(obj, node);
+        return node;
+    }
+
+    private void encode(Object value, StringBuilder builder, List<Object> children) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            builder.append('"').append(value).append('"');
+        } else if (isNode(value.getClass())) {
+            builder.append("@").append(label(value));
+            children.add(value);
+        } else if (value instanceof List || value.getClass().isArray()) {
+            List<?> list = value instanceof List ? (List<?>) value : arrayToList(value);
+            builder.append("[");
+            for (Object element : list) {
+                encode(element, builder, children);
+                builder.append(",");
+            }
+            builder.append("]");
+        } else if (value instanceof Collection) {
+            // No meaningful order, so the elements are sorted by their encoding.
+            List<String> elements = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                StringBuilder elementBuilder = new StringBuilder();
+                encode(element, elementBuilder, children);
+                elements.add(elementBuilder.toString());
+            }
+            Collections.sort(elements);
+            builder.append("{").append(String.join(",", elements)).append("}");
+        } else if (value instanceof Map) {
+            List<String> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                StringBuilder entryBuilder = new StringBuilder();
+                encode(entry.getKey(), entryBuilder, children);
+                entryBuilder.append(":");
+                encode(entry.getValue(), entryBuilder, children);
+                entries.add(entryBuilder.toString());
+            }
+            Collections.sort(entries);
+            builder.append("{").append(String.join(",", entries)).append("}");
+        } else {
+            // Something that is not part of the types (like BenchmarkInfo), ignored.
+            builder.append(value.getClass().getSimpleName());
+        }
+    }
+
+    private String label(Object obj) {
+        String name = obj instanceof Type ? typeNames.get(obj) : null;
+        return name == null ? obj.getClass().getSimpleName() : obj.getClass().getSimpleName() + " " + name;
+    }
+
+    private static boolean isNode(Class<?> clazz) {
+        return !clazz.isEnum() && (clazz.getName().startsWith(TYPES_PACKAGE) || TypeContext.class.isAssignableFrom(clazz) || Test.class.isAssignableFrom(clazz));
+    }
+
+    private static List<Object> arrayToList(Object array) {
+        List<Object> result = new ArrayList<>();
+        for (int i = 0; i < Array.getLength(array); i++) {
+            result.add(Array.get(array, i));
+        }
+        return result;
+    }
+
+    private static List<Field> fields(Class<?> clazz) {
+        return fieldCache.computeIfAbsent(clazz, c -> {
+            List<Field> result = new ArrayList<>();
+            for (Class<?> current = c; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    result.add(field);
+                }
+            }
+            result.sort(Comparator.comparing(field -> field.getDeclaringClass().getName() + "." + field.getName()));
+            return result;
+        });
+    }
+}
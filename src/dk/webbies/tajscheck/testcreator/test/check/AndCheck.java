@@ -30,9 +30,14 @@ public class AndCheck implements Check {
         return checks != null ? checks.equals(andCheck.checks) : andCheck.checks == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        return checks != null ? checks.hashCode() : 0;
+        if (hashCode == 0) {
+            hashCode = checks != null ? checks.hashCode() : 0;
+        }
+        return hashCode;
     }
 
     @Override
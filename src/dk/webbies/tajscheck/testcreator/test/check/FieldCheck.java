@@ -41,11 +41,16 @@ public class FieldCheck implements Check, CanHaveSubTypeCheck {
         return field != null ? field.equals(that.field) : that.field == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        int result = checks != null ? checks.hashCode() : 0;
-        result = 31 * result + (field != null ? field.hashCode() : 0);
-        return result;
+        if (hashCode == 0) {
+            int result = checks != null ? checks.hashCode() : 0;
+            result = 31 * result + (field != null ? field.hashCode() : 0);
+            hashCode = result;
+        }
+        return hashCode;
     }
 
     @Override
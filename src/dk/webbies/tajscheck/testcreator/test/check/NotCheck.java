@@ -26,9 +26,14 @@ public class NotCheck implements Check {
         return check != null ? check.equals(notCheck.check) : notCheck.check == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        return check != null ? check.hashCode() : 0;
+        if (hashCode == 0) {
+            hashCode = check != null ? check.hashCode() : 0;
+        }
+        return hashCode;
     }
 
     @Override
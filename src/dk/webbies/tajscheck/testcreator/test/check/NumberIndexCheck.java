@@ -30,9 +30,14 @@ public class NumberIndexCheck implements Check, CanHaveSubTypeCheck {
         return subCheck != null ? subCheck.equals(that.subCheck) : that.subCheck == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        return subCheck != null ? subCheck.hashCode() : 0;
+        if (hashCode == 0) {
+            hashCode = subCheck != null ? subCheck.hashCode() : 0;
+        }
+        return hashCode;
     }
 
     @Override
@@ -33,9 +33,14 @@ public class OrCheck implements Check {
         return checks != null ? checks.equals(orCheck.checks) : orCheck.checks == null;
     }
 
+    private int hashCode = 0;
+
     @Override
     public int hashCode() {
-        return checks != null ? checks.hashCode() : 0;
+        if (hashCode == 0) {
+            hashCode = checks != null ? checks.hashCode() : 0;
+        }
+        return hashCode;
     }
 
     @Override
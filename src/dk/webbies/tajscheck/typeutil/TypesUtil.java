@@ -4,6 +4,7 @@ import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.types.*;
 import dk.webbies.tajscheck.TypeWithContext;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.parsespec.EnvironmentBaseline;
 import dk.webbies.tajscheck.parsespec.ParseDeclaration;
 import dk.webbies.tajscheck.typeutil.typeContext.OptimizingTypeContext;
 import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
@@ -278,25 +279,17 @@ public class TypesUtil {
     }
 
     public static Set<Type> collectNativeTypes(SpecReader spec, SpecReader emptySpec) {
-        Map<Type, String> specNames = ParseDeclaration.getTypeNamesMap(spec);
-
-        Map<Type, String> nativeNameMap = ParseDeclaration.getTypeNamesMap(emptySpec);
-        Set<String> nativeNames = new HashSet<>(nativeNameMap.values());
+        return collectNativeTypes(spec, EnvironmentBaseline.of(emptySpec));
+    }
 
-        Map<String, Type> inverseNativeNameMap = new HashMap<>();
-        for (Map.Entry<Type, String> entry : nativeNameMap.entrySet()) {
-            if (inverseNativeNameMap.containsKey(entry.getValue())) {
-                inverseNativeNameMap.put(entry.getValue(), null);
-            } else {
-                inverseNativeNameMap.put(entry.getValue(), entry.getKey());
-            }
-        }
+    public static Set<Type> collectNativeTypes(SpecReader spec, EnvironmentBaseline environment) {
+        Map<Type, String> specNames = ParseDeclaration.getTypeNamesMap(spec);
 
         return specNames.entrySet().stream().filter(entry -> {
-            if (!nativeNames.contains(entry.getValue())) {
+            if (!environment.nativeNames.contains(entry.getValue())) {
                 return false;
             }
-            Type nativeType = inverseNativeNameMap.get(entry.getValue());
+            Type nativeType = environment.nativeTypesByName.get(entry.getValue());
             if (nativeType == null) {
                 return false;
             }
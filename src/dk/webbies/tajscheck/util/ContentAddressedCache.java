@@ -0,0 +1,251 @@
+package dk.webbies.tajscheck.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache, where an entry is identified by the SHA-256 of everything that went into computing it (arguments, the content of input files, and the version of the tools used).
+ * So an entry never has to be invalidated, it is just never looked up again.
+ *
+ * Entries are written to a temporary file and then renamed, such that a reader never sees a partially written entry.
+ * Computing an entry is guarded by a file lock, such that concurrent JVMs (and threads) compute each entry only once.
+ * When the total size of the cache exceeds maxBytes, the least recently used entries are deleted.
+ */
+public class ContentAddressedCache {
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static ContentAddressedCache instance = null;
+
+    /**
+     * Can be set using -Dtajscheck.cacheMaxMB=N.
+     */
+    public static long defaultMaxBytes = Long.getLong("tajscheck.cacheMaxMB", 2048) * 1024 * 1024;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final Map<String, Object> keyLocks = new ConcurrentHashMap<>();
+    private final Map<Path, String> toolVersions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public ContentAddressedCache(File dir, long maxBytes) {
+        this.dir = dir.toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized ContentAddressedCache get() {
+        if (instance == null) {
+            instance = new ContentAddressedCache(new File("cache"), defaultMaxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * @param name a human readable prefix of the file name of the entry.
+     * @param arguments everything that is not a file, that affects the result of compute.
+     * @param inputs files whose content affects the result of compute.
+     * @param tools directories containing tools that compute depends on. Their version is a fingerprint of the names, sizes and modification times of their files, computed once per directory.
+     * @param compute computes the entry if it is not in the cache.
+     */
+    public String getOrCompute(String name, List<String> arguments, List<File> inputs, List<File> tools, Supplier<String> compute) throws IOException {
+        String key = key(name, arguments, inputs, tools);
+
+        Files.createDirectories(dir);
+        Path entry = dir.resolve(key);
+
+        if (!Util.alwaysRecreate) {
+            String cached = read(entry);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        Object keyLock = keyLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (keyLock) {
+            try (FileChannel channel = FileChannel.open(dir.resolve(key + LOCK_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lock(channel)) {
+                if (!Util.alwaysRecreate) {
+                    // Another process might have computed it while we waited for the lock.
+                    String cached = read(entry);
+                    if (cached != null) {
+                        hits.incrementAndGet();
+                        return cached;
+                    }
+                }
+
+                misses.incrementAndGet();
+                System.out.println("Creating " + entry + " from scratch.");
+                String result = compute.get();
+
+                Path tmp = Files.createTempFile(dir, key, TMP_SUFFIX);
+                try {
+                    Files.write(tmp, result.getBytes(StandardCharsets.UTF_8));
+                    try {
+                        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+
+                evictIfTooLarge(entry);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * The name of the entry getOrCompute() would use, see getOrCompute() for the arguments.
+     */
+    public String key(String name, List<String> arguments, List<File> inputs, List<File> tools) throws IOException {
+        if (!inputs.stream().allMatch(File::exists) || !tools.stream().allMatch(File::exists)) {
+            throw new RuntimeException("I cannot check against something that doesn't exist.");
+        }
+
+        MessageDigest digest = Util.sha256Digest();
+        for (String argument : arguments) {
+            update(digest, "arg:" + argument);
+        }
+        for (File input : inputs) {
+            update(digest, "file:" + input.getPath());
+            digest.update(Files.readAllBytes(input.toPath()));
+        }
+        for (File tool : tools) {
+            update(digest, "tool:" + tool.getPath() + ":" + toolVersion(tool.toPath()));
+        }
+        return sanitize(name) + "-" + Util.toHex(digest.digest()) + ".json";
+    }
+
+    private String read(Path entry) throws IOException {
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            // The modification time is used as the access time when evicting.
+            entry.toFile().setLastModified(System.currentTimeMillis());
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null; // not there, or evicted by someone else.
+        }
+    }
+
+    private FileLock lock(FileChannel channel) throws IOException {
+        while (true) {
+            try {
+                return channel.lock();
+            } catch (OverlappingFileLockException e) {
+                // Held by this JVM, but by another copy of this class (see TajsAnalysisSession).
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e1) {
+                    throw new RuntimeException(e1);
+                }
+            }
+        }
+    }
+
+    private void evictIfTooLarge(Path justWritten) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(dir)) {
+            entries = files
+                    .filter(file -> !file.toString().endsWith(LOCK_SUFFIX) && !file.toString().endsWith(TMP_SUFFIX))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        long totalSize = 0;
+        for (Path entry : entries) {
+            try {
+                BasicFileAttributes attr = Files.readAttributes(entry, BasicFileAttributes.class);
+                attributes.put(entry, attr);
+                totalSize += attr.size();
+            } catch (NoSuchFileException ignored) { }
+        }
+        if (totalSize <= maxBytes) {
+            return;
+        }
+
+        List<Path> leastRecentlyUsedFirst = new ArrayList<>(attributes.keySet());
+        leastRecentlyUsedFirst.sort(Comparator.comparing(entry -> attributes.get(entry).lastModifiedTime()));
+        for (Path entry : leastRecentlyUsedFirst) {
+            if (totalSize <= maxBytes) {
+                break;
+            }
+            if (entry.equals(justWritten)) {
+                continue;
+            }
+            if (Files.deleteIfExists(entry)) {
+                evictions.incrementAndGet();
+            }
+            // Worst case someone is computing this entry right now, and it is computed twice.
+            Files.deleteIfExists(Paths.get(entry + LOCK_SUFFIX));
+            totalSize -= attributes.get(entry).size();
+        }
+    }
+
+    private String toolVersion(Path toolDir) {
+        return toolVersions.computeIfAbsent(toolDir.toAbsolutePath(), absDir -> {
+            MessageDigest digest = Util.sha256Digest();
+            try (Stream<Path> files = Files.walk(absDir)) {
+                files
+                        .filter(file -> !file.toString().contains(File.separator + "node_modules" + File.separator))
+                        .filter(file -> !file.toString().contains(File.separator + ".git"))
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .forEach(file -> {
+                            File asFile = file.toFile();
+                            update(digest, absDir.relativize(file) + ":" + asFile.length() + ":" + asFile.lastModified() + "\n");
+                        });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return Util.toHex(digest.digest());
+        });
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get());
+    }
+
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+
+        private Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+        }
+    }
+
+    private static void update(MessageDigest digest, String str) {
+        digest.update(str.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[/\\\\:\"]", "");
+    }
+}
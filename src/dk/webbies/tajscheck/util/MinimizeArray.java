@@ -1,146 +1,196 @@
 package dk.webbies.tajscheck.util;
 
-import java.io.IOException;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
 
 /**
  * Created by erik1 on 23-01-2017.
+ *
+ * Delta debugging of an array: chunks are removed as long as the test still succeeds, with smaller and smaller chunks.
+ * The candidates (the array without a chunk) are tested speculatively in parallel, a thread starts on the next candidate as soon as it is done with the previous one.
+ * When a candidate succeeds, the candidates that are still running are cancelled (they contain the removed chunk) and tried again on the smaller array.
+ *
+ * Every tested subset is remembered, such that the same subset is never tested twice (the last pass over an array that did not change is then free).
  */
 public class MinimizeArray {
+    public static int defaultThreads = Integer.getInteger("tajscheck.minimizeThreads", 2);
 
     private static final ExecutorService pool = Executors.newCachedThreadPool();
 
-    public static <T> T[] minimizeArray(Function<T[], Boolean> test, T[] array) throws IOException {
+    public static <T> T[] minimizeArray(Function<T[], Boolean> test, T[] array) {
         return minimizeArray(1, test, array);
     }
 
-    public static <T> T[] minimizeArray(int threads, Function<T[], Boolean> test, T[] array) throws IOException {
-        for (int sz = array.length >>> 1; sz > 0; sz >>>= 1) {
-            System.out.println("  chunk size " + sz);
-            int nchunks = (int) Math.floor(array.length / sz);
-            List<Function<T[], T[]>> runGroup = null;
-            for (int i = nchunks - 1; i >= 0; --i) {
-                if (runGroup == null || runGroup.size() >= threads) {
-                    if (runGroup != null) {
-                        array = runGroup(array, runGroup);
-                    }
-                    runGroup = new ArrayList<>();
+    public static <T> T[] minimizeArray(int threads, Function<T[], Boolean> test, T[] array) {
+        return minimizeArrayQuick(threads, (candidate) -> test.apply(candidate) ? candidate : null, array);
+    }
+
+    /**
+     * Repeats the minimization until no chunk can be removed.
+     *
+     * @param test returns null if the candidate does not satisfy the condition, otherwise the part of the candidate that is needed (it can just return the candidate).
+     */
+    public static <T> T[] minimizeArrayQuick(int threads, Function<T[], T[]> test, T[] array) {
+        return new Minimizer<>(Math.max(1, threads), test, array).minimize();
+    }
+
+    private static final class Minimizer<T> {
+        private final int threads;
+        private final Function<T[], T[]> test;
+        private final T[] original;
+
+        // Subsets are represented by the indexes into the original array they contain.
+        // A tested subset maps to the subset the test returned, or to empty if the test failed.
+        private final Map<BitSet, Optional<BitSet>> tested = new ConcurrentHashMap<>();
+        private final CompletionService<Optional<BitSet>> completion = new ExecutorCompletionService<>(pool);
+
+        private BitSet current;
+        private int memoHits = 0;
+
+        private Minimizer(int threads, Function<T[], T[]> test, T[] original) {
+            this.threads = threads;
+            this.test = test;
+            this.original = original;
+            this.current = new BitSet(original.length);
+            this.current.set(0, original.length);
+        }
+
+        private T[] minimize() {
+            int prevSize = -1;
+            while (prevSize != current.cardinality()) {
+                prevSize = current.cardinality();
+                for (int sz = prevSize >>> 1; sz > 0; sz >>>= 1) {
+                    System.out.println("  chunk size " + sz + " arr(" + current.cardinality() + ")");
+                    removeChunks(sz);
                 }
-                int finalI = i;
-                int finalSz = sz;
-                runGroup.add((finalArray) -> removeChunk(test, finalArray, finalSz, nchunks, finalI));
             }
-            array = runGroup(array, runGroup);
+            System.out.println("  tested " + tested.size() + " subsets, " + memoHits + " were already tested");
+            return toArray(current);
         }
-        return array;
-    }
 
-    public static <T> T[] minimizeArrayQuick(int threads, Function<T[], T[]> test, T[] array) throws IOException {
-        for (int sz = array.length >>> 1; sz > 0; sz >>>= 1) {
-            System.out.println("  chunk size " + sz);
-            int nchunks = (int) Math.floor(array.length / sz);
-            List<Function<T[], T[]>> runGroup = null;
-            for (int i = nchunks - 1; i >= 0; --i) {
-                if (runGroup == null || runGroup.size() >= threads) {
-                    if (runGroup != null) {
-                        array = runGroup(array, runGroup);
-                    }
-                    runGroup = new ArrayList<>();
+        private void removeChunks(int sz) {
+            int[] indexes = current.stream().toArray();
+            int nchunks = indexes.length / sz;
+            List<BitSet> chunks = new ArrayList<>();
+            for (int i = 0; i < nchunks; i++) {
+                int hi = i == nchunks - 1 ? indexes.length : (i + 1) * sz;
+                BitSet chunk = new BitSet(original.length);
+                for (int j = i * sz; j < hi; j++) {
+                    chunk.set(indexes[j]);
                 }
-                int finalI = i;
-                int finalSz = sz;
-                runGroup.add((finalArray) -> removeChunkQuick(test, finalArray, finalSz, nchunks, finalI));
+                chunks.add(chunk);
             }
-            array = runGroup(array, runGroup);
-        }
-        return array;
-    }
 
-    private static <T> T[] runGroup(T[] array, List<Function<T[], T[]>> runGroup) {
-        CountDownLatch latch = new CountDownLatch(runGroup.size());
-        AtomicReference<T[]> ref = new AtomicReference<>(array);
-        for (Function<T[], T[]> callable : runGroup) {
-            pool.submit(() -> {
-                try {
-                    T[] result = callable.apply(ref.get());
-                    if (result.length < ref.get().length) {
-                        ref.set(result);
+            // From the back, like the sequential algorithm.
+            TreeSet<Integer> pending = new TreeSet<>(Comparator.reverseOrder());
+            for (int i = 0; i < nchunks; i++) {
+                pending.add(i);
+            }
+            Map<Future<Optional<BitSet>>, Integer> running = new HashMap<>();
+
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                while (running.size() < threads && !pending.isEmpty()) {
+                    int chunk = pending.pollFirst();
+                    BitSet candidate = (BitSet) current.clone();
+                    candidate.andNot(chunks.get(chunk));
+                    // Nothing to remove (a previous result already removed it), or removing everything.
+                    if (candidate.cardinality() == current.cardinality() || candidate.isEmpty()) {
+                        continue;
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException();
-                } finally {
-                    latch.countDown();
+                    Optional<BitSet> known = tested.get(candidate);
+                    if (known != null) {
+                        memoHits++;
+                        if (known.isPresent()) {
+                            accept(known.get(), running, pending);
+                        }
+                        continue;
+                    }
+                    System.out.println("    chunk #" + chunk + " size(" + sz + ") arr(" + current.cardinality() + ")");
+                    running.put(completion.submit(() -> runTest(candidate)), chunk);
+                }
+                if (running.isEmpty()) {
+                    continue;
                 }
-            });
-        }
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
-        }
-        array = ref.get();
-        return array;
-    }
 
-    private static <T> T[] removeChunkQuick(Function<T[], T[]> test, T[] array, int sz, int nchunks, int i) {
-        // try removing chunk i
-        System.out.println("    chunk #" + i + " size(" + sz + ") arr(" + array.length + ")");
-        int lo = i * sz;
-        int hi = i == nchunks - 1 ? array.length : (i + 1) * sz;
-
-        // avoid creating empty array if nonempty is set
-        if (lo > 0 || hi < array.length) {
-            T[] orgArray = array.clone();
-            array = deleteFromArray(array, lo, hi - lo);
-
-            T[] newArr = test.apply(array);
-            if (newArr == null) {
-                array = orgArray;
-            } else {
-                array = newArr;
+                Future<Optional<BitSet>> done = take();
+                if (running.remove(done) == null) {
+                    continue; // Cancelled.
+                }
+                Optional<BitSet> result;
+                try {
+                    result = done.get();
+                } catch (ExecutionException e) {
+                    System.err.println("    the test failed with an exception: " + e.getCause());
+                    result = Optional.empty();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (result.isPresent()) {
+                    accept(result.get(), running, pending);
+                }
             }
-
         }
-        return array;
-    }
 
-    private static <T> T[] removeChunk(Function<T[], Boolean> test, T[] array, int sz, int nchunks, int i) {
-        // try removing chunk i
-        System.out.println("    chunk #" + i + " size(" + sz + ") arr(" + array.length + ")");
-        int lo = i * sz;
-        int hi = i == nchunks - 1 ? array.length : (i + 1) * sz;
-
-        // avoid creating empty array if nonempty is set
-        if (lo > 0 || hi < array.length) {
-            T[] orgArray = array.clone();
-            array = deleteFromArray(array, lo, hi - lo);
-
-            if (!test.apply(array)) {
-                array = orgArray;
+        private Optional<BitSet> runTest(BitSet candidate) {
+            T[] result = test.apply(toArray(candidate));
+            Optional<BitSet> outcome = result == null ? Optional.empty() : Optional.of(toBitSet(result, candidate));
+            if (!Thread.currentThread().isInterrupted()) {
+                // If it was cancelled, the outcome might just be the test being interrupted.
+                tested.put(candidate, outcome);
             }
+            return outcome;
         }
-        return array;
-    }
 
-    private static <T> T[] deleteFromArray(T[] array, int from, int length) {
-        List<T> result = new ArrayList<>();
+        private void accept(BitSet result, Map<Future<Optional<BitSet>>, Integer> running, TreeSet<Integer> pending) {
+            if (result.cardinality() >= current.cardinality()) {
+                return;
+            }
+            current = result;
+            // Everything still running was created from the old array, so it is tested again on the new one.
+            for (Map.Entry<Future<Optional<BitSet>>, Integer> entry : running.entrySet()) {
+                entry.getKey().cancel(true);
+                pending.add(entry.getValue());
+            }
+            running.clear();
+        }
 
-        for (int i = 0; i < Math.min(from, array.length); i++) {
-            result.add(array[i]);
+        private Future<Optional<BitSet>> take() {
+            try {
+                return completion.take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
         }
-        for (int i = from + length; i < array.length; i++) {
-            result.add(array[i]);
+
+        private T[] toArray(BitSet subset) {
+            //noinspection unchecked
+            T[] result = (T[]) Array.newInstance(original.getClass().getComponentType(), subset.cardinality());
+            int i = 0;
+            for (int index = subset.nextSetBit(0); index >= 0; index = subset.nextSetBit(index + 1)) {
+                result[i++] = original[index];
+            }
+            return result;
         }
 
-        return result.toArray((T[]) Array.newInstance(array.getClass().getComponentType(), 0));
+        /**
+         * The elements are found by identity among the elements of the candidate (the same object can appear more than once).
+         */
+        private BitSet toBitSet(T[] result, BitSet candidate) {
+            Map<T, Deque<Integer>> indexes = new IdentityHashMap<>();
+            for (int index = candidate.nextSetBit(0); index >= 0; index = candidate.nextSetBit(index + 1)) {
+                indexes.computeIfAbsent(original[index], element -> new ArrayDeque<>()).add(index);
+            }
+            BitSet bits = new BitSet(original.length);
+            for (T element : result) {
+                Deque<Integer> elementIndexes = indexes.get(element);
+                if (elementIndexes == null || elementIndexes.isEmpty()) {
+                    throw new RuntimeException("The test returned an element that was not in the array it was given");
+                }
+                bits.set(elementIndexes.poll());
+            }
+            return bits;
+        }
     }
-
 }
@@ -0,0 +1,222 @@
+package dk.webbies.tajscheck.util;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Deep copies an object graph, preserving identity (an object reachable through two paths in the original is one object in the copy) and cycles.
+ *
+ * Immutable values (strings, boxed primitives, enums, classes) and objects from the JDK that are not collections are shared between the original and the copy.
+ * Other objects are created through one of their own constructors, and then every field is set to (the copy of) the value in the original, no internal APIs are used to create objects.
+ * If no constructor of a class accepts default arguments, the copy fails with a RuntimeException.
+ * Works on arbitrarily deep graphs, as it uses a worklist instead of recursion.
+ */
+public final class ObjectGraphCopier {
+    private static final Map<Class<?>, List<Field>> fieldCache = Collections.synchronizedMap(new HashMap<>());
+    private static final Map<Class<?>, List<Constructor<?>>> constructorCache = Collections.synchronizedMap(new HashMap<>());
+    private static final Map<Class<?>, Optional<Constructor<?>>> collectionConstructorCache = Collections.synchronizedMap(new HashMap<>());
+
+    private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+    private final Deque<Object> toFill = new ArrayDeque<>();
+    private final List<Runnable> fillCollections = new ArrayList<>();
+
+    private ObjectGraphCopier() {}
+
+    public static <T> T deepCopy(T obj) {
+        ObjectGraphCopier copier = new ObjectGraphCopier();
+        @SuppressWarnings("unchecked")
+        T result = (T) copier.shell(obj);
+        while (!copier.toFill.isEmpty()) {
+            copier.fill(copier.toFill.pop());
+        }
+        // Collections are filled last, and inner collections before outer ones, such that hashCodes are computed on the finished objects.
+        for (int i = copier.fillCollections.size() - 1; i >= 0; i--) {
+            copier.fillCollections.get(i).run();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the (not yet filled) copy of an object.
+     */
+    private Object shell(Object obj) {
+        if (obj == null || isShared(obj.getClass())) {
+            return obj;
+        }
+        Object existing = copies.get(obj);
+        if (existing != null) {
+            return existing;
+        }
+        Class<?> clazz = obj.getClass();
+        Object copy;
+        if (clazz.isArray()) {
+            if (clazz.getComponentType().isPrimitive()) {
+                copy = arrayCopyOfPrimitives(obj);
+                copies.put(obj, copy);
+                return copy;
+            }
+            copy = Array.newInstance(clazz.getComponentType(), Array.getLength(obj));
+        } else if (obj instanceof Map) {
+            copy = emptyMapLike((Map<?, ?>) obj);
+        } else if (obj instanceof Collection) {
+            copy = emptyCollectionLike((Collection<?>) obj);
+        } else if (isJDK(clazz)) {
+            return obj;
+        } else {
+            copy = allocate(clazz);
+        }
+        copies.put(obj, copy);
+        toFill.push(obj);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fill(Object obj) {
+        Object copy = copies.get(obj);
+        Class<?> clazz = obj.getClass();
+        if (clazz.isArray()) {
+            for (int i = 0; i < Array.getLength(obj); i++) {
+                Array.set(copy, i, shell(Array.get(obj, i)));
+            }
+        } else if (obj instanceof Map) {
+            List<Object> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                entries.add(shell(entry.getKey()));
+                entries.add(shell(entry.getValue()));
+            }
+            fillCollections.add(() -> {
+                for (int i = 0; i < entries.size(); i += 2) {
+                    ((Map<Object, Object>) copy).put(entries.get(i), entries.get(i + 1));
+                }
+            });
+        } else if (obj instanceof Collection) {
+            List<Object> elements = new ArrayList<>();
+            for (Object element : (Collection<?>) obj) {
+                elements.add(shell(element));
+            }
+            fillCollections.add(() -> ((Collection<Object>) copy).addAll(elements));
+        } else {
+            try {
+                for (Field field : fields(clazz)) {
+                    Object value = field.get(obj);
+                    field.set(copy, field.getType().isPrimitive() ? value : shell(value));
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static boolean isShared(Class<?> clazz) {
+        return clazz == String.class
+                || clazz == Boolean.class || clazz == Character.class
+                || Number.class.isAssignableFrom(clazz) && isJDK(clazz)
+                || clazz.isEnum() || (clazz.getSuperclass() != null && clazz.getSuperclass().isEnum())
+                || clazz == Class.class
+                || clazz.isSynthetic(); // lambdas.
+    }
+
+    private static boolean isJDK(Class<?> clazz) {
+        String name = clazz.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk.");
+    }
+
+    private static Object arrayCopyOfPrimitives(Object array) {
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        //noinspection SuspiciousSystemArraycopy
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    private Map<?, ?> emptyMapLike(Map<?, ?> map) {
+        if (map instanceof TreeMap) {
+            return new TreeMap<>(((TreeMap<?, ?>) map).comparator());
+        }
+        if (map instanceof IdentityHashMap) {
+            return new IdentityHashMap<>();
+        }
+        Object instance = tryNewInstance(map.getClass());
+        if (instance != null) {
+            return (Map<?, ?>) instance;
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private Collection<?> emptyCollectionLike(Collection<?> collection) {
+        if (collection instanceof TreeSet) {
+            return new TreeSet<>(((TreeSet<?>) collection).comparator());
+        }
+        Object instance = tryNewInstance(collection.getClass());
+        if (instance != null) {
+            return (Collection<?>) instance;
+        }
+        return collection instanceof Set ? new LinkedHashSet<>() : new ArrayList<>();
+    }
+
+    private static Object tryNewInstance(Class<?> clazz) {
+        Optional<Constructor<?>> constructor = collectionConstructorCache.computeIfAbsent(clazz, c -> {
+            if (!Modifier.isPublic(c.getModifiers())) {
+                return Optional.empty(); // Things like Arrays.asList() or Collections.unmodifiableList().
+            }
+            try {
+                return Optional.of(c.getConstructor());
+            } catch (NoSuchMethodException e) {
+                return Optional.empty();
+            }
+        });
+        if (!constructor.isPresent()) {
+            return null;
+        }
+        try {
+            return constructor.get().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Object allocate(Class<?> clazz) {
+        // All fields are set afterwards, so the object is created with any of its constructors, given default values (null, 0 and false).
+        for (Constructor<?> constructor : constructors(clazz)) {
+            Object[] arguments = Arrays.stream(constructor.getParameterTypes()).map(ObjectGraphCopier::defaultValue).toArray();
+            try {
+                return constructor.newInstance(arguments);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // The constructor does not accept the default values, trying the next one.
+            }
+        }
+        throw new RuntimeException("Cannot create an instance of " + clazz.getName() + ", none of its constructors accept default values");
+    }
+
+    private static List<Constructor<?>> constructors(Class<?> clazz) {
+        return constructorCache.computeIfAbsent(clazz, c -> {
+            List<Constructor<?>> result = new ArrayList<>();
+            for (Constructor<?> constructor : c.getDeclaredConstructors()) {
+                constructor.setAccessible(true);
+                result.add(constructor);
+            }
+            result.sort(Comparator.comparingInt(Constructor::getParameterCount)); // The fewer arguments, the fewer chances to reject a default value.
+            return result;
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    private static List<Field> fields(Class<?> clazz) {
+        return fieldCache.computeIfAbsent(clazz, c -> {
+            List<Field> result = new ArrayList<>();
+            for (Class<?> current = c; current != null && !isJDK(current); current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    result.add(field);
+                }
+            }
+            return result;
+        });
+    }
+}
@@ -4,16 +4,20 @@ package dk.webbies.tajscheck.util;
 import dk.brics.tajs.lattice.Bool;
 import dk.brics.tajs.lattice.State;
 import dk.brics.tajs.lattice.Value;
+import dk.webbies.tajscheck.util.nodeRunner.NodeWorkerPool;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -44,10 +48,17 @@ public class Util {
     }
 
     public static String runScript(String args, File dir, int timeout) throws IOException {
+        return runScript(args, dir, timeout, null);
+    }
+
+    /**
+     * @param lineConsumer if not null, every line of stdout is given to this consumer as soon as it is printed, and stdout is not kept (the empty string is returned).
+     */
+    public static String runScript(String args, File dir, int timeout, Consumer<String> lineConsumer) throws IOException {
         Process process = Runtime.getRuntime().exec(args, null, dir);
 
         CountDownLatch latch = new CountDownLatch(2);
-        StreamGobbler inputGobbler = new StreamGobbler(process.getInputStream(), latch);
+        StreamGobbler inputGobbler = new StreamGobbler(process.getInputStream(), latch, lineConsumer);
         StreamGobbler errGobbler = new StreamGobbler(process.getErrorStream(), latch);
 
         if (timeout > 0) {
@@ -81,8 +92,12 @@ public class Util {
             throw new RuntimeException(e);
         }
 
-        String error = errGobbler.getResult();
+        reportScriptError(args, errGobbler.getResult());
+
+        return inputGobbler.getResult() == null ? "" : inputGobbler.getResult();
+    }
 
+    private static void reportScriptError(String args, String error) {
         if (Util.isDeltaDebugging) {
             error = String.join("\n", Arrays.stream(error.split("\n"))
                     .filter(str -> !str.contains("Initializers are not allowed in ambient contexts"))
@@ -97,7 +112,6 @@ public class Util {
                 throw new RuntimeException("Got an error running a node script: " + error);
             }
         }
-        return inputGobbler.getResult() == null ? "" : inputGobbler.getResult();
     }
 
     public static boolean isDeltaDebugging = false;
@@ -106,6 +120,40 @@ public class Util {
         return runScript("node " + args, dir, timeout);
     }
 
+    public static String runNodeScript(String args, File dir, int timeout, Consumer<String> lineConsumer) throws IOException {
+        return runScript("node " + args, dir, timeout, lineConsumer);
+    }
+
+    public static String runNodeJob(String args, int timeout) throws IOException {
+        return runNodeJob(args, null, timeout);
+    }
+
+    public static String runNodeJob(String args, File dir) throws IOException {
+        return runNodeJob(args, dir, -1);
+    }
+
+    /**
+     * Like runNodeScript, but runs the script in a pooled node worker if the NodeWorkerPool is enabled.
+     * Only use this for scripts that are known to behave in a worker (the test-drivers, istanbul and ts-spec-reader).
+     */
+    public static String runNodeJob(String args, File dir, int timeout) throws IOException {
+        return runNodeJob(args, dir, timeout, null);
+    }
+
+    /**
+     * @param lineConsumer see runScript().
+     */
+    public static String runNodeJob(String args, File dir, int timeout, Consumer<String> lineConsumer) throws IOException {
+        if (!NodeWorkerPool.isEnabled()) {
+            return runNodeScript(args, dir, timeout, lineConsumer);
+        }
+        NodeWorkerPool.Result result = NodeWorkerPool.get().run(args, dir, timeout, lineConsumer);
+
+        reportScriptError("node " + args, result.err);
+
+        return result.out;
+    }
+
     private static int waitForProcess(Process process, int timeout) throws IOException, InterruptedException {
         Worker worker = new Worker(process);
         worker.start();
@@ -280,11 +328,17 @@ public class Util {
     public static class StreamGobbler extends Thread {
         BufferedInputStream is;
         private CountDownLatch latch;
+        private final Consumer<String> lineConsumer;
         private String result;
 
         public StreamGobbler(InputStream is, CountDownLatch latch) {
+            this(is, latch, null);
+        }
+
+        public StreamGobbler(InputStream is, CountDownLatch latch, Consumer<String> lineConsumer) {
             this.is = new BufferedInputStream(is);
             this.latch = latch;
+            this.lineConsumer = lineConsumer;
             this.start();
         }
 
@@ -295,7 +349,16 @@ public class Util {
         @Override
         public void run() {
             try {
-                result = IOUtils.toString(is);
+                if (lineConsumer == null) {
+                    result = IOUtils.toString(is);
+                } else {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineConsumer.accept(line);
+                    }
+                    result = "";
+                }
                 is.close();
                 latch.countDown();
             } catch (IOException ioe) {
@@ -304,16 +367,6 @@ public class Util {
         }
     }
 
-    public static String getCachedOrRunNode(String cachePath, List<File> checkAgainst, String nodeArgs) throws IOException {
-        return getCachedOrRun(cachePath, checkAgainst, () -> {
-            try {
-                return Util.runNodeScript(nodeArgs);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
-    }
-
     public static <T, A> Function<A, T> fixpoint(BiFunction<A, Function<A, T>, T> inFunction) {
         return a -> inFunction.apply(a, fixpoint(inFunction));
     }
@@ -326,78 +379,6 @@ public class Util {
         return runNodeScript(nodeArgs, -1);
     }
 
-    public static String getCachedOrRun(String cachePath, List<File> checkAgainst, Supplier<String> run) throws IOException {
-        cachePath = cachePath.replaceAll("/", "");
-        cachePath = cachePath.replaceAll(":", "");
-        cachePath = cachePath.replaceAll("\\\\", "");
-
-        List<Boolean> exists = checkAgainst.stream().map(File::exists).collect(Collectors.toList());
-
-        if (!checkAgainst.stream().allMatch(File::exists)) {
-            throw new RuntimeException("I cannot check against something that doesn't exist.");
-        }
-
-        if (!new File("cache/").exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            new File("cache/").mkdir();
-        }
-
-        File cache = new File("cache/" + cachePath);
-
-        boolean recreate = false;
-        if (!cache.exists()) {
-            recreate = true;
-        } else {
-            long jsnapLastModified = getLastModified(cache);
-            for (File fileToCheckAgainst : checkAgainst) {
-                long jsLastModified = getLastModified(fileToCheckAgainst);
-                if (jsnapLastModified < jsLastModified) {
-                    recreate = true;
-                    break;
-                }
-            }
-
-        }
-
-        //noinspection PointlessBooleanExpression
-        if (recreate || alwaysRecreate) {
-            System.out.println("Creating " + cache.getPath() + " from scratch.");
-            String jsnap = run.get();
-            BufferedWriter writer = new BufferedWriter(new FileWriter(cache));
-            writer.write(jsnap);
-            writer.close();
-            return jsnap;
-        } else {
-            FileReader reader = new FileReader(cache);
-            String result = IOUtils.toString(reader);
-            reader.close();
-            return result;
-        }
-    }
-
-    // http://stackoverflow.com/questions/12249155/how-to-get-the-last-modified-date-and-time-of-a-directory-in-java#answer-12249411
-    private static long getLastModified(File file) {
-        if (file == null) {
-            return 0;
-        }
-        if (!file.exists()) {
-            return 0;
-        }
-        if (!file.isDirectory()) {
-            return file.lastModified();
-        } else {
-            File[] files = file.listFiles();
-            assert files != null;
-            if (files.length == 0) return file.lastModified();
-            Arrays.sort(files, (o1, o2) -> {
-                return Long.valueOf(o2.lastModified()).compareTo(o1.lastModified()); //latest 1st
-            });
-
-            return files[0].lastModified();
-        }
-    }
-
-
     private static final ExecutorService threadPool = Executors.newCachedThreadPool();
 
     public static void runAll(Runnable... runs) throws Throwable {
@@ -455,6 +436,32 @@ public class Util {
         writeFile(filename, data, 0);
     }
 
+    public interface WriterConsumer {
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * Like writeFile(filename, data), but the content is written by writeContent to a buffered writer, instead of first being built as one big string.
+     */
+    public static void writeFile(String filename, WriterConsumer writeContent) throws IOException {
+        System.out.println("Writing into " + filename + "(" + new File(filename).getAbsolutePath() + ")");
+        for (int tries = 0; ; tries++) {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(filename))), 1 << 16)) {
+                writeContent.write(writer);
+                return;
+            } catch (IOException e) {
+                if (tries > 10) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e1) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
     private static void writeFile(String filename, String data, int tries) throws IOException {
         System.out.println("Writing into " + filename + "(" + new File(filename).getAbsolutePath() + ")");
         try {
@@ -691,6 +698,32 @@ public class Util {
         }
     }
 
+    /**
+     * The SHA-256 of the UTF-8 bytes of str, as a lowercase hex string.
+     */
+    public static String sha256(String str) {
+        return toHex(sha256Digest().digest(str.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The bytes as a lowercase hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
     public static void ensureSize(List<?> list, int size) {
         while (list.size() < size) {
             list.add(null);
@@ -0,0 +1,165 @@
+package dk.webbies.tajscheck.util.chromeRunner;
+
+import org.openqa.selenium.chrome.ChromeDriver;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of warm headless Chrome sessions, such that a driver run doesn't have to pay for launching a browser.
+ *
+ * Sessions are reset (navigated to about:blank, with cookies and storage cleared) when they are returned, health-checked when they are taken out, and replaced if they have crashed or have run maxJobsPerSession jobs.
+ * Each session gets its own user-data-dir, such that sessions can run concurrently.
+ */
+public class ChromeSessionPool {
+    private static ChromeSessionPool instance = null;
+
+    public static int defaultPoolSize = Integer.getInteger("tajscheck.chromeSessions", Runtime.getRuntime().availableProcessors());
+    public static int defaultMaxJobsPerSession = Integer.getInteger("tajscheck.chromeSessionMaxJobs", 100);
+
+    private final int maxJobsPerSession;
+    private final Semaphore available;
+    private final LinkedBlockingDeque<Session> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger sessionCounter = new AtomicInteger(0);
+
+    public ChromeSessionPool(int size, int maxJobsPerSession) {
+        assert size > 0;
+        this.maxJobsPerSession = maxJobsPerSession;
+        this.available = new Semaphore(size, true);
+    }
+
+    public static synchronized ChromeSessionPool get() {
+        if (instance == null) {
+            instance = new ChromeSessionPool(Math.max(1, defaultPoolSize), defaultMaxJobsPerSession);
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::shutdown));
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a healthy session out of the pool, blocking until one is available.
+     * The session must be given back using release().
+     */
+    public Session acquire(int pageLoadTimeout) {
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Session session;
+            while ((session = idle.poll()) != null) {
+                if (session.isHealthy()) {
+                    session.setTimeouts(pageLoadTimeout);
+                    return session;
+                }
+                session.quit();
+            }
+            return new Session(sessionCounter.incrementAndGet(), pageLoadTimeout);
+        } catch (RuntimeException | Error e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a session back to the pool.
+     * @param broken if the session should not be reused (e.g. because it timed out), it is then replaced by a fresh session on a later acquire().
+     */
+    public void release(Session session, boolean broken) {
+        try {
+            if (broken || session.jobsRun >= maxJobsPerSession || !session.reset()) {
+                session.quit();
+            } else {
+                idle.push(session);
+            }
+        } finally {
+            available.release();
+        }
+    }
+
+    public void shutdown() {
+        Session session;
+        while ((session = idle.poll()) != null) {
+            session.quit();
+        }
+    }
+
+    public static final class Session {
+        private final ChromeDriver driver;
+        private int pageLoadTimeout = -1;
+        private int jobsRun = 0;
+        private volatile boolean quit = false;
+
+        private Session(int id, int pageLoadTimeout) {
+            this.driver = SeleniumDriver.createDriver("./chromedir/session-" + id);
+            try {
+                setTimeouts(pageLoadTimeout);
+            } catch (RuntimeException e) {
+                quit();
+                throw e;
+            }
+        }
+
+        private void setTimeouts(int pageLoadTimeout) {
+            if (this.pageLoadTimeout == pageLoadTimeout) {
+                return;
+            }
+            driver.manage().timeouts().pageLoadTimeout(pageLoadTimeout, TimeUnit.SECONDS);
+            driver.manage().timeouts().implicitlyWait(pageLoadTimeout, TimeUnit.SECONDS);
+            driver.manage().timeouts().setScriptTimeout(pageLoadTimeout, TimeUnit.SECONDS);
+            this.pageLoadTimeout = pageLoadTimeout;
+        }
+
+        public ChromeDriver getDriver() {
+            return driver;
+        }
+
+        void startJob() {
+            jobsRun++;
+        }
+
+        private boolean isHealthy() {
+            if (quit) {
+                return false;
+            }
+            try {
+                Object result = driver.executeScript("return 1 + 1;");
+                return result instanceof Number && ((Number) result).intValue() == 2;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private boolean reset() {
+            if (quit) {
+                return false;
+            }
+            try {
+                // The driver prevents navigating away (see prelude.js), and the old page might still have timers running.
+                driver.executeScript("window.onbeforeunload = null; try { localStorage.clear(); sessionStorage.clear(); } catch (e) {}");
+                // Only the cookies of the current page are deleted, so this has to happen before navigating away.
+                driver.manage().deleteAllCookies();
+                driver.get("about:blank");
+                return true;
+            } catch (Exception e) {
+                System.err.println("Could not reset chrome session, replacing it");
+                return false;
+            }
+        }
+
+        void quit() {
+            if (quit) {
+                return;
+            }
+            quit = true;
+            try {
+                SeleniumDriver.quit(driver);
+            } catch (Exception e) {
+                System.err.println("Had an error while quiting the chrome driver, continueing anyway");
+            }
+        }
+    }
+}
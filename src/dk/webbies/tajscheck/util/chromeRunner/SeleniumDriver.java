@@ -18,6 +18,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -27,33 +30,31 @@ import java.util.logging.Level;
  * Created by Erik Krogh Kristensen on 10-11-2015.
  */
 public class SeleniumDriver {
+    private static final ScheduledExecutorService watchdogs = Executors.newScheduledThreadPool(1, runnable -> {
+        Thread thread = new Thread(runnable, "selenium-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public static String executeScript(File dir, String script, int timeout) throws IOException, HttpException {
         return executeScript(dir, script, timeout, 10 * 1000);
     }
-    @SuppressWarnings("Duplicates")
     private static String executeScript(File dir, String script, int timeout, int pageLoadTimeout) throws IOException, HttpException {
-        setDriverPath();
-
-        ChromeDriver driver = new ChromeDriver(buldCapabilities());
-
+        ChromeSessionPool pool = ChromeSessionPool.get();
+        ChromeSessionPool.Session session;
         try {
-            driver.manage().timeouts().pageLoadTimeout(pageLoadTimeout, TimeUnit.SECONDS);
-            driver.manage().timeouts().implicitlyWait(pageLoadTimeout, TimeUnit.SECONDS);
-            driver.manage().timeouts().setScriptTimeout(pageLoadTimeout, TimeUnit.SECONDS);
+            session = pool.acquire(pageLoadTimeout);
         } catch (Exception e) {
-            System.err.println("Had some error while setting timeouts");
-            //noinspection finally
+            System.err.println("Had some error while starting a chrome session");
             try {
                 Thread.sleep(100);
-
-                quit(driver);
             } catch (InterruptedException e1) {
                 e1.printStackTrace();
-            } finally {
-                //noinspection ReturnInsideFinallyBlock
-                return executeScript(dir, script, timeout, pageLoadTimeout);
             }
+            return executeScript(dir, script, timeout, pageLoadTimeout);
         }
+        session.startJob();
+        ChromeDriver driver = session.getDriver();
 
         ServerSocket socket = new ServerSocket(0);
 
@@ -65,36 +66,26 @@ public class SeleniumDriver {
 
         AtomicBoolean killed = new AtomicBoolean(false);
         AtomicBoolean gotPage = new AtomicBoolean(false);
-        new Thread(() -> {
-            try {
-                Thread.sleep(pageLoadTimeout + 10 * 1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException();
-            }
+        ScheduledFuture<?> pageWatchdog = watchdogs.schedule(() -> {
             if (!gotPage.get()) {
                 killed.set(true);
-                quit(driver);
+                session.quit();
                 try {
                     socket.close();
                 } catch (IOException ignored) { }
             }
-        }).start();
+        }, pageLoadTimeout + 10 * 1000, TimeUnit.MILLISECONDS);
 
         AtomicBoolean finished = new AtomicBoolean(false);
-        new Thread(() -> {
-            try {
-                Thread.sleep(timeout + 10 * 1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException();
-            }
+        ScheduledFuture<?> runWatchdog = watchdogs.schedule(() -> {
             if (!finished.get()) {
                 killed.set(true);
-                quit(driver);
+                session.quit();
                 try {
                     socket.close();
                 } catch (IOException ignored) { }
             }
-        }).start();
+        }, timeout + 10 * 1000, TimeUnit.MILLISECONDS);
 
         SimpleMessageReceivingHTTPServer server = startServer(dir, script, socket);
 
@@ -105,13 +96,18 @@ public class SeleniumDriver {
             gotPage.set(true);
         } catch (org.openqa.selenium.TimeoutException e) {
             System.err.println("Selenium driver had a timeout loading the index page, trying again!");
+            pageWatchdog.cancel(false);
+            runWatchdog.cancel(false);
+            pool.release(session, true);
             try {
-                quit(driver);
                 socket.close();
             } catch (Exception ignored) {
             }
             return executeScript(dir, script, timeout, pageLoadTimeout + 10); // continue, try again
         } catch (Exception e) {
+            pageWatchdog.cancel(false);
+            runWatchdog.cancel(false);
+            pool.release(session, true);
             if (killed.get()) {
                 return executeScript(dir, script, timeout, pageLoadTimeout + 10); // continue, try again
             } else {
@@ -121,17 +117,22 @@ public class SeleniumDriver {
 
 
         String message = String.join("\n", server.awaitMessages());
+        finished.set(true);
+        pageWatchdog.cancel(false);
+        runWatchdog.cancel(false);
 
-        try {
-            quit(driver);
-        } catch (Exception e) {
-            System.err.println("Had an error while quiting the chrome driver, continueing anyway");
-        }
+        // If the driver didn't finish on its own, the page might be in any state, so we don't reuse the browser.
+        pool.release(session, killed.get());
 
         return message;
     }
 
-    private static void quit(ChromeDriver driver) {
+    static ChromeDriver createDriver(String userDataDir) {
+        setDriverPath();
+        return new ChromeDriver(buldCapabilities(userDataDir));
+    }
+
+    static void quit(ChromeDriver driver) {
         Set<ProcessHandle> allChildren = getAllChildren(ProcessHandle.current(), new HashSet<>());
         driver.quit();
         // kill all orphans. This is THE reason why this project requires Java9.
@@ -207,7 +208,7 @@ public class SeleniumDriver {
         }
     }
 
-    private static DesiredCapabilities buldCapabilities() {
+    private static DesiredCapabilities buldCapabilities(String userDataDir) {
         ChromeOptions options = new ChromeOptions();
         options.addArguments("window-size=400,400");
 
@@ -215,7 +216,7 @@ public class SeleniumDriver {
         options.addArguments("no-sandbox");
         options.addArguments("disable-gpu");
         options.addArguments("no-default-browser-check");
-        options.addArguments("user-data-dir=./chromedir");
+        options.addArguments("user-data-dir=" + userDataDir);
         options.addArguments("no-sandbox");
 
 
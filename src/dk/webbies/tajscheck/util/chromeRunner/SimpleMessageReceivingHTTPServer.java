@@ -1,5 +1,6 @@
 package dk.webbies.tajscheck.util.chromeRunner;
 
+import dk.webbies.tajscheck.CoverageAccumulator;
 import dk.webbies.tajscheck.util.Pair;
 import dk.webbies.tajscheck.util.Util;
 import org.apache.http.HttpException;
@@ -23,6 +24,7 @@ public class SimpleMessageReceivingHTTPServer {
     private final Map<String, String> customContents;
     private final ServerSocket serverSocket;
     private final List<String> messages = new ArrayList<>();
+    private final CoverageAccumulator coverage = new CoverageAccumulator();
 
     public SimpleMessageReceivingHTTPServer(File dir, Map<String, String> customContents, ServerSocket serverSocket) {
         this.dir = dir;
@@ -54,7 +56,9 @@ public class SimpleMessageReceivingHTTPServer {
 
                     String realMessage = message.substring(message.indexOf(":") + 1, message.length()).trim();
 
-                    if (realMessage.startsWith("::COVERAGE::")) {
+                    if (realMessage.startsWith("::COVERAGE-DELTA::")) {
+                        coverage.apply(Util.removePrefix(realMessage, "::COVERAGE-DELTA::")); // The other messages are kept, the coverage is added by awaitMessages().
+                    } else if (realMessage.startsWith("::COVERAGE::")) {
                         messages.clear();
                         messages.add(realMessage);
                     } else {
@@ -150,7 +154,12 @@ public class SimpleMessageReceivingHTTPServer {
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        return this.messages.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        List<String> result = this.messages.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        if (!coverage.isEmpty()) {
+            // The coverage is received as deltas, but the receivers expect a single full dump.
+            result.add("::COVERAGE::" + coverage.toIstanbulJson() + "::/COVERAGE::");
+        }
+        return result;
     }
 
     private static final ExecutorService pool = Executors.newCachedThreadPool();
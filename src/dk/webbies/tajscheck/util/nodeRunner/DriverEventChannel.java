@@ -0,0 +1,109 @@
+package dk.webbies.tajscheck.util.nodeRunner;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * A local socket, that a node driver started with getArgument() connects to, and sends its records through while it runs (see emit() in prelude.js).
+ * The only thing sent the other way is "stop", when shouldStop returns true.
+ */
+public class DriverEventChannel implements Closeable {
+    public static final String ARGUMENT_PREFIX = "--tstest-events=";
+
+    private final ServerSocket serverSocket;
+    private final Consumer<String> lineConsumer;
+    private final BooleanSupplier shouldStop;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean driverExited = false;
+    private volatile Socket socket = null;
+
+    public DriverEventChannel(Consumer<String> lineConsumer, BooleanSupplier shouldStop) throws IOException {
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.lineConsumer = lineConsumer;
+        this.shouldStop = shouldStop;
+
+        Thread reader = new Thread(this::read, "driver-events");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * The argument to give the driver (after the script), such that it connects to this channel.
+     */
+    public String getArgument() {
+        return ARGUMENT_PREFIX + serverSocket.getLocalPort();
+    }
+
+    private void read() {
+        try (Socket socket = accept()) {
+            if (socket == null) {
+                return;
+            }
+            this.socket = socket;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            boolean stopSent = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineConsumer.accept(line);
+                if (!stopSent && shouldStop.getAsBoolean()) {
+                    writer.write("stop\n");
+                    writer.flush();
+                    stopSent = true;
+                }
+            }
+        } catch (IOException ignored) {
+            // Closed, or the driver died.
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Polling, such that a driver that exited without connecting (it crashed, or never got to run) is noticed.
+     * A driver that connected and exited right away is still accepted, as its connection is waiting in the backlog.
+     */
+    private Socket accept() throws IOException {
+        serverSocket.setSoTimeout(100);
+        while (true) {
+            try {
+                return serverSocket.accept();
+            } catch (SocketTimeoutException e) {
+                if (driverExited) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the driver has closed the connection, such that every record it sent has been consumed.
+     * Must be called after the driver process has exited, so it only waits for the records that are still in transit.
+     */
+    public void awaitFinished(long timeout) {
+        driverExited = true;
+        try {
+            finished.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        Socket socket = this.socket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package dk.webbies.tajscheck.util.nodeRunner;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single long-lived node process running resources/node-worker.js.
+ * A worker runs at most one job at a time, the NodeWorkerPool makes sure of that.
+ */
+class NodeWorker {
+    private static final String WORKER_SCRIPT = "resources/node-worker.js";
+
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    private volatile Job currentJob = null;
+    private volatile boolean dead = false;
+    private int jobsRun = 0;
+    private int nextJobId = 0;
+
+    NodeWorker() throws IOException {
+        this.process = new ProcessBuilder("node", WORKER_SCRIPT).start();
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread reader = new Thread(this::readMessages, "node-worker-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        Thread errReader = new Thread(this::readErrors, "node-worker-stderr");
+        errReader.setDaemon(true);
+        errReader.start();
+
+        try {
+            if (!ready.await(30, TimeUnit.SECONDS) || dead) {
+                kill();
+                throw new IOException("Node worker did not start");
+            }
+        } catch (InterruptedException e) {
+            kill();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Runs a script in this worker.
+     * The result is null if the job did not finish within the timeout, in which case the worker has been killed.
+     */
+    Job run(String script, List<String> args, File dir, int timeout, Consumer<String> lineConsumer) throws IOException {
+        Job job = new Job(nextJobId++, lineConsumer);
+        currentJob = job;
+        jobsRun++;
+
+        JsonObject message = new JsonObject();
+        message.addProperty("id", job.id);
+        message.addProperty("script", script);
+        message.add("args", new Gson().toJsonTree(args));
+        if (dir != null) {
+            message.addProperty("cwd", dir.getAbsolutePath());
+        }
+        try {
+            stdin.write(message.toString());
+            stdin.write("\n");
+            stdin.flush();
+        } catch (IOException e) {
+            kill();
+            throw e;
+        }
+
+        try {
+            boolean finished;
+            if (timeout > 0) {
+                finished = job.done.await(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                job.done.await();
+                finished = true;
+            }
+            if (!finished) {
+                System.err.println("Had a timeout, continuing");
+                job.timedOut = true;
+                kill();
+            }
+        } catch (InterruptedException e) {
+            kill();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            currentJob = null;
+        }
+        return job;
+    }
+
+    int getJobsRun() {
+        return jobsRun;
+    }
+
+    boolean isAlive() {
+        return !dead && process.isAlive();
+    }
+
+    void kill() {
+        dead = true;
+        process.destroyForcibly();
+        Job job = currentJob;
+        if (job != null) {
+            job.done.countDown();
+        }
+    }
+
+    private void readMessages() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject message;
+                try {
+                    message = new JsonParser().parse(line).getAsJsonObject();
+                } catch (Exception e) {
+                    continue; // Something that wasn't a message, a native module writing directly to fd 1 or similar.
+                }
+                int id = message.get("id").getAsInt();
+                String type = message.get("type").getAsString();
+                if (type.equals("ready")) {
+                    ready.countDown();
+                    continue;
+                }
+                Job job = currentJob;
+                if (job == null || job.id != id) {
+                    continue;
+                }
+                switch (type) {
+                    case "out":
+                        job.out(message.get("data").getAsString());
+                        break;
+                    case "err":
+                        job.err.append(message.get("data").getAsString());
+                        break;
+                    case "done":
+                        job.flush();
+                        job.leaked = message.get("leaked").getAsBoolean();
+                        job.done.countDown();
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown message from node worker: " + type);
+                }
+            }
+        } catch (IOException ignored) {
+            // The process died, handled below.
+        }
+        dead = true;
+        ready.countDown();
+        Job job = currentJob;
+        if (job != null) {
+            job.done.countDown();
+        }
+    }
+
+    private void readErrors() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Job job = currentJob;
+                if (job != null) {
+                    job.err.append(line).append("\n");
+                } else {
+                    System.err.println("Node worker: " + line);
+                }
+            }
+        } catch (IOException ignored) { }
+    }
+
+    static final class Job {
+        final int id;
+        final StringBuffer out = new StringBuffer();
+        final StringBuffer err = new StringBuffer();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean leaked = false;
+        volatile boolean timedOut = false;
+
+        // With a lineConsumer, out only holds the line that is currently being printed.
+        private final Consumer<String> lineConsumer;
+
+        private Job(int id, Consumer<String> lineConsumer) {
+            this.id = id;
+            this.lineConsumer = lineConsumer;
+        }
+
+        private void out(String data) {
+            out.append(data);
+            if (lineConsumer == null) {
+                return;
+            }
+            int newline;
+            while ((newline = out.indexOf("\n")) != -1) {
+                lineConsumer.accept(out.substring(0, newline));
+                out.delete(0, newline + 1);
+            }
+        }
+
+        private void flush() {
+            if (lineConsumer != null && out.length() > 0) {
+                lineConsumer.accept(out.toString());
+                out.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package dk.webbies.tajscheck.util.nodeRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A pool of long-lived node processes, that scripts can be submitted to instead of starting a new node process for every script.
+ *
+ * A worker is recycled (killed and replaced by a new one) after maxJobsPerWorker jobs, if a job times out, or if a job leaves state behind that the worker cannot clean up (e.g. calling process.exit or hooking require).
+ */
+public class NodeWorkerPool {
+    private static NodeWorkerPool instance = null;
+
+    /**
+     * The size of the default pool. 0 disables the pool, and every script is run in a fresh node process.
+     * Can be set using -Dtajscheck.nodeWorkers=N.
+     */
+    public static int defaultPoolSize = Integer.getInteger("tajscheck.nodeWorkers", 0);
+    public static int defaultMaxJobsPerWorker = Integer.getInteger("tajscheck.nodeWorkerMaxJobs", 50);
+
+    private final int maxJobsPerWorker;
+    private final Semaphore available;
+    private final LinkedBlockingDeque<NodeWorker> idle = new LinkedBlockingDeque<>();
+
+    public NodeWorkerPool(int size, int maxJobsPerWorker) {
+        assert size > 0;
+        this.maxJobsPerWorker = maxJobsPerWorker;
+        this.available = new Semaphore(size, true);
+    }
+
+    public static boolean isEnabled() {
+        return defaultPoolSize > 0;
+    }
+
+    public static synchronized NodeWorkerPool get() {
+        if (instance == null) {
+            instance = new NodeWorkerPool(defaultPoolSize, defaultMaxJobsPerWorker);
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::shutdown));
+        }
+        return instance;
+    }
+
+    /**
+     * Runs a node script in one of the workers.
+     * @param args the arguments as they would be given to "node", first the script, then the arguments to the script.
+     * @param dir the working directory of the script, or null to use the current working directory.
+     * @param timeout in milliseconds, non-positive means no timeout.
+     */
+    public Result run(String args, File dir, int timeout) throws IOException {
+        return run(args, dir, timeout, null);
+    }
+
+    /**
+     * @param lineConsumer if not null, every line the script prints to stdout is given to this consumer while the script runs, and stdout is not kept in the result.
+     */
+    public Result run(String args, File dir, int timeout, Consumer<String> lineConsumer) throws IOException {
+        // Tokenizing the same way as Runtime.exec(String), such that scripts see the exact same arguments.
+        StringTokenizer tokenizer = new StringTokenizer(args);
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.hasMoreTokens()) {
+            tokens.add(tokenizer.nextToken());
+        }
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("No script to run");
+        }
+        String script = tokens.get(0);
+        List<String> scriptArgs = tokens.subList(1, tokens.size());
+
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        NodeWorker worker = null;
+        try {
+            worker = takeWorker();
+            NodeWorker.Job job = worker.run(script, scriptArgs, dir, timeout, lineConsumer);
+
+            if (job.timedOut || job.leaked || !worker.isAlive() || worker.getJobsRun() >= maxJobsPerWorker) {
+                worker.kill();
+            } else {
+                idle.push(worker);
+            }
+            worker = null;
+
+            return new Result(job.out.toString(), job.err.toString(), job.timedOut);
+        } finally {
+            if (worker != null) {
+                worker.kill();
+            }
+            available.release();
+        }
+    }
+
+    private NodeWorker takeWorker() throws IOException {
+        NodeWorker worker;
+        while ((worker = idle.poll()) != null) {
+            if (worker.isAlive()) {
+                return worker;
+            }
+        }
+        return new NodeWorker();
+    }
+
+    public void shutdown() {
+        NodeWorker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.kill();
+        }
+    }
+
+    public static final class Result {
+        public final String out;
+        public final String err;
+        public final boolean timedOut;
+
+        Result(String out, String err, boolean timedOut) {
+            this.out = out;
+            this.err = err;
+            this.timedOut = timedOut;
+        }
+    }
+}
@@ -250,7 +250,7 @@ public class DeltaDebug {
     private static boolean testHasSomeError(Benchmark bench) throws Exception {
         bench = bench.withOptions(CheckOptions.errorFindingOptions(bench.options));
         DynamicMain.writeFullDriver(bench);
-        OutputParser.RunResult result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
         for (OutputParser.TypeError typeError : result.typeErrors) {
             System.out.println(typeError);
         }
@@ -262,7 +262,7 @@ public class DeltaDebug {
     private static boolean testHasError(Benchmark bench, String path) throws Exception {
         bench = bench.withOptions(CheckOptions.errorFindingOptions(bench.options));
         DynamicMain.writeFullDriver(bench);
-        OutputParser.RunResult result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
 
         result.typeErrors.forEach(System.out::println);
 
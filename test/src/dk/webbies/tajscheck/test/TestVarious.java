@@ -1,10 +1,25 @@
 package dk.webbies.tajscheck.test;
 
+import dk.au.cs.casa.typescript.types.SimpleType;
+import dk.au.cs.casa.typescript.types.SimpleTypeKind;
+import dk.au.cs.casa.typescript.types.Type;
+import dk.webbies.tajscheck.OutputParser;
+import dk.webbies.tajscheck.TypeWithContext;
+import dk.webbies.tajscheck.tajstester.TestScheduler;
+import dk.webbies.tajscheck.tajstester.data.Timers;
 import dk.webbies.tajscheck.testcreator.TestCreator;
+import dk.webbies.tajscheck.testcreator.test.NumberIndexTest;
+import dk.webbies.tajscheck.typeutil.typeContext.NullTypeContext;
+import dk.webbies.tajscheck.typeutil.typeContext.TypeContext;
+import dk.webbies.tajscheck.util.ObjectGraphCopier;
 import dk.webbies.tajscheck.util.Util;
 import org.junit.Test;
 
+import java.util.*;
+
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 
@@ -20,4 +35,174 @@ public class TestVarious {
 
         assertThat(Util.simplifyPath("moment(obj, number).stuff(obj, number).new(foo).blaa"), is(equalTo("moment().stuff().new().blaa")));
     }
+
+    @Test
+    public void combineShards() throws Exception {
+        OutputParser.TypeError one = new OutputParser.TypeError("foo.bar", "number", "string", "\"x\"", "\"x\"", "property access", new HashSet<>(Arrays.asList(1, 2)));
+        OutputParser.TypeError two = new OutputParser.TypeError("foo.bar", "number", "string", "\"y\"", "\"y\"", "property access", new HashSet<>(Arrays.asList(2, 3)));
+        OutputParser.TypeError other = new OutputParser.TypeError("foo.baz", "number", "string", "\"z\"", "\"z\"", "property access", new HashSet<>(Collections.singletonList(4)));
+
+        OutputParser.RunResult result = OutputParser.combineShards(Arrays.asList(
+                new OutputParser.RunResult(Arrays.asList(one, other), Collections.emptyList(), 10, new HashSet<>(Arrays.asList(1, 2, 4))),
+                new OutputParser.RunResult(Collections.singletonList(two), Collections.emptyList(), 10, new HashSet<>(Arrays.asList(2, 3)))
+        ));
+
+        assertThat(result.typeErrors.size(), is(2));
+        assertThat(result.typeErrors.get(0).testsCalled, is(equalTo(new HashSet<>(Arrays.asList(1, 2, 3)))));
+        assertThat(result.getTestsCalled(), is(equalTo(new HashSet<>(Arrays.asList(1, 2, 3, 4)))));
+        assertThat(result.getTotalTests(), is(10));
+    }
+
+    @Test
+    public void parseDriverRecords() throws Exception {
+        OutputParser.StreamingParser parser = new OutputParser.StreamingParser(true, null);
+        parser.accept("{\"kind\":\"random\",\"value\":\"seed\"}");
+        parser.accept("{\"kind\":\"total\",\"count\":3}");
+        parser.accept("{\"kind\":\"called\",\"test\":1}");
+        parser.accept("something a library printed");
+        parser.accept("{\"kind\":\"fail\",\"path\":\"foo.bar\",\"iteration\":4,\"expected\":\"number\",\"descrip\":\"property access\",\"typeof\":\"string\",\"string\":\"x\",\"json\":\"\\\"x\\\"\"}");
+        parser.accept("{\"kind\":\"called\",\"test\":2}");
+        parser.accept("{\"kind\":\"error\",\"message\":\"RuntimeError: foo\"}");
+        parser.accept("{\"kind\":\"testStats\",\"tests\":{\"1\":{\"calls\":4,\"exceptions\":1,\"time\":2.5,\"max\":1.5}}}");
+        parser.accept("{\"kind\":\"executed\",\"count\":10,\"time\":5}");
+
+        OutputParser.RunResult result = parser.getResult();
+        assertThat(result.getTotalTests(), is(3));
+        assertThat(result.getTestsCalled(), is(equalTo(new HashSet<>(Arrays.asList(1, 2)))));
+        assertThat(result.errors, is(equalTo(Collections.singletonList("RuntimeError: foo"))));
+        assertThat(result.typeErrors.size(), is(1));
+        assertThat(result.typeErrors.get(0).getPath(), is("foo.bar"));
+        assertThat(result.typeErrors.get(0).JSON, is("\"x\""));
+        assertThat(result.typeErrors.get(0).toString, is("x"));
+        assertThat(result.typeErrors.get(0).testsCalled, is(equalTo(Collections.singleton(1))));
+        assertThat(result.getTestsExecuted(), is(10L));
+        assertThat(result.getTestStats().keySet(), is(equalTo(Collections.singleton(1))));
+        assertThat(result.getTestStats().get(1).calls, is(4));
+        assertThat(result.getTestStats().get(1).exceptions, is(1));
+        assertThat(result.getTestStats().get(1).maxTime, is(1.5));
+
+        OutputParser.TestStats combined = OutputParser.combine(Arrays.asList(result, result)).getTestStats().get(1);
+        assertThat(combined.calls, is(8));
+        assertThat(combined.totalTime, is(5.0));
+        assertThat(combined.maxTime, is(1.5));
+    }
+
+    private static final class Node {
+        final String name;
+        Node parent;
+        final List<Node> children = new ArrayList<>();
+        final Map<String, Node> byName = new HashMap<>();
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void deepCopyPreservesIdentity() throws Exception {
+        Node root = new Node("root");
+        Node child = new Node("child");
+        child.parent = root;
+        root.children.add(child);
+        root.children.add(child);
+        root.byName.put(child.name, child);
+
+        Node copy = ObjectGraphCopier.deepCopy(root);
+
+        assertThat(copy, is(not(sameInstance(root))));
+        Node copiedChild = copy.children.get(0);
+        assertThat(copiedChild, is(not(sameInstance(child))));
+        assertThat(copy.children.get(1), is(sameInstance(copiedChild)));
+        assertThat(copy.byName.get("child"), is(sameInstance(copiedChild)));
+        assertThat(copiedChild.parent, is(sameInstance(copy)));
+    }
+
+    @Test
+    public void nestedTimers() throws Exception {
+        Timers timers = new Timers(true);
+        timers.start(Timers.Tags.ANALYSIS);
+        timers.start(Timers.Tags.VALUE_INSTANTIATION);
+        timers.start(Timers.Tags.VALUE_INSTANTIATION); // recursive
+        timers.start(Timers.Tags.FEEDBACK_VALUES); // never stopped
+        timers.stop(Timers.Tags.VALUE_INSTANTIATION);
+        timers.stop(Timers.Tags.VALUE_INSTANTIATION);
+        timers.setEnabled(false);
+        timers.start(Timers.Tags.TYPE_CHECKING);
+        timers.stop(Timers.Tags.TYPE_CHECKING);
+        timers.start(Timers.Tags.TYPE_CHECKING); // started while disabled, stopped while enabled.
+        timers.setEnabled(true);
+        timers.stop(Timers.Tags.TYPE_CHECKING);
+        timers.start(Timers.Tags.TYPE_TESTS); // started while enabled, stopped while disabled.
+        timers.setEnabled(false);
+        timers.stop(Timers.Tags.TYPE_TESTS);
+        timers.setEnabled(true);
+        timers.start(Timers.Tags.FEEDBACK_VALUES); // not inside TYPE_TESTS, as that was stopped.
+        timers.stop(Timers.Tags.FEEDBACK_VALUES);
+        timers.stop(Timers.Tags.ANALYSIS);
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Timers.Entry entry : timers.getEntries()) {
+            counts.put(entry.path, entry.count);
+        }
+        Map<String, Long> expected = new LinkedHashMap<>();
+        expected.put("ANALYSIS", 1L);
+        expected.put("ANALYSIS;VALUE_INSTANTIATION", 2L);
+        expected.put("ANALYSIS;VALUE_INSTANTIATION;FEEDBACK_VALUES", 1L);
+        expected.put("ANALYSIS;TYPE_TESTS", 1L);
+        expected.put("ANALYSIS;FEEDBACK_VALUES", 1L);
+        assertThat(counts, is(equalTo(expected)));
+
+        for (String line : timers.toFoldedStacks().split("\n")) {
+            if (!line.isEmpty()) {
+                assertThat(line.matches("[^ ]+;ANALYSIS(;\\w+)* \\d+"), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testScheduler() throws Exception {
+        TypeContext context = new NullTypeContext();
+        Type missingType = new SimpleType(SimpleTypeKind.Object);
+        Type otherType = new SimpleType(SimpleTypeKind.Number);
+        NumberIndexTest performed = new NumberIndexTest(otherType, otherType, "performed", context);
+        NumberIndexTest waiting = new NumberIndexTest(missingType, otherType, "waiting", context);
+        NumberIndexTest kept = new NumberIndexTest(otherType, otherType, "kept", context);
+        TestScheduler scheduler = new TestScheduler(Arrays.asList(performed, waiting, kept));
+
+        // Like TajsTypeTester.iterateAllNonPerformedTests(): a performed test is not kept, a test without a feedback value waits for one, the others are kept.
+        List<Object> visited = new ArrayList<>();
+        scheduler.startRound();
+        for (dk.webbies.tajscheck.testcreator.test.Test test : scheduler.pass(Collections.emptySet())) {
+            visited.add(test);
+            if (test == waiting) {
+                scheduler.waitFor(test, Collections.singletonList(new TypeWithContext(missingType, context)));
+            } else {
+                scheduler.keep(test);
+            }
+        }
+        assertThat(visited, is(equalTo(Arrays.<Object>asList(performed, waiting, kept))));
+
+        assertThat(passWhereTestsAreKept(scheduler, Collections.singleton(performed)), is(equalTo(Collections.<Object>singletonList(kept))));
+
+        scheduler.feedbackValueAdded(new TypeWithContext(otherType, context)); // nothing waits for this one.
+        assertThat(passWhereTestsAreKept(scheduler, Collections.singleton(performed)), is(equalTo(Collections.<Object>singletonList(kept))));
+
+        scheduler.feedbackValueAdded(new TypeWithContext(missingType, new NullTypeContext())); // an equal TypeWithContext, like the ones TypeValuesHandler.addFeedbackValue() creates.
+        assertThat(passWhereTestsAreKept(scheduler, Collections.singleton(performed)), is(equalTo(Arrays.<Object>asList(waiting, kept))));
+
+        TestScheduler.Statistics statistics = scheduler.getStatistics();
+        assertThat(statistics.rounds, is(1));
+        assertThat(statistics.passes, is(4));
+        assertThat(statistics.visits, is(3L + 1L + 1L + 2L));
+        assertThat(statistics.fullScanVisits, is(3L + 2L + 2L + 2L));
+    }
+
+    private static List<Object> passWhereTestsAreKept(TestScheduler scheduler, Collection<dk.webbies.tajscheck.testcreator.test.Test> performed) {
+        List<Object> visited = new ArrayList<>();
+        for (dk.webbies.tajscheck.testcreator.test.Test test : scheduler.pass(performed)) {
+            visited.add(test);
+            scheduler.keep(test);
+        }
+        return visited;
+    }
 }
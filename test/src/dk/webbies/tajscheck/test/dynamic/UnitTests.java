@@ -1,5 +1,8 @@
 package dk.webbies.tajscheck.test.dynamic;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import dk.au.cs.casa.typescript.SpecReader;
 import dk.au.cs.casa.typescript.types.BooleanLiteral;
 import dk.au.cs.casa.typescript.types.InterfaceType;
@@ -11,6 +14,7 @@ import dk.webbies.tajscheck.OutputParser;
 import dk.webbies.tajscheck.benchmark.Benchmark;
 import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
 import dk.webbies.tajscheck.benchmark.options.CheckOptions;
+import dk.webbies.tajscheck.buildprogram.IncrementalDriver;
 import dk.webbies.tajscheck.benchmark.TypeParameterIndexer;
 import dk.webbies.tajscheck.parsespec.ParseDeclaration;
 import dk.webbies.tajscheck.util.Util;
@@ -20,6 +24,8 @@ import org.hamcrest.Matcher;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -1729,7 +1735,9 @@ public class UnitTests {
 
     @Test
     public void shouldNotBeUnbound() throws Exception {
-        String driver = DynamicMain.writeFullDriver(benchFromFolder("shouldNotBeUnbound")).getRight();
+        Benchmark bench = benchFromFolder("shouldNotBeUnbound");
+        DynamicMain.writeFullDriver(bench);
+        String driver = Util.readFile(DynamicMain.getFolderPath(bench) + DynamicMain.TEST_FILE_NAME);
 
         assertThat(driver, not(containsString(TypeParameterIndexer.IS_UNSTRAINED_GENERIC_MARKER)));
     }
@@ -1741,4 +1749,83 @@ public class UnitTests {
         expect(result)
                 .toPass();
     }
+
+    @Test
+    public void incrementalDriverRemapsRegisteredValues() throws Exception {
+        // The shifted declaration has an extra method first, so the values produced by the other tests get new indexes.
+        String folder = "test/unit/incrementalDriverRemapsValues/";
+        CheckOptions options = options().dynamicOptions.setIncrementalDriver(true).build();
+        Benchmark original = new Benchmark("unit-incrementalDriverRemapsValues", ParseDeclaration.Environment.ES5Core, folder + "implementation.js", folder + "declaration.d.ts", NODE, options);
+        Benchmark shifted = new Benchmark("unit-incrementalDriverRemapsValues-shifted", ParseDeclaration.Environment.ES5Core, folder + "implementation.js", folder + "shifted.d.ts", NODE, options);
+
+        File stateFile = new File(IncrementalDriver.stateFile(BenchmarkInfo.create(original)));
+        stateFile.delete();
+
+        DynamicMain.generateFullDriver(original);
+
+        // Marking the stored test-cases, such that we can see which ones are reused.
+        String reusedMarker = "/* reused test-case */";
+        JsonObject state = new JsonParser().parse(Util.readFile(stateFile.getPath())).getAsJsonObject();
+        for (Map.Entry<String, JsonElement> testCase : state.getAsJsonObject("tests").entrySet()) {
+            JsonObject object = testCase.getValue().getAsJsonObject();
+            object.addProperty("code", object.get("code").getAsString() + reusedMarker);
+        }
+        Util.writeFile(stateFile.getPath(), state.toString());
+
+        String incremental = DynamicMain.generateFullDriver(shifted).getRight();
+
+        stateFile.delete();
+        String fresh = DynamicMain.generateFullDriver(shifted).getRight();
+
+        assertThat(incremental, containsString(reusedMarker));
+
+        // Every value is registered with the index of the value-variable it was saved in.
+        java.util.regex.Matcher matcher = Pattern.compile("value_(\\d+)\\s*=\\s*\\(?\\w+\\)?;\\s*registerValue\\((\\d+)\\)").matcher(incremental);
+        int registrations = 0;
+        while (matcher.find()) {
+            assertThat(matcher.group(), matcher.group(2), is(matcher.group(1)));
+            registrations++;
+        }
+        assertThat(registrations, is(greaterThan(0)));
+
+        assertThat(registeredIndexes(incremental), is(registeredIndexes(fresh)));
+    }
+
+    private static List<Integer> registeredIndexes(String driver) {
+        java.util.regex.Matcher matcher = Pattern.compile("registerValue\\((\\d+)\\)").matcher(driver);
+        List<Integer> result = new ArrayList<>();
+        while (matcher.find()) {
+            result.add(Integer.parseInt(matcher.group(1)));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test
+    public void validatorFunctionsGiveTheSameResults() throws Exception {
+        RunResult validators = run("validatorFunctions", options().setUseValidatorFunctions(true).build(), "validatorSeed");
+        RunResult inlined = run("validatorFunctions", options().setUseValidatorFunctions(false).build(), "validatorSeed");
+
+        // A recursive type, with a nested error.
+        expect(validators).forPath(startsWith("module.tree()")).toFail();
+        // A union of structural types.
+        expect(validators).forPath(startsWith("module.shape()")).toFail();
+
+        assertThat(typeErrors(validators), is(typeErrors(inlined)));
+    }
+
+    @Test
+    public void validatorResultsAreResetEachIteration() throws Exception {
+        // shared() returns the same object every time, it only matches the declaration the first time, so the result remembered in that iteration must not be used later.
+        RunResult result = run("validatorFunctions", options().setUseValidatorFunctions(true).build(), "validatorSeed");
+
+        expect(result)
+                .forPath("module.shared()")
+                .toFail()
+                .got(JSON, "{\"value\":true}");
+    }
+
+    private static List<String> typeErrors(RunResult result) {
+        return result.typeErrors.stream().map(error -> error.path + ": " + error.expected + " got " + error.typeof + " " + error.JSON).distinct().sorted().collect(Collectors.toList());
+    }
 }
@@ -1,6 +1,8 @@
 package dk.webbies.tajscheck.test.experiments;
 
+import dk.webbies.tajscheck.CoverageAccumulator;
 import dk.webbies.tajscheck.CoverageResult;
+import dk.webbies.tajscheck.DriverListener;
 import dk.webbies.tajscheck.DynamicMain;
 import dk.webbies.tajscheck.OutputParser;
 import dk.webbies.tajscheck.RunSmall;
@@ -62,7 +64,7 @@ public class AutomaticExperiments {
 
         MultiMap<String, OutputParser.TypeError> mismatchCount = new ArrayListMultiMap<>();
         for (int i = 0; i < 10; i++) {
-            OutputParser.RunResult subResult = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+            OutputParser.RunResult subResult = DynamicMain.runAndParseBenchmark(bench);
             for (OutputParser.TypeError typeError : subResult.typeErrors) {
                 mismatchCount.put(typeError.getPath(), typeError);
             }
@@ -82,7 +84,7 @@ public class AutomaticExperiments {
             if (mismatchCount.isEmpty()) {
                 break;
             }
-            OutputParser.RunResult subResult = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+            OutputParser.RunResult subResult = DynamicMain.runAndParseBenchmark(bench);
             for (OutputParser.TypeError typeError : subResult.typeErrors) {
                 mismatchCount.remove(typeError.getPath());
             }
@@ -154,7 +156,7 @@ public class AutomaticExperiments {
             long startTime = System.currentTimeMillis();
 
             for (int i = 0; i < repetitions; i++) {
-                results.add(OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench)));
+                results.add(DynamicMain.runAndParseBenchmark(bench));
             }
 
             long time = System.currentTimeMillis() - startTime;
@@ -188,7 +190,7 @@ public class AutomaticExperiments {
         bench = bench.withOptions(bench.options.getBuilder().setMaxIterationsToRun(-1));
         long start = System.currentTimeMillis();
         DynamicMain.writeFullDriver(bench);
-        OutputParser.RunResult result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
 
         List<OutputParser.TypeError> errors = result.typeErrors;
 
@@ -207,12 +209,26 @@ public class AutomaticExperiments {
                 ));
     });
 
+    private static final Pair<List<String>, Experiment.ExperimentMultiRunner> throughput = new Pair<>(Arrays.asList("testsExecuted", "executionTime", "tests/s"), (bench) -> {
+        DynamicMain.writeFullDriver(bench);
+        OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
+
+        if (result.getTestsExecuted() < 0) {
+            return Arrays.asList(null, null, null);
+        }
+        return Arrays.asList(
+                Long.toString(result.getTestsExecuted()),
+                Util.toFixed(result.getExecutionTime() / 1000.0, 1) + "s",
+                Util.toFixed(result.getTestsPerSecond(), 0)
+        );
+    });
+
     private static Pair<List<String>, Experiment.ExperimentMultiRunner> uniquePathsTestCoverage(int runs) {
         return new Pair<>(Arrays.asList("uniquePaths(" + runs + ")", "testsRun(" + runs + ")", "totalTests(" + runs + ")", "testsCoverage(" + runs + ")"), (bench) -> {
             DynamicMain.writeFullDriver(bench);
             List<OutputParser.RunResult> results = new ArrayList<>();
             for (int i = 0; i < runs; i++) {
-                results.add(OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench)));
+                results.add(DynamicMain.runAndParseBenchmark(bench));
             }
             OutputParser.RunResult result = OutputParser.combine(results);
             List<OutputParser.TypeError> errors = result.typeErrors;
@@ -232,7 +248,7 @@ public class AutomaticExperiments {
 
     private static final Pair<List<String>, Experiment.ExperimentMultiRunner> uniquePathsConvergence = new Pair<>(Arrays.asList("uniquePaths", "uniquePathsConvergence", "iterationsUntilConvergence"), (bench) -> {
         DynamicMain.writeFullDriver(bench);
-        OutputParser.RunResult result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
         Set<String> paths = result.typeErrors.stream().map(OutputParser.TypeError::getPath).collect(Collectors.toSet());
         long firstPathCount = paths.size();
         System.out.println("Counted " + firstPathCount + " paths, trying to test again, to see if i get more");
@@ -242,7 +258,7 @@ public class AutomaticExperiments {
         int runs = 0;
         while (prevCount != count) {
             prevCount = count;
-            result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+            result = DynamicMain.runAndParseBenchmark(bench);
             runs++;
             result.typeErrors.stream().map(OutputParser.TypeError::getPath).forEach(paths::add);
             count = paths.size();
@@ -283,6 +299,68 @@ public class AutomaticExperiments {
 
     ;
 
+    private static final double[] COVERAGE_TIME_FRACTIONS = {0.1, 0.25, 0.5, 1};
+
+    private static final Pair<List<String>, Experiment.ExperimentMultiRunner> coverageOverTimeUniform = coverageOverTime("(uniform)", opt -> opt);
+    private static final Pair<List<String>, Experiment.ExperimentMultiRunner> coverageOverTimeAdaptive = coverageOverTime("(adaptive)", opt -> opt.dynamicOptions.setAdaptiveTestSelection(true));
+
+    /**
+     * The statement coverage reached after a fraction of the time, from the coverage the driver sends while it runs (so only for node benchmarks).
+     * Compare coverageOverTimeUniform with coverageOverTimeAdaptive, to see how much faster adaptive test selection gets to the same coverage.
+     */
+    private static Pair<List<String>, Experiment.ExperimentMultiRunner> coverageOverTime(String suffix, Function<CheckOptions.Builder, OptionsI.Builder> transformer) {
+        List<String> names = Arrays.stream(COVERAGE_TIME_FRACTIONS).mapToObj(fraction -> "coverage(stmt," + Util.toPercentage(fraction) + ")" + suffix).collect(Collectors.toList());
+        return new Pair<>(names, (bench) -> {
+            bench = bench.withOptions(transformer);
+            bench = bench.withOptions(bench.options.getBuilder().setMaxTime(bench.options.dynamicOptions.maxTime * 5)); // <- More timeout, instrumented code is slower.
+            int maxTime = bench.options.dynamicOptions.maxTime;
+            String jsName = bench.getJSName();
+
+            List<Pair<Long, Double>> samples = new ArrayList<>(); // time since the first test was called -> statement coverage.
+            DriverListener listener = new DriverListener() {
+                long startTime = -1;
+
+                @Override
+                public void testCalled(int test) {
+                    if (startTime == -1) {
+                        startTime = System.currentTimeMillis();
+                    }
+                }
+
+                @Override
+                public void coverage(CoverageAccumulator coverage) {
+                    CoverageResult result = coverage.getResults().get(jsName);
+                    if (result != null) {
+                        // The coverage sent before the first test (from loading the library) is the coverage at time 0.
+                        samples.add(new Pair<>(startTime == -1 ? 0 : System.currentTimeMillis() - startTime, result.statementCoverage()));
+                    }
+                }
+            };
+            try {
+                DynamicMain.genCoverage(bench, DynamicMain.TEST_FILE_NAME, true, listener);
+            } catch (Exception e) {
+                System.out.println("Exception: " + e.getClass().getSimpleName() + " while doing coverage.");
+                e.printStackTrace();
+                return names.stream().map(name -> (String) null).collect(Collectors.toList());
+            }
+
+            // The coverage at a time is the last sample before it, carried forward until the next sample.
+            // A fraction before the first sample gets the first sample, the coverage can only have been lower, but that is the best we know.
+            List<String> result = new ArrayList<>();
+            for (double fraction : COVERAGE_TIME_FRACTIONS) {
+                Double covered = samples.isEmpty() ? null : samples.get(0).getRight();
+                for (Pair<Long, Double> sample : samples) {
+                    // The last coverage is sent after the time is up.
+                    if (fraction >= 1 || sample.getLeft() <= fraction * maxTime) {
+                        covered = sample.getRight();
+                    }
+                }
+                result.add(covered == null ? null : Util.toPercentage(covered));
+            }
+            return result;
+        });
+    }
+
     private static Pair<List<String>, Experiment.ExperimentMultiRunner> uniquePathsAndCoverage(int runs) {
         return new Pair<>(Arrays.asList("uniquePaths", "coverage(stmt)", "coverage(functions)", "coverage(branches)", runs + "coverage(stmt)", runs + "coverage(functions)", runs + "coverage(branches)"), (bench) -> {
             String uniquePaths = AutomaticExperiments.uniquePaths.getRight().run(bench).get(0);
@@ -0,0 +1,231 @@
+package dk.webbies.tajscheck.test.experiments;
+
+import dk.webbies.tajscheck.CoverageResult;
+import dk.webbies.tajscheck.CoverageResult.SourceLocation;
+import dk.webbies.tajscheck.CoverageResult.SourcePosition;
+import dk.webbies.tajscheck.util.Util;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Measures time and allocation of combining and splitting coverage, with the column-wise CoverageResult and with the map based representation it replaced (kept here as MapCoverage).
+ * The coverage is synthetic: a number of runs of the same files, every run with its own SourceLocation objects (like when parsed from istanbul).
+ * Optional arguments: [files] [statementsPerFile] [runs] [iterations]
+ */
+public class CoverageResultBenchmark {
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int statementsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Random random = new Random(42);
+        List<List<Raw>> raw = new ArrayList<>();
+        for (int run = 0; run < runs; run++) {
+            List<Raw> runFiles = new ArrayList<>();
+            for (int file = 0; file < files; file++) {
+                runFiles.add(new Raw(new Random(file), random, statementsPerFile));
+            }
+            raw.add(runFiles);
+        }
+
+        Table table = new Table();
+        table.addRow(Arrays.asList("representation", "operation", "time", "allocated", "checksum"));
+
+        List<List<MapCoverage>> maps = raw.stream().map(run -> run.stream().map(Raw::toMapCoverage).collect(Collectors.toList())).collect(Collectors.toList());
+        List<List<CoverageResult>> columns = raw.stream().map(run -> run.stream().map(Raw::toCoverageResult).collect(Collectors.toList())).collect(Collectors.toList());
+
+        measure(table, "maps", "combine", iterations, () -> {
+            double checksum = 0;
+            for (int file = 0; file < files; file++) {
+                MapCoverage combined = maps.get(0).get(file);
+                for (int run = 1; run < runs; run++) {
+                    combined = MapCoverage.combine(combined, maps.get(run).get(file));
+                }
+                checksum += combined.statementCoverage();
+            }
+            return checksum;
+        });
+        measure(table, "columns", "combine", iterations, () -> {
+            double checksum = 0;
+            for (int file = 0; file < files; file++) {
+                final int finalFile = file;
+                CoverageResult combined = CoverageResult.combine(columns.stream().map(run -> run.get(finalFile)).collect(Collectors.toList()));
+                checksum += combined.statementCoverage();
+            }
+            return checksum;
+        });
+
+        int splitLine = statementsPerFile / 2;
+        measure(table, "maps", "split", iterations, () -> {
+            double checksum = 0;
+            for (List<MapCoverage> run : maps) {
+                for (MapCoverage coverage : run) {
+                    checksum += coverage.split(splitLine).get(0).statementCoverage();
+                }
+            }
+            return checksum;
+        });
+        measure(table, "columns", "split", iterations, () -> {
+            double checksum = 0;
+            for (List<CoverageResult> run : columns) {
+                for (CoverageResult coverage : run) {
+                    checksum += coverage.split(splitLine, "first", "second").get("first").statementCoverage();
+                }
+            }
+            return checksum;
+        });
+
+        System.out.println(table.toCSV());
+    }
+
+    private static void measure(Table table, String representation, String operation, int iterations, Supplier<Double> benchmark) {
+        // Warmup.
+        for (int i = 0; i < iterations; i++) {
+            benchmark.get();
+        }
+        System.gc();
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        double checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += benchmark.get();
+        }
+        long time = System.nanoTime() - startTime;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        table.addRow(Arrays.asList(
+                representation,
+                operation,
+                Util.toFixed(time / (iterations * 1000000.0), 2) + "ms",
+                Util.toFixed(allocated / (iterations * 1024.0 * 1024.0), 1) + "MB",
+                Util.toFixed(checksum, 4)
+        ));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The coverage of one file in one run. The locations only depend on the file, the counts on the run.
+     */
+    private static final class Raw {
+        final SourceLocation[] statements;
+        final int[] statementCounts;
+        final SourceLocation[] functions;
+        final int[] functionCounts;
+        final SourceLocation[] branches;
+        final int[][] branchCounts;
+
+        Raw(Random locationRandom, Random countRandom, int size) {
+            statements = new SourceLocation[size];
+            statementCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                statements[i] = location(i, locationRandom);
+                statementCounts[i] = countRandom.nextInt(4);
+            }
+            functions = new SourceLocation[size / 10];
+            functionCounts = new int[size / 10];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = location(i * 10, locationRandom);
+                functionCounts[i] = countRandom.nextInt(3);
+            }
+            branches = new SourceLocation[size / 5];
+            branchCounts = new int[size / 5][];
+            for (int i = 0; i < branches.length; i++) {
+                branches[i] = location(i * 5, locationRandom);
+                branchCounts[i] = new int[]{countRandom.nextInt(3), countRandom.nextInt(3)};
+            }
+        }
+
+        private static SourceLocation location(int line, Random random) {
+            int column = random.nextInt(80);
+            return new SourceLocation(new SourcePosition(line, column), new SourcePosition(line, column + 1 + random.nextInt(40)));
+        }
+
+        MapCoverage toMapCoverage() {
+            return new MapCoverage(toCountMap(statements, statementCounts), toArmMap(), toCountMap(functions, functionCounts));
+        }
+
+        CoverageResult toCoverageResult() {
+            return new CoverageResult(toCountMap(statements, statementCounts), toArmMap(), toCountMap(functions, functionCounts));
+        }
+
+        private static Map<SourceLocation, Integer> toCountMap(SourceLocation[] locations, int[] counts) {
+            Map<SourceLocation, Integer> result = new HashMap<>();
+            for (int i = 0; i < locations.length; i++) {
+                result.put(copy(locations[i]), counts[i]);
+            }
+            return result;
+        }
+
+        private Map<SourceLocation, Collection<Integer>> toArmMap() {
+            Map<SourceLocation, Collection<Integer>> result = new HashMap<>();
+            for (int i = 0; i < branches.length; i++) {
+                result.put(copy(branches[i]), Arrays.stream(branchCounts[i]).boxed().collect(Collectors.toList()));
+            }
+            return result;
+        }
+
+        private static SourceLocation copy(SourceLocation location) {
+            return new SourceLocation(new SourcePosition(location.start.line, location.start.column), new SourcePosition(location.end.line, location.end.column));
+        }
+    }
+
+    /**
+     * How CoverageResult used to store coverage, with the same combine and split.
+     */
+    private static final class MapCoverage {
+        final Map<SourceLocation, Integer> statements;
+        final Map<SourceLocation, Collection<Integer>> branches;
+        final Map<SourceLocation, Integer> functions;
+
+        MapCoverage(Map<SourceLocation, Integer> statements, Map<SourceLocation, Collection<Integer>> branches, Map<SourceLocation, Integer> functions) {
+            this.statements = statements;
+            this.branches = branches;
+            this.functions = functions;
+        }
+
+        double statementCoverage() {
+            return statements.values().stream().filter(n -> n > 0).count() / (statements.size() * 1.0);
+        }
+
+        static MapCoverage combine(MapCoverage one, MapCoverage two) {
+            Map<SourceLocation, Integer> statements = new HashMap<>();
+            Map<SourceLocation, Collection<Integer>> branches = new HashMap<>();
+            Map<SourceLocation, Integer> functions = new HashMap<>();
+
+            for (SourceLocation location : one.statements.keySet()) {
+                statements.put(location, one.statements.get(location) + two.statements.get(location));
+            }
+            for (SourceLocation location : one.functions.keySet()) {
+                functions.put(location, one.functions.get(location) + two.functions.get(location));
+            }
+            for (SourceLocation location : one.branches.keySet()) {
+                List<Integer> subResult = Util.zip(one.branches.get(location), two.branches.get(location)).stream().map((pair) -> pair.getLeft() + pair.getRight()).collect(Collectors.toList());
+                branches.put(location, subResult);
+            }
+
+            return new MapCoverage(statements, branches, functions);
+        }
+
+        List<MapCoverage> split(int split) {
+            MapCoverage first = new MapCoverage(new HashMap<>(), new HashMap<>(), new HashMap<>());
+            MapCoverage second = new MapCoverage(new HashMap<>(), new HashMap<>(), new HashMap<>());
+            for (Map.Entry<SourceLocation, Integer> entry : this.statements.entrySet()) {
+                (entry.getKey().start.line < split ? first : second).statements.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<SourceLocation, Collection<Integer>> entry : this.branches.entrySet()) {
+                (entry.getKey().start.line < split ? first : second).branches.put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<SourceLocation, Integer> entry : this.functions.entrySet()) {
+                (entry.getKey().start.line < split ? first : second).functions.put(entry.getKey(), entry.getValue());
+            }
+            return Arrays.asList(first, second);
+        }
+    }
+}
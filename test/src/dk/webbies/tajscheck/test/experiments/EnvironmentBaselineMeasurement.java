@@ -0,0 +1,72 @@
+package dk.webbies.tajscheck.test.experiments;
+
+import dk.webbies.tajscheck.benchmark.Benchmark;
+import dk.webbies.tajscheck.benchmark.BenchmarkInfo;
+import dk.webbies.tajscheck.parsespec.EnvironmentBaseline;
+import dk.webbies.tajscheck.parsespec.ParseDeclaration;
+import dk.webbies.tajscheck.test.dynamic.RunBenchmarks;
+import dk.webbies.tajscheck.util.Util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Measures time, allocation and retained heap of creating a BenchmarkInfo for many benchmarks, with and without sharing the environment between them (EnvironmentBaseline).
+ * Optional arguments: [benchmarkName]*
+ */
+public class EnvironmentBaselineMeasurement {
+    public static void main(String[] args) {
+        List<Benchmark> benchmarks = args.length > 0 ?
+                Arrays.stream(args).map(RunBenchmarks.benchmarks::get).collect(Collectors.toList()) :
+                RunBenchmarks.benchmarks.values().stream().filter(bench -> bench.dTSFile.endsWith(".ts")).limit(30).collect(Collectors.toList());
+
+        // Making sure everything is in the spec cache, and that snapshots are not used, such that both runs parse the environment the same way.
+        ParseDeclaration.useSnapshots = false;
+        EnvironmentBaseline.useCache = false;
+        benchmarks.forEach(BenchmarkInfo::create);
+
+        Table table = new Table();
+        table.addRow(Arrays.asList("shared environment", "benchmarks", "time", "allocated", "retained"));
+        for (boolean useCache : Arrays.asList(false, true)) {
+            EnvironmentBaseline.useCache = useCache;
+            System.gc();
+            long heapBefore = usedHeap();
+            long allocatedBefore = allocatedBytes();
+            long startTime = System.currentTimeMillis();
+
+            List<BenchmarkInfo> infos = new ArrayList<>();
+            for (Benchmark benchmark : benchmarks) {
+                infos.add(BenchmarkInfo.create(benchmark));
+            }
+
+            long time = System.currentTimeMillis() - startTime;
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.gc();
+            long retained = usedHeap() - heapBefore;
+
+            table.addRow(Arrays.asList(
+                    Boolean.toString(useCache),
+                    Integer.toString(infos.size()),
+                    Util.toFixed(time / 1000.0, 2) + "s",
+                    toMB(allocated),
+                    toMB(retained)
+            ));
+        }
+        System.out.println(table.toCSV());
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String toMB(long bytes) {
+        return Util.toFixed(bytes / (1024.0 * 1024.0), 1) + "MB";
+    }
+}
@@ -1,6 +1,9 @@
 package dk.webbies.tajscheck.test.experiments;
 
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import dk.webbies.tajscheck.benchmark.Benchmark;
+import dk.webbies.tajscheck.tajstester.TajsAnalysisSessionPool;
 import dk.webbies.tajscheck.test.dynamic.RunBenchmarks;
 import dk.webbies.tajscheck.util.Pair;
 import dk.webbies.tajscheck.util.Util;
@@ -10,6 +13,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +32,7 @@ public class Experiment {
 
     private final List<Pair<String, Benchmark>> benchmarks;
     private final List<BiConsumer<Benchmark, BiConsumer<String, String>>> experiments = new ArrayList<>();
+    private TajsAnalysisSessionPool sessions = null; // Only set while calculate() is running.
 
     public Experiment(List<Benchmark> benchmarks) {
         this.benchmarks = benchmarks.stream().map(bench -> new Pair<>(bench.name, bench)).sorted(Comparator.comparing(pair -> pair.getLeft().toLowerCase())).collect(Collectors.toList());
@@ -96,6 +101,23 @@ public class Experiment {
 
 
 
+    /**
+     * Adds an experiment that runs in a TajsAnalysisSession, such that static experiments can be calculated with more than one thread.
+     * The task is given the name of the benchmark (so the benchmark must be one from RunBenchmarks), and must return a JSON object from column names to results.
+     */
+    public Experiment addIsolatedExperiment(Class<? extends Function<String, String>> task) {
+        return addIsolatedExperiment(task, Function.identity());
+    }
+
+    public Experiment addIsolatedExperiment(Class<? extends Function<String, String>> task, Function<String, String> benchmarkNameToArgument) {
+        this.experiments.add((benchmark, register) -> {
+            String json = sessions.run(task, benchmarkNameToArgument.apply(benchmark.name));
+            Map<String, String> result = new Gson().fromJson(json, new TypeToken<LinkedHashMap<String, String>>(){}.getType());
+            result.forEach(register);
+        });
+        return this;
+    }
+
     public Table calculate() {
         return calculate(null);
     }
@@ -107,13 +129,14 @@ public class Experiment {
     public Table calculate(int threads, String saveFile) {
         Table table = new Table();
 
-        List<String> header = new ArrayList<>();
+        List<String> header = Collections.synchronizedList(new ArrayList<>());
         header.add("Library");
         Map<String, Integer> headerIndexes = new HashMap<>();
 
         table.addRow(header);
 
         ExecutorService pool = Executors.newFixedThreadPool(threads);
+        this.sessions = new TajsAnalysisSessionPool(threads);
 
         for (int i = 0; i < benchmarks.size(); i++) {
             int rowIndex = i + 1;
@@ -133,12 +156,14 @@ public class Experiment {
                             try {
                                 experiment.accept(benchmark.getRight(), (name, result) -> {
                                     int index;
-                                    if (headerIndexes.containsKey(name)) {
-                                        index = headerIndexes.get(name);
-                                    } else {
-                                        index = headerIndexes.size() + 1;
-                                        headerIndexes.put(name, index);
-                                        header.add(name);
+                                    synchronized (headerIndexes) {
+                                        if (headerIndexes.containsKey(name)) {
+                                            index = headerIndexes.get(name);
+                                        } else {
+                                            index = headerIndexes.size() + 1;
+                                            headerIndexes.put(name, index);
+                                            header.add(name);
+                                        }
                                     }
                                     while (row.size() <= index) {
                                         row.add("");
@@ -176,6 +201,9 @@ public class Experiment {
             pool.awaitTermination(30, TimeUnit.DAYS);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } finally {
+            this.sessions.close();
+            this.sessions = null;
         }
 
 
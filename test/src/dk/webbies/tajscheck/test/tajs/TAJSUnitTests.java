@@ -10,6 +10,7 @@ import dk.webbies.tajscheck.benchmark.options.staticOptions.StaticOptions;
 import dk.webbies.tajscheck.benchmark.options.staticOptions.filter.CopyObjectInstantiation;
 import dk.webbies.tajscheck.benchmark.options.staticOptions.preferlibvalues.PreferLibValuesPolicy;
 import dk.webbies.tajscheck.parsespec.ParseDeclaration;
+import dk.webbies.tajscheck.tajstester.TajsVerdictCache;
 import dk.webbies.tajscheck.tajstester.data.TypeViolation;
 import dk.webbies.tajscheck.test.dynamic.UnitTests;
 import dk.webbies.tajscheck.test.tajs.analyze.AnalyzeBenchmarks;
@@ -2160,6 +2161,31 @@ public class TAJSUnitTests {
         run("continueOnAnalysisLimitation"); // smoke test.
     }
 
+    @Test
+    public void verdictCacheDoesNotChangeResults() throws Exception {
+        long hits = 0;
+        for (String folder : Arrays.asList("callbacks", "nestedFunctions", "numberIndexerFails", "overloadedCallbacks", "createRecursiveObject2", "stringIndexCheck2")) {
+            int maxEntries = TajsVerdictCache.maxEntries;
+            TajsAnalysisResults uncached;
+            try {
+                TajsVerdictCache.maxEntries = 0; // same as -Dtajscheck.verdictCacheSize=0
+                uncached = run(folder);
+            } finally {
+                TajsVerdictCache.maxEntries = maxEntries;
+            }
+            TajsAnalysisResults cached = run(folder);
+
+            assertThat(folder, violationStrings(cached.detectedViolations), is(violationStrings(uncached.detectedViolations)));
+            assertThat(folder, violationStrings(cached.detectedWarnings), is(violationStrings(uncached.detectedWarnings)));
+            hits += cached.verdictCache.hits;
+        }
+        assertThat("the verdict cache was never used", hits, is(greaterThan(0L)));
+    }
+
+    private static List<String> violationStrings(MultiMap<String, TypeViolation> violations) {
+        return violations.asMap().values().stream().flatMap(Collection::stream).map(TypeViolation::toString).sorted().collect(Collectors.toList());
+    }
+
     // TODO: Should receiver of methodCall get filtered?
 
     // todo: StringIndexTest and NumberIndexTest are unsound, in that they ignore all properties on prototypes.
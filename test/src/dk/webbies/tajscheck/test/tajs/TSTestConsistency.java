@@ -76,7 +76,7 @@ public class TSTestConsistency {
             Util.writeFile(DynamicMain.getFolderPath(bench) + DynamicMain.TEST_FILE_NAME, tstestDriver);
         }
 
-        OutputParser.RunResult tsTestResult = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        OutputParser.RunResult tsTestResult = DynamicMain.runAndParseBenchmark(bench);
 
         Set<dk.webbies.tajscheck.testcreator.test.Test> testsCalledByTsTest = tsTestResult.getTestsCalled().stream().map(tests::get).collect(Collectors.toSet());
 
@@ -0,0 +1,73 @@
+package dk.webbies.tajscheck.test.tajs.analyze;
+
+import dk.webbies.tajscheck.tajstester.TajsAnalysisSessionPool;
+import dk.webbies.tajscheck.test.experiments.Table;
+import dk.webbies.tajscheck.util.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how the throughput of static analyses scales with the number of concurrent TajsAnalysisSessions.
+ *
+ * Every benchmark is analyzed in every ReaGenT variant, first using 1 session, then 2, 4, etc. up to the number of cores.
+ * Optional arguments: [maxSessions] [benchmarkName]*
+ */
+public class AnalysisThroughput {
+    private static final List<String> defaultBenchmarks = Arrays.asList(
+            "classnames",
+            "component-emitter",
+            "js-cookie",
+            "loglevel",
+            "uuid"
+    );
+
+    public static void main(String[] args) {
+        int maxSessions = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        List<String> benchmarks = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : defaultBenchmarks;
+
+        List<String> arguments = benchmarks.stream()
+                .flatMap(bench -> CompareModesEvaluation.modes.keySet().stream().map(mode -> IsolatedAnalysisTask.argument(bench, mode)))
+                .collect(Collectors.toList());
+
+        {
+            // warmup (also populates the spec cache, such that the first measurement doesn't pay for that).
+            try (TajsAnalysisSessionPool pool = new TajsAnalysisSessionPool(1)) {
+                pool.run(IsolatedAnalysisTask.class, IsolatedAnalysisTask.argument(benchmarks.get(0), "all-assumptions"));
+            }
+        }
+
+        Table table = new Table();
+        table.addRow(Arrays.asList("sessions", "analyses", "time", "analyses/minute", "speedup"));
+
+        double baseline = -1;
+        for (int sessions = 1; ; sessions = Math.min(sessions * 2, maxSessions)) {
+            long startTime = System.currentTimeMillis();
+            try (TajsAnalysisSessionPool pool = new TajsAnalysisSessionPool(sessions)) {
+                pool.runAll(IsolatedAnalysisTask.class, arguments);
+            }
+            double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+            if (baseline < 0) {
+                baseline = seconds;
+            }
+
+            List<String> row = new ArrayList<>();
+            row.add(sessions + "");
+            row.add(arguments.size() + "");
+            row.add(Util.toFixed(seconds, 1) + "s");
+            row.add(Util.toFixed(arguments.size() / (seconds / 60), 2));
+            row.add(Util.toFixed(baseline / seconds, 2));
+            table.addRow(row);
+
+            System.out.println(table.toCSV());
+
+            if (sessions >= maxSessions) {
+                break;
+            }
+        }
+
+        System.exit(0);
+    }
+}
@@ -182,7 +182,7 @@ public class CompareModesEvaluation {
             Map<Benchmark, OutputParser.RunResult> results = new HashMap<>();
             for (Benchmark bench : benches) {
                 DynamicMain.writeFullDriver(bench);
-                OutputParser.RunResult result = OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+                OutputParser.RunResult result = DynamicMain.runAndParseBenchmark(bench);
                 RunBenchmarks.printErrors(bench, result);
                 System.out.println();
                 results.put(bench, result);
@@ -0,0 +1,63 @@
+package dk.webbies.tajscheck.test.tajs.analyze;
+
+import com.google.gson.Gson;
+import dk.webbies.tajscheck.benchmark.Benchmark;
+import dk.webbies.tajscheck.benchmark.options.CheckOptions;
+import dk.webbies.tajscheck.benchmark.options.staticOptions.StaticOptions;
+import dk.webbies.tajscheck.tajstester.TAJSUtil;
+import dk.webbies.tajscheck.test.dynamic.RunBenchmarks;
+import dk.webbies.tajscheck.util.Pair;
+import dk.webbies.tajscheck.util.Util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Analyzes a benchmark from RunBenchmarks, meant to be run inside a TajsAnalysisSession.
+ *
+ * The argument is "[benchmarkName]" or "[benchmarkName]|[mode]", where mode is one of CompareModesEvaluation.modes (the ReaGenT variants).
+ * The result is a JSON object from column names to values, in the same format as the experiments in TajsCheckerEvaluation.
+ */
+public class IsolatedAnalysisTask implements Function<String, String> {
+    public static final int TIMEOUT = 60 * 60;
+
+    public static String argument(String benchmark, String mode) {
+        return benchmark + "|" + mode;
+    }
+
+    @Override
+    public String apply(String argument) {
+        String[] split = argument.split("\\|");
+        String modeName = split.length > 1 ? split[1] : "all-assumptions";
+
+        Benchmark benchmark = RunBenchmarks.benchmarks.get(split[0]);
+        if (benchmark == null) {
+            throw new RuntimeException("Library: " + split[0] + " not found");
+        }
+        Pair<Function<Benchmark, Benchmark>, Function<CheckOptions.Builder, StaticOptions.Builder>> mode = CompareModesEvaluation.modes.get(modeName);
+        if (mode == null) {
+            throw new RuntimeException("Mode: " + modeName + " not found. Possible modes are: " + CompareModesEvaluation.modes.keySet().toString());
+        }
+        benchmark = mode.getLeft().apply(benchmark);
+        benchmark = benchmark.withOptions(AnalyzeBenchmarks.options().andThen(options -> mode.getRight().apply(options.getOuterBuilder())));
+
+        long startTime = System.currentTimeMillis();
+        TAJSUtil.TajsAnalysisResults result;
+        try {
+            result = TAJSUtil.runNoDriver(benchmark, TIMEOUT);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        long endTime = System.currentTimeMillis();
+
+        Map<String, String> row = new LinkedHashMap<>();
+        row.put("timedout", Boolean.toString(result.timedout));
+        row.put("violations", result.detectedViolations.asMap().values().stream().mapToInt(Collection::size).sum() + "");
+        row.put("totalTests", result.testNot.size() + result.testPerformed.size() + "");
+        row.put("testsPerformed", result.testPerformed.size() + "");
+        row.put("time", Util.toFixed((endTime - startTime) / 1000.0, 1) + "s");
+        return new Gson().toJson(row);
+    }
+}
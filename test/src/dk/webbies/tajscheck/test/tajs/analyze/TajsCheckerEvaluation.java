@@ -164,7 +164,7 @@ public class TajsCheckerEvaluation {
 
         Util.writeFile(DynamicMain.getFolderPath(bench) + DynamicMain.TEST_FILE_NAME, programString);
 
-        return OutputParser.parseDriverResult(DynamicMain.runBenchmark(bench));
+        return DynamicMain.runAndParseBenchmark(bench);
     }
 
 
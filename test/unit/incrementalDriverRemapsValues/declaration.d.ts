@@ -0,0 +1,5 @@
+interface Foo {
+    first(): number;
+    second(x: number): string;
+}
+declare var module: Foo;
@@ -0,0 +1,11 @@
+module.exports = {
+    added: function () {
+        return true;
+    },
+    first: function () {
+        return 1;
+    },
+    second: function (x) {
+        return "" + x;
+    }
+};
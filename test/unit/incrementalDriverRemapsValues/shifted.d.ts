@@ -0,0 +1,6 @@
+interface Foo {
+    added(): boolean;
+    first(): number;
+    second(x: number): string;
+}
+declare var module: Foo;
@@ -0,0 +1,10 @@
+
+export module module {
+    interface Tree {
+        value: number;
+        children: Tree[];
+    }
+    function tree(): Tree;
+    function shape(): {kind: string, radius: number} | {kind: string, width: number, height: number};
+    function shared(): {value: number} | {value: string, name: string};
+}
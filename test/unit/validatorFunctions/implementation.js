@@ -0,0 +1,29 @@
+
+// The same object is returned by every call to shared(), it stops matching the declaration after the first call.
+var sharedObject = {value: 1};
+var sharedCalls = 0;
+
+module.exports = {
+    tree: function () {
+        return {
+            value: 1,
+            children: [
+                {value: 2, children: []},
+                {value: "3", children: [{value: 4, children: []}]} // <- value is not a number.
+            ]
+        };
+    },
+    shape: function () {
+        switch ((Math.random() * 2) | 0) {
+            case 0: return {kind: "circle", radius: 1};
+            case 1: return {kind: "rectangle", width: 1, height: "2"}; // <- height is not a number.
+        }
+    },
+    shared: function () {
+        sharedCalls++;
+        if (sharedCalls === 2) {
+            sharedObject.value = true;
+        }
+        return sharedObject;
+    }
+};